@@ -9,6 +9,7 @@ package com.pspdfkit.catalog;
 
 import androidx.multidex.MultiDexApplication;
 
+import com.pspdfkit.catalog.tasks.AssetExtractionManager;
 import com.pspdfkit.example.PSPDFKitReporting;
 
 public class PSPDFCatalog extends MultiDexApplication {
@@ -17,6 +18,9 @@ public class PSPDFCatalog extends MultiDexApplication {
     public void onCreate() {
         super.onCreate();
         PSPDFKitReporting.initializeBugReporting(this);
+
+        // Most examples use these documents, so they are extracted in the background after the app was installed or updated.
+        AssetExtractionManager.getInstance(this).warmUp(PSPDFExample.QUICK_START_GUIDE, PSPDFExample.ANNOTATIONS_EXAMPLE);
     }
 
 }
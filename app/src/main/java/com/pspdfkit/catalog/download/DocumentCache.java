@@ -0,0 +1,591 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.download;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.pspdfkit.catalog.utils.StringUtils;
+import com.pspdfkit.document.download.source.DownloadSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * On-disk cache for downloaded documents, shared by all download paths of the catalog.
+ * <p>
+ * Documents are stored by the SHA-256 hash of their content, so the same document downloaded from different URLs is only stored once. For every URL the
+ * cache remembers which content it returned, together with its validator ({@code ETag} or {@code Last-Modified}). Opening a cached URL again sends a
+ * conditional request, and the cached content is reused if the server answers with {@code 304 Not Modified}. If the server can't be reached, the cached
+ * content is used as well. The least recently used URLs are evicted once the cache exceeds its size budget.
+ * <p>
+ * Downloads are verified while they stream: the SHA-256 digest that is computed anyway for storing the document is compared against the digest
+ * announced by the server. Mismatching downloads fail and are not cached.
+ * <p>
+ * Cached files are shared and must never be modified. Use {@link #source(URL)} with a {@code DownloadJob} to get a private copy.
+ */
+public class DocumentCache {
+    private static final String LOG_TAG = "DocumentCache";
+
+    /** Size budget of the cache returned by {@link #getInstance(Context)}. */
+    public static final long DEFAULT_MAX_SIZE_BYTES = 200 * 1024 * 1024;
+
+    private static final String ENTRY_URL = "url";
+    private static final String ENTRY_HASH = "sha256";
+    private static final String ENTRY_VALIDATOR = "validator";
+    private static final String ENTRY_LAST_ACCESS = "lastAccess";
+    private static final String ENTRY_VERIFIED = "verified";
+
+    @Nullable private static DocumentCache instance;
+
+    @NonNull private final File blobDirectory;
+    @NonNull private final File entryDirectory;
+    @NonNull private final File partialDirectory;
+    @NonNull private final File temporaryDirectory;
+    private final long maxSizeBytes;
+
+    /** Cached URLs by URL. Loaded from disk on first access. Guarded by {@code this}. */
+    @Nullable private Map<String, Entry> entries;
+    /** URLs whose partial file is used by a running download. Guarded by {@code this}. */
+    @NonNull private final Set<String> downloadingUrls = new HashSet<>();
+
+    /**
+     * Returns the cache shared by the whole app, stored in the app's cache directory.
+     */
+    @NonNull
+    public static synchronized DocumentCache getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new DocumentCache(new File(context.getApplicationContext().getCacheDir(), "document-cache"), DEFAULT_MAX_SIZE_BYTES);
+        }
+        return instance;
+    }
+
+    /**
+     * @param directory    Directory the cache is stored in. It must not be used by anything else.
+     * @param maxSizeBytes Size budget of the cache.
+     */
+    public DocumentCache(@NonNull File directory, long maxSizeBytes) {
+        this.blobDirectory = new File(directory, "blobs");
+        this.entryDirectory = new File(directory, "entries");
+        this.partialDirectory = new File(directory, "partial");
+        this.temporaryDirectory = new File(directory, "tmp");
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Returns a download source for the given URL that is served from the cache if possible. Documents that aren't cached yet are downloaded using a
+     * {@link ResumableDownloadSource} and stored in the cache as soon as they were read completely.
+     */
+    @NonNull
+    public DownloadSource source(@NonNull URL url) {
+        return new CachedDownloadSource(url);
+    }
+
+    /**
+     * Returns the SHA-256 digest of the cached content of {@code url} as hex string, or {@code null} if the URL isn't cached.
+     */
+    @Nullable
+    public String getSha256(@NonNull URL url) {
+        final Entry entry = getEntry(url);
+        return entry != null ? entry.hash : null;
+    }
+
+    /**
+     * Returns the cached content of {@code url} unless the server reports that it changed. If the server can't be reached, the cached content is
+     * returned as well, like when opening a {@link #source(URL)}. Returns {@code null} if the URL isn't cached or the server sent anything but
+     * {@code 304 Not Modified}. This sends a conditional request and must not be called on the main thread.
+     */
+    @Nullable
+    public File getIfUnchanged(@NonNull URL url) {
+        final Entry entry = getEntry(url);
+        if (entry == null || entry.validator == null) return null;
+
+        try (Response response = executeConditionalRequest(url, entry)) {
+            if (response.code() != HttpURLConnection.HTTP_NOT_MODIFIED) return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to revalidate " + url + ", using cached content - " + e.getMessage(), e);
+        }
+        touch(entry);
+        return getBlobFile(entry.hash);
+    }
+
+    /**
+     * Moves a downloaded document into the cache, so it isn't stored twice. The file has to be on the same file system as the cache, and it is gone
+     * afterwards. Streams and channels that are still open on it can keep reading it.
+     *
+     * @param url       URL the document was downloaded from.
+     * @param file      The downloaded document. It must not be modified anymore.
+     * @param validator {@code ETag} or {@code Last-Modified} value of the response, or {@code null} if there was none.
+     */
+    public void moveIn(@NonNull URL url, @NonNull File file, @Nullable String validator) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Device is missing SHA-256!", e);
+        }
+        try (InputStream inputStream = new FileInputStream(file)) {
+            final byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        commit(url.toString(), file, StringUtils.byteToHex(digest.digest()), validator, false);
+    }
+
+    /** Returns the number of bytes currently stored in the cache. */
+    public synchronized long getSizeBytes() {
+        long size = 0;
+        for (String hash : getReferencedHashes(getEntries().values())) {
+            size += getBlobFile(hash).length();
+        }
+        return size;
+    }
+
+    /** Returns the cache entry of {@code url}, or {@code null} if the URL isn't cached. */
+    @Nullable
+    private synchronized Entry getEntry(@NonNull URL url) {
+        final Entry entry = getEntries().get(url.toString());
+        if (entry == null) return null;
+        if (!getBlobFile(entry.hash).exists()) {
+            // The blob was removed from under us, for example when the system cleared the app's cache directory.
+            removeEntry(entry);
+            return null;
+        }
+        return entry;
+    }
+
+    @NonNull
+    private Map<String, Entry> getEntries() {
+        if (entries != null) return entries;
+
+        entries = new HashMap<>();
+        final File[] entryFiles = entryDirectory.listFiles();
+        if (entryFiles == null) return entries;
+        for (File entryFile : entryFiles) {
+            final Properties properties = new Properties();
+            try (InputStream inputStream = new FileInputStream(entryFile)) {
+                properties.load(inputStream);
+                final Entry entry = new Entry(properties.getProperty(ENTRY_URL),
+                                              properties.getProperty(ENTRY_HASH),
+                                              properties.getProperty(ENTRY_VALIDATOR),
+                                              Long.parseLong(properties.getProperty(ENTRY_LAST_ACCESS, "0")),
+                                              Boolean.parseBoolean(properties.getProperty(ENTRY_VERIFIED)));
+                if (entry.url != null && entry.hash != null) entries.put(entry.url, entry);
+            } catch (IOException | NumberFormatException e) {
+                Log.w(LOG_TAG, "Dropping unreadable cache entry " + entryFile.getName(), e);
+                //noinspection ResultOfMethodCallIgnored
+                entryFile.delete();
+            }
+        }
+        return entries;
+    }
+
+    private synchronized void touch(@NonNull Entry entry) {
+        entry.lastAccess = System.currentTimeMillis();
+        saveEntry(entry);
+    }
+
+    /**
+     * Moves a completely downloaded document into the cache and records it as the content of {@code url}.
+     *
+     * @param verified Whether {@code hash} was checked against a digest announced by the server.
+     */
+    private synchronized void commit(@NonNull String url, @NonNull File temporaryFile, @NonNull String hash, @Nullable String validator, boolean verified) {
+        final File blobFile = getBlobFile(hash);
+        if (blobFile.exists()) {
+            // Same content is already cached, possibly for another URL.
+            //noinspection ResultOfMethodCallIgnored
+            temporaryFile.delete();
+        } else {
+            //noinspection ResultOfMethodCallIgnored
+            blobDirectory.mkdirs();
+            if (!temporaryFile.renameTo(blobFile)) {
+                Log.w(LOG_TAG, "Failed to store " + url + " in the cache.");
+                //noinspection ResultOfMethodCallIgnored
+                temporaryFile.delete();
+                return;
+            }
+        }
+
+        final Entry previous = getEntries().get(url);
+        final Entry entry = new Entry(url, hash, validator, System.currentTimeMillis(), verified);
+        getEntries().put(url, entry);
+        saveEntry(entry);
+        if (previous != null && !previous.hash.equals(hash)) deleteBlobIfUnused(previous.hash);
+        evict(entry);
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits into its budget. The entry that was just added is kept.
+     */
+    private void evict(@NonNull Entry newestEntry) {
+        long size = getSizeBytes();
+        if (size <= maxSizeBytes) return;
+
+        final List<Entry> entriesByAccess = new ArrayList<>(getEntries().values());
+        Collections.sort(entriesByAccess, (first, second) -> Long.compare(first.lastAccess, second.lastAccess));
+        for (Entry entry : entriesByAccess) {
+            if (size <= maxSizeBytes) break;
+            if (entry == newestEntry) continue;
+            final long blobSize = getBlobFile(entry.hash).length();
+            removeEntry(entry);
+            if (!getBlobFile(entry.hash).exists()) size -= blobSize;
+        }
+    }
+
+    private void removeEntry(@NonNull Entry entry) {
+        getEntries().remove(entry.url);
+        //noinspection ResultOfMethodCallIgnored
+        getEntryFile(entry.url).delete();
+        deleteBlobIfUnused(entry.hash);
+    }
+
+    /** Deletes the blob unless another URL still refers to the same content. */
+    private void deleteBlobIfUnused(@NonNull String hash) {
+        if (getReferencedHashes(getEntries().values()).contains(hash)) return;
+        //noinspection ResultOfMethodCallIgnored
+        getBlobFile(hash).delete();
+    }
+
+    @NonNull
+    private static Set<String> getReferencedHashes(@NonNull Iterable<Entry> entries) {
+        final Set<String> hashes = new HashSet<>();
+        for (Entry entry : entries) {
+            hashes.add(entry.hash);
+        }
+        return hashes;
+    }
+
+    private void saveEntry(@NonNull Entry entry) {
+        final Properties properties = new Properties();
+        properties.setProperty(ENTRY_URL, entry.url);
+        properties.setProperty(ENTRY_HASH, entry.hash);
+        if (entry.validator != null) properties.setProperty(ENTRY_VALIDATOR, entry.validator);
+        properties.setProperty(ENTRY_LAST_ACCESS, Long.toString(entry.lastAccess));
+        if (entry.verified) properties.setProperty(ENTRY_VERIFIED, "true");
+
+        final File entryFile = getEntryFile(entry.url);
+        //noinspection ResultOfMethodCallIgnored
+        entryFile.getParentFile().mkdirs();
+        try (OutputStream outputStream = new FileOutputStream(entryFile)) {
+            properties.store(outputStream, null);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to write cache entry for " + entry.url, e);
+        }
+    }
+
+    @NonNull
+    private File getBlobFile(@NonNull String hash) {
+        return new File(blobDirectory, hash + ".pdf");
+    }
+
+    @NonNull
+    private File getEntryFile(@NonNull String url) {
+        return new File(entryDirectory, StringUtils.sha1(url) + ".properties");
+    }
+
+    /**
+     * Marks the partial file of {@code url} as used by a download. Returns {@code false} if another download is using it already.
+     */
+    private synchronized boolean claimPartialFile(@NonNull URL url) {
+        return downloadingUrls.add(url.toString());
+    }
+
+    private synchronized void releasePartialFile(@NonNull URL url) {
+        downloadingUrls.remove(url.toString());
+    }
+
+    @NonNull
+    private File getPartialFile(@NonNull URL url) {
+        return new File(partialDirectory, StringUtils.sha1(url.toString()) + ".part");
+    }
+
+    /**
+     * Sends a request that only returns content if it changed since it was cached. Revalidating several cached documents from the same host reuses the
+     * pooled connections of {@link DownloadHttpClient}.
+     */
+    @NonNull
+    private static Response executeConditionalRequest(@NonNull URL url, @NonNull Entry entry) throws IOException {
+        final Request.Builder request = new Request.Builder().url(url);
+        if (entry.validator != null) {
+            // Validators starting with a quote are ETags, everything else is a Last-Modified date.
+            request.header(entry.validator.startsWith("\"") ? "If-None-Match" : "If-Modified-Since", entry.validator);
+        }
+        return DownloadHttpClient.getInstance().newCall(request.build()).execute();
+    }
+
+    /**
+     * A cached URL.
+     */
+    private static class Entry {
+        @NonNull final String url;
+        /** SHA-256 of the content, which is also the name of the blob file. */
+        @NonNull final String hash;
+        @Nullable final String validator;
+        long lastAccess;
+        /** Whether the hash was checked against a digest from the caller or the server when the content was downloaded. */
+        final boolean verified;
+
+        Entry(String url, String hash, @Nullable String validator, long lastAccess, boolean verified) {
+            this.url = url;
+            this.hash = hash;
+            this.validator = validator;
+            this.lastAccess = lastAccess;
+            this.verified = verified;
+        }
+    }
+
+    /**
+     * Download source that revalidates cached content with a conditional request and stores new content in the cache while it is downloaded. The length
+     * is taken from whatever is streamed: if {@link #getLength()} is called first, the stream is opened right away and kept for {@link #open()}.
+     * <p>
+     * The partial file of a URL is only used by one download at a time. Further downloads of the same URL that run at the same time, for example of
+     * another source, can't be resumed.
+     */
+    private class CachedDownloadSource implements DownloadSource {
+        @NonNull private final URL url;
+        @NonNull private final ResumableDownloadSource networkSource;
+
+        // All following fields are guarded by this.
+        /** Stream opened by {@link #getLength()} that wasn't handed out yet. */
+        @Nullable private InputStream pendingStream;
+        /** Length of the last opened stream. */
+        private long length = UNKNOWN_DOWNLOAD_SIZE;
+        private boolean lengthKnown = false;
+
+        CachedDownloadSource(@NonNull URL url) {
+            this.url = url;
+            this.networkSource = new ResumableDownloadSource(url, getPartialFile(url));
+        }
+
+        @Override
+        public synchronized InputStream open() throws IOException {
+            if (pendingStream != null) {
+                final InputStream inputStream = pendingStream;
+                pendingStream = null;
+                return inputStream;
+            }
+            return openStream();
+        }
+
+        /**
+         * Returns the length of the document. Unless {@link #open()} was called before, this opens the stream, so it must not be called on the main thread
+         * and should be followed by {@link #open()}.
+         */
+        @Override
+        public synchronized long getLength() {
+            if (lengthKnown) return length;
+            try {
+                pendingStream = openStream();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to retrieve download size - " + e.getMessage(), e);
+            }
+            return length;
+        }
+
+        /** Opens the cached content or the download, and records its length. Must be called while holding {@code this}. */
+        @NonNull
+        private InputStream openStream() throws IOException {
+            final Entry entry = getEntry(url);
+            if (entry == null) {
+                if (!claimPartialFile(url)) {
+                    // Another source is downloading the URL into the partial file. Sharing it would corrupt both downloads, so this one isn't resumable.
+                    Log.d(LOG_TAG, url + " is already being downloaded, downloading it again without resume support.");
+                    return openResponse(DownloadHttpClient.getInstance().newCall(new Request.Builder().url(url).build()).execute(), false);
+                }
+                final InputStream inputStream;
+                try {
+                    inputStream = networkSource.open();
+                } catch (IOException | RuntimeException e) {
+                    releasePartialFile(url);
+                    throw e;
+                }
+                setLength(networkSource.getContentLength());
+                return newHashingInputStream(inputStream, networkSource.getValidator(), networkSource.getExpectedSha256(), true);
+            }
+
+            final Response response;
+            try {
+                response = executeConditionalRequest(url, entry);
+            } catch (IOException e) {
+                // We can't reach the server, so the cached copy is the best we've got.
+                Log.w(LOG_TAG, "Failed to revalidate " + url + ", using cached copy - " + e.getMessage());
+                touch(entry);
+                return openBlob(getBlobFile(entry.hash));
+            }
+
+            if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                response.close();
+                touch(entry);
+                return openBlob(getBlobFile(entry.hash));
+            }
+            // The document changed, store the new version while it is being downloaded.
+            return openResponse(response, false);
+        }
+
+        /** Streams the body of a full response, storing it in the cache while it is read. Closing the body stream releases the connection. */
+        @NonNull
+        private InputStream openResponse(@NonNull Response response, boolean ownsPartialFile) throws IOException {
+            final ResponseBody body = response.body();
+            if (response.code() != HttpURLConnection.HTTP_OK || body == null) {
+                response.close();
+                throw new IOException("Server responded with " + response.code() + " for " + url);
+            }
+            setLength(body.contentLength());
+            return newHashingInputStream(body.byteStream(), ResumableDownloadSource.readValidator(response),
+                                         DownloadDigests.readSha256Digest(response), ownsPartialFile);
+        }
+
+        @NonNull
+        private InputStream newHashingInputStream(@NonNull InputStream inputStream,
+                                                  @Nullable String validator,
+                                                  @Nullable String expectedSha256,
+                                                  boolean ownsPartialFile) throws IOException {
+            try {
+                return new HashingInputStream(inputStream, url, validator, expectedSha256, ownsPartialFile);
+            } catch (IOException | RuntimeException e) {
+                inputStream.close();
+                if (ownsPartialFile) releasePartialFile(url);
+                throw e;
+            }
+        }
+
+        @NonNull
+        private InputStream openBlob(@NonNull File blobFile) throws IOException {
+            final InputStream inputStream = new FileInputStream(blobFile);
+            setLength(blobFile.length());
+            return inputStream;
+        }
+
+        private void setLength(long length) {
+            this.length = length >= 0 ? length : UNKNOWN_DOWNLOAD_SIZE;
+            this.lengthKnown = true;
+        }
+
+        @Override
+        public String toString() {
+            return "CachedDownloadSource{" +
+                "url=" + url +
+                '}';
+        }
+    }
+
+    /**
+     * Copies everything that is read to a temporary file while hashing it. Once the end of the stream was reached, the hash is verified if an expected
+     * digest is known, and the file is moved into the cache.
+     */
+    private class HashingInputStream extends InputStream {
+        @NonNull private final InputStream inputStream;
+        @NonNull private final URL url;
+        @Nullable private final String validator;
+        @Nullable private final String expectedSha256;
+        @NonNull private final MessageDigest digest;
+        @Nullable private File temporaryFile;
+        @Nullable private OutputStream temporaryOutput;
+        /** Set once the content turned out to be corrupted, every further read fails with it. */
+        @Nullable private DownloadDigests.DigestMismatchException digestMismatch;
+        /** Whether the partial file of {@link #url} is used by this download and has to be handed back once the stream is closed. */
+        private boolean ownsPartialFile;
+
+        HashingInputStream(@NonNull InputStream inputStream,
+                           @NonNull URL url,
+                           @Nullable String validator,
+                           @Nullable String expectedSha256,
+                           boolean ownsPartialFile) throws IOException {
+            this.inputStream = inputStream;
+            this.url = url;
+            this.validator = validator;
+            this.expectedSha256 = expectedSha256;
+            this.ownsPartialFile = ownsPartialFile;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                inputStream.close();
+                throw new IOException("Device is missing SHA-256!", e);
+            }
+            //noinspection ResultOfMethodCallIgnored
+            temporaryDirectory.mkdirs();
+            this.temporaryFile = File.createTempFile("download", ".tmp", temporaryDirectory);
+            this.temporaryOutput = new FileOutputStream(temporaryFile);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] singleByte = new byte[1];
+            final int read = read(singleByte, 0, 1);
+            return read < 0 ? -1 : singleByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            if (digestMismatch != null) throw digestMismatch;
+            final int read = inputStream.read(buffer, offset, length);
+            if (temporaryOutput == null || temporaryFile == null) return read;
+
+            if (read < 0) {
+                temporaryOutput.close();
+                temporaryOutput = null;
+                final String hash = StringUtils.byteToHex(digest.digest());
+                if (expectedSha256 != null && !expectedSha256.equals(hash)) {
+                    // Fail the download before it is reported as complete. The temporary file is deleted when the stream is closed.
+                    digestMismatch = new DownloadDigests.DigestMismatchException(expectedSha256, hash);
+                    throw digestMismatch;
+                }
+                commit(url.toString(), temporaryFile, hash, validator, expectedSha256 != null);
+                temporaryFile = null;
+            } else {
+                digest.update(buffer, offset, read);
+                temporaryOutput.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                inputStream.close();
+            } finally {
+                if (temporaryOutput != null) temporaryOutput.close();
+                // Incomplete downloads are not cached.
+                if (temporaryFile != null) {
+                    //noinspection ResultOfMethodCallIgnored
+                    temporaryFile.delete();
+                }
+                if (ownsPartialFile) {
+                    ownsPartialFile = false;
+                    releasePartialFile(url);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.download;
+
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.pspdfkit.catalog.utils.StringUtils;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import okhttp3.Response;
+
+/**
+ * Digests announced by servers for downloaded documents. The {@link DocumentCache} verifies them while the document streams into the cache.
+ */
+final class DownloadDigests {
+
+    private DownloadDigests() {
+    }
+
+    /**
+     * Returns the SHA-256 digest announced by the server as hex string, or {@code null} if there is none. Both {@code Repr-Digest} (RFC 9530) and the
+     * older {@code Digest} header (RFC 3230) are supported. Digests of compressed responses refer to the compressed data, so they are ignored.
+     */
+    @Nullable
+    static String readSha256Digest(@NonNull Response response) {
+        final Response networkResponse = response.networkResponse() != null ? response.networkResponse() : response;
+        final String contentEncoding = networkResponse.header("Content-Encoding");
+        if (contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding.trim())) return null;
+
+        final String digest = findSha256(response.header("Repr-Digest"));
+        return digest != null ? digest : findSha256(response.header("Digest"));
+    }
+
+    /** Finds the SHA-256 entry in a header like {@code sha-256=:base64:, sha-512=:base64:} and returns it as hex string. */
+    @Nullable
+    private static String findSha256(@Nullable String header) {
+        if (header == null) return null;
+        for (String entry : header.split(",")) {
+            final int separator = entry.indexOf('=');
+            if (separator < 0 || !"sha-256".equals(entry.substring(0, separator).trim().toLowerCase(Locale.US))) continue;
+
+            // Structured field byte sequences are wrapped in colons.
+            final String value = entry.substring(separator + 1).trim().replace(":", "");
+            try {
+                final byte[] digest = Base64.decode(value, Base64.DEFAULT);
+                if (digest.length == 32) return StringUtils.byteToHex(digest);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Thrown when a downloaded document doesn't match its expected digest.
+     */
+    static class DigestMismatchException extends IOException {
+        DigestMismatchException(@NonNull String expectedDigest, @NonNull String actualDigest) {
+            super("Downloaded document has digest " + actualDigest + ", expected " + expectedDigest + ".");
+        }
+    }
+}
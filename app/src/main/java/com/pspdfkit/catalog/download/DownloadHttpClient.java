@@ -0,0 +1,50 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.download;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Holds the HTTP client shared by all document downloads of the catalog. Sharing a single client means that downloads from the same host reuse pooled
+ * keep-alive connections (or a single multiplexed HTTP/2 connection) instead of paying for a new TCP and TLS handshake per document.
+ */
+public class DownloadHttpClient {
+
+    private static final int TIMEOUT_SECONDS = 15;
+    /** Idle connections kept in the pool, and how long they are kept. */
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    @Nullable private static OkHttpClient instance;
+
+    /**
+     * Returns the shared client. Derive a client with {@link OkHttpClient#newBuilder()} if you need different settings, it will still share the connection
+     * pool.
+     */
+    @NonNull
+    public static synchronized OkHttpClient getInstance() {
+        if (instance == null) {
+            instance = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+        }
+        return instance;
+    }
+}
@@ -0,0 +1,664 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.download;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.pspdfkit.catalog.utils.StringUtils;
+import com.pspdfkit.document.download.DownloadJob;
+import com.pspdfkit.document.download.DownloadRequest;
+import com.pspdfkit.document.download.Progress;
+import com.pspdfkit.document.download.source.DownloadSource;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Central entry point for document downloads of the catalog. Instead of starting every {@link DownloadJob} right away, jobs are scheduled:
+ * <ul>
+ * <li>At most {@link #DEFAULT_MAX_CONCURRENT_DOWNLOADS} downloads run at the same time, and at most {@link #DEFAULT_MAX_DOWNLOADS_PER_HOST} per host.</li>
+ * <li>Waiting downloads start in order of their priority, so the document the user is looking at comes before documents of background tabs.</li>
+ * <li>Scheduling a URI that is already being downloaded returns the job that is already running instead of downloading it twice.</li>
+ * </ul>
+ * Scheduled jobs are regular {@link DownloadJob}s that are started right away, so they can be shown in a {@code DownloadProgressFragment}. Their
+ * download source simply waits for its turn before it asks for the size or opens the connection.
+ * <p>
+ * Since a job may be shared by several callers, listen for its progress using {@link #addProgressListener(DownloadJob, LifecycleOwner,
+ * DownloadJob.ProgressListener)} instead of {@link DownloadJob#setProgressListener(DownloadJob.ProgressListener)}. This also keeps the priority of the
+ * job in sync with whether any of its callers is visible.
+ */
+public class DownloadScheduler {
+    private static final String LOG_TAG = "DownloadScheduler";
+
+    /** Priority of the document that is currently visible to the user. */
+    public static final int PRIORITY_VISIBLE = 100;
+    /** Priority of documents that are downloaded ahead of time, for example for tabs that aren't selected. */
+    public static final int PRIORITY_BACKGROUND = 0;
+
+    public static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 4;
+    public static final int DEFAULT_MAX_DOWNLOADS_PER_HOST = 2;
+
+    @Nullable private static DownloadScheduler instance;
+
+    @NonNull private final Context context;
+    private final int maxConcurrentDownloads;
+    private final int maxDownloadsPerHost;
+
+    // All following fields are guarded by this.
+    /** Downloads that weren't finished yet, by key. */
+    @NonNull private final Map<String, Ticket> downloadsByKey = new HashMap<>();
+    /** Downloads waiting for their turn. */
+    @NonNull private final List<Ticket> waiting = new ArrayList<>();
+    /** Number of running downloads by host. */
+    @NonNull private final Map<String, Integer> runningByHost = new HashMap<>();
+    /** Progress listeners of all jobs, including finished ones, so late listeners still learn the result. */
+    @NonNull private final Map<DownloadJob, ProgressListeners> listenersByJob = new WeakHashMap<>();
+    private int runningCount = 0;
+    private long nextSequenceNumber = 0;
+
+    // Metrics.
+    private long startedCount = 0;
+    private long totalWaitNanos = 0;
+    private long maxWaitNanos = 0;
+    private long coalescedCount = 0;
+
+    /**
+     * Returns the scheduler shared by the whole app.
+     */
+    @NonNull
+    public static synchronized DownloadScheduler getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new DownloadScheduler(context, DEFAULT_MAX_CONCURRENT_DOWNLOADS, DEFAULT_MAX_DOWNLOADS_PER_HOST);
+        }
+        return instance;
+    }
+
+    public DownloadScheduler(@NonNull Context context, int maxConcurrentDownloads, int maxDownloadsPerHost) {
+        if (maxConcurrentDownloads < 1 || maxDownloadsPerHost < 1) throw new IllegalArgumentException("Download limits must be at least 1.");
+        this.context = context.getApplicationContext();
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+        this.maxDownloadsPerHost = maxDownloadsPerHost;
+    }
+
+    /**
+     * Schedules the download of a document. Web documents are downloaded through the {@link DocumentCache}, all other URIs are read using the
+     * {@link ContentResolver}. If the same URI is already being downloaded, its job is returned, and its priority is raised if necessary.
+     * <p>
+     * Use {@link #addProgressListener(DownloadJob, LifecycleOwner, DownloadJob.ProgressListener)} to follow the job, setting a listener on the job
+     * directly would replace the listeners of all other callers.
+     */
+    @NonNull
+    public DownloadJob schedule(@NonNull Uri uri, int priority) {
+        final String key = uri.toString();
+        synchronized (this) {
+            final DownloadJob existingJob = coalesce(key, priority);
+            if (existingJob != null) return existingJob;
+        }
+
+        final DownloadSource source;
+        final String fileName;
+        if ("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme())) {
+            try {
+                source = DocumentCache.getInstance(context).source(new URL(key));
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Invalid web URI " + uri, e);
+            }
+            fileName = uri.getLastPathSegment();
+        } else {
+            source = new ContentResolverDownloadSource(context.getContentResolver(), uri);
+            fileName = queryDisplayName(uri);
+        }
+        final String host = uri.getAuthority() != null ? uri.getAuthority() : String.valueOf(uri.getScheme());
+        final File outputFile = new File(new File(context.getCacheDir(), "downloads/" + StringUtils.sha1(key)), sanitizeFileName(fileName));
+        return schedule(key, host, source, outputFile, priority);
+    }
+
+    /**
+     * Schedules a download from a custom source.
+     *
+     * @param key        Identifies the document. Requests with the same key are coalesced onto a single job while it is running.
+     * @param host       Downloads with the same host share the per-host limit.
+     * @param source     Source of the document.
+     * @param outputFile File the document is written to.
+     * @param priority   Downloads with higher priority are started first, for example {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_BACKGROUND}.
+     */
+    @NonNull
+    public synchronized DownloadJob schedule(@NonNull String key,
+                                             @NonNull String host,
+                                             @NonNull DownloadSource source,
+                                             @NonNull File outputFile,
+                                             int priority) {
+        final DownloadJob existingJob = coalesce(key, priority);
+        if (existingJob != null) return existingJob;
+
+        final Ticket ticket = new Ticket(key, host, priority, nextSequenceNumber++);
+        downloadsByKey.put(key, ticket);
+        ticket.source = new ScheduledDownloadSource(source, ticket);
+        final DownloadRequest request = new DownloadRequest.Builder(context)
+            .source(ticket.source)
+            .outputFile(outputFile)
+            .overwriteExisting(true)
+            .build();
+        // The job's background thread blocks in ScheduledDownloadSource until the ticket is admitted.
+        ticket.job = DownloadJob.startDownload(request);
+        final ProgressListeners listeners = new ProgressListeners();
+        ticket.job.setProgressListener(listeners);
+        listenersByJob.put(ticket.job, listeners);
+        return ticket.job;
+    }
+
+    /**
+     * Adds a listener for the progress of a scheduled job. Other listeners of the job, for example of callers the job was coalesced for, keep being
+     * called. If the job already finished, the listener is called right away.
+     * <p>
+     * The listener is removed once {@code owner} is destroyed. While any owner of a job is started, the job has {@link #PRIORITY_VISIBLE}, otherwise it
+     * drops to {@link #PRIORITY_BACKGROUND}, so downloads of screens the user left make room for the ones they are looking at.
+     */
+    @UiThread
+    public void addProgressListener(@NonNull DownloadJob job, @NonNull LifecycleOwner owner, @NonNull DownloadJob.ProgressListener listener) {
+        final ProgressListeners listeners;
+        synchronized (this) {
+            listeners = listenersByJob.get(job);
+        }
+        if (listeners == null) {
+            Log.w(LOG_TAG, "Job " + job + " wasn't scheduled, replacing its progress listener.");
+            job.setProgressListener(listener);
+            return;
+        }
+        final Lifecycle lifecycle = owner.getLifecycle();
+        if (lifecycle.getCurrentState() == Lifecycle.State.DESTROYED) return;
+
+        final Registration registration = new Registration(lifecycle, listener);
+        lifecycle.addObserver(new LifecycleEventObserver() {
+            @Override
+            public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+                if (event == Lifecycle.Event.ON_DESTROY) {
+                    lifecycle.removeObserver(this);
+                    listeners.remove(registration);
+                }
+                if (event == Lifecycle.Event.ON_START || event == Lifecycle.Event.ON_STOP || event == Lifecycle.Event.ON_DESTROY) {
+                    updatePriority(job, listeners);
+                }
+            }
+        });
+        listeners.add(registration);
+        updatePriority(job, listeners);
+    }
+
+    /** Gives a job the visible priority while any of its owners is started. */
+    @UiThread
+    private void updatePriority(@NonNull DownloadJob job, @NonNull ProgressListeners listeners) {
+        final boolean visible = listeners.hasStartedOwner();
+        synchronized (this) {
+            final Ticket ticket = findTicket(job);
+            final int priority = visible ? PRIORITY_VISIBLE : PRIORITY_BACKGROUND;
+            if (ticket != null && ticket.priority != priority) setPriority(ticket, priority);
+        }
+    }
+
+    /** Returns the running job for {@code key}, raising its priority if needed, or {@code null}. Must be called while holding {@code this}. */
+    @Nullable
+    private DownloadJob coalesce(@NonNull String key, int priority) {
+        final Ticket ticket = downloadsByKey.get(key);
+        // A cancelled job never delivers the document, so a new download has to be started.
+        if (ticket == null || ticket.job == null || ticket.cancelled) return null;
+        coalescedCount++;
+        if (priority > ticket.priority) setPriority(ticket, priority);
+        return ticket.job;
+    }
+
+    /**
+     * Changes the priority of a scheduled job, for example when the user switches to the tab of a document that is still waiting.
+     */
+    public synchronized void setPriority(@NonNull DownloadJob job, int priority) {
+        final Ticket ticket = findTicket(job);
+        if (ticket != null) setPriority(ticket, priority);
+    }
+
+    private void setPriority(@NonNull Ticket ticket, int priority) {
+        ticket.priority = priority;
+        // A waiting download may now come before others.
+        admitWaiting();
+    }
+
+    /**
+     * Cancels a scheduled job. Jobs that are still waiting are removed from the queue without ever opening a connection.
+     *
+     * @return {@code true} if the job was known to the scheduler.
+     */
+    public boolean cancel(@NonNull DownloadJob job) {
+        synchronized (this) {
+            final Ticket ticket = findTicket(job);
+            if (ticket == null) return false;
+            ticket.cancelled = true;
+            waiting.remove(ticket);
+            // The job may not have reached acquire() yet, so the ticket has to be forgotten here. Later requests start a new download.
+            finish(ticket);
+            if (ticket.source != null) ticket.source.onCancelled();
+            notifyAll();
+        }
+        job.cancel();
+        return true;
+    }
+
+    @Nullable
+    private Ticket findTicket(@NonNull DownloadJob job) {
+        for (Ticket ticket : downloadsByKey.values()) {
+            if (ticket.job == job) return ticket;
+        }
+        return null;
+    }
+
+    /** Returns the number of downloads that are waiting for their turn. */
+    public synchronized int getQueueDepth() {
+        return waiting.size();
+    }
+
+    /** Returns the number of downloads that are currently running. */
+    public synchronized int getRunningCount() {
+        return runningCount;
+    }
+
+    /** Returns the average time downloads waited before they were started, in milliseconds. */
+    public synchronized long getAverageWaitMillis() {
+        return startedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / startedCount);
+    }
+
+    /** Returns the longest time a download waited before it was started, in milliseconds. */
+    public synchronized long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    /** Returns how many requests were served by a download that was already scheduled. */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Waits until the ticket may run. Called on the download thread of the job.
+     */
+    private synchronized void acquire(@NonNull Ticket ticket) throws IOException {
+        if (ticket.cancelled) throw new InterruptedIOException("Download was cancelled.");
+        ticket.enqueuedNanos = System.nanoTime();
+        waiting.add(ticket);
+        admitWaiting();
+        try {
+            while (!ticket.running) {
+                if (ticket.cancelled) throw new InterruptedIOException("Download was cancelled.");
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (ticket.running) {
+                // We were admitted right before the interrupt, so we have to hand the slot on.
+                release(ticket);
+            } else {
+                waiting.remove(ticket);
+                finish(ticket);
+            }
+            throw new InterruptedIOException("Interrupted while waiting for download slot.");
+        }
+
+        final long waitNanos = System.nanoTime() - ticket.enqueuedNanos;
+        startedCount++;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+        if (waitNanos > TimeUnit.SECONDS.toNanos(1)) {
+            Log.d(LOG_TAG, "Download of " + ticket.key + " waited " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms.");
+        }
+    }
+
+    /**
+     * Frees the slot of a running ticket and starts the next waiting downloads.
+     */
+    private synchronized void release(@NonNull Ticket ticket) {
+        if (!ticket.running) return;
+        ticket.running = false;
+        runningCount--;
+        final int runningForHost = runningByHost.get(ticket.host) - 1;
+        if (runningForHost == 0) {
+            runningByHost.remove(ticket.host);
+        } else {
+            runningByHost.put(ticket.host, runningForHost);
+        }
+        finish(ticket);
+        admitWaiting();
+    }
+
+    /** Forgets a ticket, so later requests for the same key start a new download. */
+    private void finish(@NonNull Ticket ticket) {
+        if (downloadsByKey.get(ticket.key) == ticket) downloadsByKey.remove(ticket.key);
+    }
+
+    /**
+     * Starts waiting downloads with the highest priority as long as the limits allow. Must be called while holding {@code this}.
+     */
+    private void admitWaiting() {
+        boolean admitted = false;
+        while (runningCount < maxConcurrentDownloads) {
+            Ticket next = null;
+            for (Ticket ticket : waiting) {
+                final Integer runningForHost = runningByHost.get(ticket.host);
+                if (runningForHost != null && runningForHost >= maxDownloadsPerHost) continue;
+                if (next == null || ticket.priority > next.priority ||
+                    (ticket.priority == next.priority && ticket.sequenceNumber < next.sequenceNumber)) {
+                    next = ticket;
+                }
+            }
+            if (next == null) break;
+
+            waiting.remove(next);
+            next.running = true;
+            runningCount++;
+            final Integer runningForHost = runningByHost.get(next.host);
+            runningByHost.put(next.host, runningForHost == null ? 1 : runningForHost + 1);
+            admitted = true;
+        }
+        if (admitted) notifyAll();
+    }
+
+    @Nullable
+    private String queryDisplayName(@NonNull Uri uri) {
+        try (Cursor cursor = context.getContentResolver().query(uri, new String[]{OpenableColumns.DISPLAY_NAME}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) return cursor.getString(0);
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "Failed to query name of " + uri + " - " + e.getMessage());
+        }
+        return uri.getLastPathSegment();
+    }
+
+    @NonNull
+    private static String sanitizeFileName(@Nullable String fileName) {
+        if (fileName == null || fileName.trim().isEmpty()) return "download.pdf";
+        return fileName.replaceAll("[/\\\\:]", "_");
+    }
+
+    /**
+     * A scheduled download.
+     */
+    private static class Ticket {
+        @NonNull final String key;
+        @NonNull final String host;
+        final long sequenceNumber;
+        int priority;
+        @Nullable DownloadJob job;
+        @Nullable ScheduledDownloadSource source;
+        long enqueuedNanos;
+        boolean running = false;
+        boolean cancelled = false;
+        /** Whether the source is asking the wrapped source for the size or opening its stream. */
+        boolean connecting = false;
+        /** Whether the stream was handed to the job, which frees the slot once it is closed. */
+        boolean streamOpened = false;
+
+        Ticket(@NonNull String key, @NonNull String host, int priority, long sequenceNumber) {
+            this.key = key;
+            this.host = host;
+            this.priority = priority;
+            this.sequenceNumber = sequenceNumber;
+        }
+    }
+
+    /**
+     * A progress listener and the lifecycle of its owner.
+     */
+    private static class Registration {
+        @NonNull final Lifecycle lifecycle;
+        @NonNull final DownloadJob.ProgressListener listener;
+
+        Registration(@NonNull Lifecycle lifecycle, @NonNull DownloadJob.ProgressListener listener) {
+            this.lifecycle = lifecycle;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * The only listener set on a scheduled job, forwarding its progress to the listeners of all callers. All fields are guarded by {@code this}.
+     */
+    private static class ProgressListeners implements DownloadJob.ProgressListener {
+        @NonNull private final List<Registration> registrations = new ArrayList<>();
+        @Nullable private File output;
+        @Nullable private Throwable error;
+
+        void add(@NonNull Registration registration) {
+            final File output;
+            final Throwable error;
+            synchronized (this) {
+                registrations.add(registration);
+                output = this.output;
+                error = this.error;
+            }
+            if (output != null) registration.listener.onComplete(output);
+            if (error != null) registration.listener.onError(error);
+        }
+
+        synchronized void remove(@NonNull Registration registration) {
+            registrations.remove(registration);
+        }
+
+        synchronized boolean hasStartedOwner() {
+            for (Registration registration : registrations) {
+                if (registration.lifecycle.getCurrentState().isAtLeast(Lifecycle.State.STARTED)) return true;
+            }
+            return false;
+        }
+
+        @NonNull
+        private synchronized List<Registration> getRegistrations() {
+            return new ArrayList<>(registrations);
+        }
+
+        @Override
+        public void onProgress(@NonNull Progress progress) {
+            for (Registration registration : getRegistrations()) {
+                registration.listener.onProgress(progress);
+            }
+        }
+
+        @Override
+        public void onComplete(@NonNull File output) {
+            final List<Registration> registrations;
+            synchronized (this) {
+                // Registrations added from now on are called by add().
+                this.output = output;
+                registrations = new ArrayList<>(this.registrations);
+            }
+            for (Registration registration : registrations) {
+                registration.listener.onComplete(output);
+            }
+        }
+
+        @Override
+        public void onError(@NonNull Throwable exception) {
+            final List<Registration> registrations;
+            synchronized (this) {
+                this.error = exception;
+                registrations = new ArrayList<>(this.registrations);
+            }
+            for (Registration registration : registrations) {
+                registration.listener.onError(exception);
+            }
+        }
+    }
+
+    /**
+     * Source that waits for its ticket to be admitted before it touches the wrapped source, and frees the slot again once the stream is closed.
+     * Asking for the size is gated too, since sources like the {@link DocumentCache} start the download to learn the size. The slot acquired for the
+     * size is kept for {@link #open()}.
+     * <p>
+     * If the job is cancelled while the wrapped source is connecting, the slot is only freed once the wrapped source returned, so the per-host limit
+     * also covers connections that are about to be dropped.
+     */
+    private class ScheduledDownloadSource implements DownloadSource {
+        @NonNull private final DownloadSource delegate;
+        @NonNull private final Ticket ticket;
+
+        ScheduledDownloadSource(@NonNull DownloadSource delegate, @NonNull Ticket ticket) {
+            this.delegate = delegate;
+            this.ticket = ticket;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            startConnecting();
+            final InputStream inputStream;
+            try {
+                inputStream = delegate.open();
+            } catch (IOException | RuntimeException e) {
+                synchronized (DownloadScheduler.this) {
+                    ticket.connecting = false;
+                    release(ticket);
+                }
+                throw e;
+            }
+            final boolean cancelled;
+            synchronized (DownloadScheduler.this) {
+                cancelled = ticket.cancelled;
+                if (!cancelled) {
+                    ticket.connecting = false;
+                    ticket.streamOpened = true;
+                }
+            }
+            if (cancelled) {
+                // The slot is kept until the connection is closed.
+                closeQuietly(inputStream);
+                synchronized (DownloadScheduler.this) {
+                    ticket.connecting = false;
+                    release(ticket);
+                }
+                throw new InterruptedIOException("Download was cancelled.");
+            }
+            return new FilterInputStream(inputStream) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release(ticket);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public long getLength() {
+            try {
+                startConnecting();
+            } catch (IOException e) {
+                // open() will fail the same way.
+                return UNKNOWN_DOWNLOAD_SIZE;
+            }
+            try {
+                return delegate.getLength();
+            } finally {
+                synchronized (DownloadScheduler.this) {
+                    ticket.connecting = false;
+                    // The job won't open the stream anymore, so the slot is freed right away.
+                    if (ticket.cancelled) release(ticket);
+                }
+            }
+        }
+
+        /** Waits for the slot, unless it was acquired for {@link #getLength()} already, and marks the wrapped source as busy. */
+        private void startConnecting() throws IOException {
+            synchronized (DownloadScheduler.this) {
+                if (!ticket.running) acquire(ticket);
+                if (ticket.cancelled) {
+                    release(ticket);
+                    throw new InterruptedIOException("Download was cancelled.");
+                }
+                ticket.connecting = true;
+            }
+        }
+
+        /**
+         * Called when the job was cancelled, while holding the scheduler. A slot that is held between {@link #getLength()} and {@link #open()} is freed
+         * right away, since the job may never open the stream. While the wrapped source is connecting, the slot is freed once it returns.
+         */
+        void onCancelled() {
+            if (ticket.running && !ticket.connecting && !ticket.streamOpened) release(ticket);
+        }
+
+        private void closeQuietly(@NonNull InputStream inputStream) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to close stream of cancelled download - " + e.getMessage());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "ScheduledDownloadSource{" +
+                "delegate=" + delegate +
+                ", priority=" + ticket.priority +
+                '}';
+        }
+    }
+
+    /**
+     * Source for {@code content://} and other URIs that can be read through the {@link ContentResolver}.
+     */
+    private static class ContentResolverDownloadSource implements DownloadSource {
+        @NonNull private final ContentResolver contentResolver;
+        @NonNull private final Uri uri;
+
+        ContentResolverDownloadSource(@NonNull ContentResolver contentResolver, @NonNull Uri uri) {
+            this.contentResolver = contentResolver;
+            this.uri = uri;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            final InputStream inputStream = contentResolver.openInputStream(uri);
+            if (inputStream == null) throw new FileNotFoundException("Can't open " + uri);
+            return inputStream;
+        }
+
+        @Override
+        public long getLength() {
+            try (AssetFileDescriptor fileDescriptor = contentResolver.openAssetFileDescriptor(uri, "r")) {
+                return fileDescriptor != null && fileDescriptor.getLength() >= 0 ? fileDescriptor.getLength() : UNKNOWN_DOWNLOAD_SIZE;
+            } catch (IOException | RuntimeException e) {
+                return UNKNOWN_DOWNLOAD_SIZE;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "ContentResolverDownloadSource{" +
+                "uri=" + uri +
+                '}';
+        }
+    }
+}
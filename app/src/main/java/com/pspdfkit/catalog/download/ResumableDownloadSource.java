@@ -0,0 +1,361 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.download;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.pspdfkit.document.download.source.DownloadSource;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Properties;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Download source that survives interrupted downloads. Everything received from the server is also written to a partial file, together with the
+ * validator of the response ({@code ETag} or {@code Last-Modified}). When the download is started again, the partial file is replayed from disk and only
+ * the missing bytes are requested using a {@code Range} request with {@code If-Range}, so the server sends the rest only if the document didn't change.
+ * <p>
+ * If the server ignores the range, or the document changed in the meantime, the partial file is discarded and the download starts over. The partial file
+ * is deleted once the document was downloaded completely.
+ * <p>
+ * Requests go through the shared {@link DownloadHttpClient}, so downloads from the same host reuse pooled connections.
+ */
+public class ResumableDownloadSource implements DownloadSource {
+    private static final String LOG_TAG = "ResumableDownload";
+
+    private static final String META_URL = "url";
+    private static final String META_VALIDATOR = "validator";
+    private static final String META_LENGTH = "length";
+    private static final String META_SHA256 = "sha256";
+
+    @NonNull private final OkHttpClient client;
+    @NonNull private final URL url;
+    @NonNull private final File partialFile;
+    @NonNull private final File metadataFile;
+    /** Validator of the document returned by the last call to {@link #open()}. */
+    @Nullable private volatile String validator;
+    /** SHA-256 digest announced by the server for the document returned by the last call to {@link #open()}. */
+    @Nullable private volatile String expectedSha256;
+    /** Length of the document returned by the last call to {@link #open()}. */
+    private volatile long contentLength = UNKNOWN_DOWNLOAD_SIZE;
+    /** Stream started by {@link #getLength()} that wasn't opened yet. Guarded by {@code this}. */
+    @Nullable private ResumingInputStream pendingStream;
+
+    /**
+     * Creates a download source keeping partial content next to the given output file.
+     */
+    @NonNull
+    public static ResumableDownloadSource forOutputFile(@NonNull URL url, @NonNull File outputFile) {
+        return new ResumableDownloadSource(url, new File(outputFile.getParentFile(), outputFile.getName() + ".part"));
+    }
+
+    /**
+     * @param url         Location of the document.
+     * @param partialFile File holding the data received so far. Its metadata is stored in a file with the additional extension {@code .meta}.
+     */
+    public ResumableDownloadSource(@NonNull URL url, @NonNull File partialFile) {
+        this.client = DownloadHttpClient.getInstance();
+        this.url = url;
+        this.partialFile = partialFile;
+        this.metadataFile = new File(partialFile.getParentFile(), partialFile.getName() + ".meta");
+    }
+
+    /**
+     * Returns a stream of the complete document. Data that was already downloaded before is read from the partial file.
+     */
+    @Override
+    public InputStream open() throws IOException {
+        synchronized (this) {
+            if (pendingStream != null) {
+                final InputStream inputStream = pendingStream;
+                pendingStream = null;
+                return inputStream;
+            }
+        }
+        return startDownload();
+    }
+
+    @NonNull
+    private ResumingInputStream startDownload() throws IOException {
+        final Properties metadata = loadMetadata();
+        final String validator = metadata != null ? metadata.getProperty(META_VALIDATOR) : null;
+        final long resumeOffset = validator != null ? partialFile.length() : 0;
+
+        final Request.Builder request = newRequest();
+        if (resumeOffset > 0) {
+            request.header("Range", "bytes=" + resumeOffset + "-");
+            // The server only honors the range if the validator still matches, otherwise we get the new document in full.
+            request.header("If-Range", validator);
+        }
+
+        final Response response = client.newCall(request.build()).execute();
+        final int responseCode = response.code();
+        final long knownLength = metadata != null ? parseLong(metadata.getProperty(META_LENGTH)) : UNKNOWN_DOWNLOAD_SIZE;
+        if (resumeOffset > 0 && responseCode == HttpURLConnection.HTTP_PARTIAL && contentRangeStartsAt(response, resumeOffset)) {
+            Log.d(LOG_TAG, "Resuming download of " + url + " at byte " + resumeOffset);
+            this.validator = validator;
+            this.expectedSha256 = metadata.getProperty(META_SHA256);
+            this.contentLength = knownLength;
+            return new ResumingInputStream(new FileInputStream(partialFile), response, new FileOutputStream(partialFile, true), knownLength);
+        }
+        if (resumeOffset > 0 && responseCode == 416 && knownLength == resumeOffset) {
+            // Requested range not satisfiable: everything was downloaded already.
+            response.close();
+            this.validator = validator;
+            this.expectedSha256 = metadata.getProperty(META_SHA256);
+            this.contentLength = knownLength;
+            return new ResumingInputStream(new FileInputStream(partialFile), null, null, knownLength);
+        }
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            response.close();
+            throw new IOException("Server responded with " + responseCode + " for " + url);
+        }
+
+        // Fresh download, either because there was nothing to resume, the document changed or the server doesn't support ranges.
+        if (resumeOffset > 0) Log.d(LOG_TAG, "Can't resume download of " + url + ", starting over.");
+        final String newValidator = readValidator(response);
+        this.validator = newValidator;
+        // Digests of range responses may only cover the range, so the digest is taken from the full response and kept for resuming.
+        this.expectedSha256 = DownloadDigests.readSha256Digest(response);
+        final long length = parseLong(response.header("Content-Length"));
+        this.contentLength = length;
+        if (newValidator == null) {
+            // Without a validator we couldn't tell whether the document changed, so there's no point in keeping partial content.
+            deletePartialContent();
+            return new ResumingInputStream(null, response, null, length);
+        }
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            partialFile.getParentFile().mkdirs();
+            saveMetadata(newValidator, length, expectedSha256);
+            return new ResumingInputStream(null, response, new FileOutputStream(partialFile, false), length);
+        } catch (IOException e) {
+            response.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the document size as known from the previous attempt. Otherwise the download is started right away and the size is taken from its
+     * response, which is kept for {@link #open()}, so a download never needs more than a single request. This must not be called on the main thread
+     * and should be followed by {@link #open()}.
+     */
+    @Override
+    public synchronized long getLength() {
+        if (pendingStream != null) return pendingStream.expectedLength;
+        final Properties metadata = loadMetadata();
+        if (metadata != null) {
+            final long length = parseLong(metadata.getProperty(META_LENGTH));
+            if (length >= 0) return length;
+        }
+
+        try {
+            pendingStream = startDownload();
+            return pendingStream.expectedLength;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to retrieve download size - " + e.getMessage(), e);
+            return UNKNOWN_DOWNLOAD_SIZE;
+        }
+    }
+
+    /**
+     * Returns the length of the document returned by the last call to {@link #open()}, or {@link #UNKNOWN_DOWNLOAD_SIZE} if the server didn't send it.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Returns the strong {@code ETag} or {@code Last-Modified} value of the document returned by the last call to {@link #open()}, or {@code null} if
+     * the server didn't send any.
+     */
+    @Nullable
+    public String getValidator() {
+        return validator;
+    }
+
+    /**
+     * Returns the SHA-256 digest the server announced for the document returned by the last call to {@link #open()} as hex string, or {@code null}.
+     * The digest isn't verified by this source; use the {@link DocumentCache} for that.
+     */
+    @Nullable
+    public String getExpectedSha256() {
+        return expectedSha256;
+    }
+
+    @NonNull
+    private Request.Builder newRequest() {
+        return new Request.Builder()
+            .url(url)
+            // Ranges refer to the encoded representation, so the response must not be compressed.
+            .header("Accept-Encoding", "identity");
+    }
+
+    /**
+     * Returns the validator to use with {@code If-Range}. Weak ETags can't be used for range requests, in which case we fall back to
+     * {@code Last-Modified}. Returns {@code null} if the response can't be resumed safely.
+     */
+    @Nullable
+    public static String readValidator(@NonNull HttpURLConnection connection) {
+        return readValidator(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+    }
+
+    /** Same as {@link #readValidator(HttpURLConnection)}, for responses of {@link DownloadHttpClient}. */
+    @Nullable
+    public static String readValidator(@NonNull Response response) {
+        return readValidator(response.header("ETag"), response.header("Last-Modified"));
+    }
+
+    @Nullable
+    private static String readValidator(@Nullable String eTag, @Nullable String lastModified) {
+        if (eTag != null && !eTag.startsWith("W/")) return eTag;
+        return lastModified;
+    }
+
+    /** Checks that the server sent the range we asked for, e.g. {@code Content-Range: bytes 1000-4999/5000}. */
+    private static boolean contentRangeStartsAt(@NonNull Response response, long offset) {
+        final String contentRange = response.header("Content-Range");
+        return contentRange != null && contentRange.trim().startsWith("bytes " + offset + "-");
+    }
+
+    /** Returns the metadata of a previous attempt to download the same URL, or {@code null}. */
+    @Nullable
+    private Properties loadMetadata() {
+        if (!metadataFile.exists() || !partialFile.exists()) return null;
+        final Properties metadata = new Properties();
+        try (InputStream inputStream = new FileInputStream(metadataFile)) {
+            metadata.load(inputStream);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to read download metadata - " + e.getMessage(), e);
+            return null;
+        }
+        return url.toString().equals(metadata.getProperty(META_URL)) ? metadata : null;
+    }
+
+    private static long parseLong(@Nullable String value) {
+        if (value == null) return UNKNOWN_DOWNLOAD_SIZE;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return UNKNOWN_DOWNLOAD_SIZE;
+        }
+    }
+
+    private void saveMetadata(@NonNull String validator, long length, @Nullable String sha256) throws IOException {
+        final Properties metadata = new Properties();
+        metadata.setProperty(META_URL, url.toString());
+        metadata.setProperty(META_VALIDATOR, validator);
+        if (length >= 0) metadata.setProperty(META_LENGTH, Long.toString(length));
+        if (sha256 != null) metadata.setProperty(META_SHA256, sha256);
+        try (OutputStream outputStream = new FileOutputStream(metadataFile)) {
+            metadata.store(outputStream, null);
+        }
+    }
+
+    private void deletePartialContent() {
+        if ((partialFile.exists() && !partialFile.delete()) || (metadataFile.exists() && !metadataFile.delete())) {
+            Log.w(LOG_TAG, "Failed to delete partial download " + partialFile.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResumableDownloadSource{" +
+            "url=" + url +
+            ", partialFile=" + partialFile +
+            '}';
+    }
+
+    /**
+     * Replays the partial file and then continues with the server response, which is appended to the partial file while it is read.
+     */
+    private class ResumingInputStream extends InputStream {
+        @Nullable private InputStream partialContent;
+        @Nullable private final Response response;
+        @Nullable private InputStream remoteContent;
+        @Nullable private final OutputStream partialOutput;
+        /** Length of the whole document, or {@link #UNKNOWN_DOWNLOAD_SIZE}. */
+        private final long expectedLength;
+        private long position = 0;
+        private boolean completed = false;
+
+        ResumingInputStream(@Nullable InputStream partialContent,
+                            @Nullable Response response,
+                            @Nullable OutputStream partialOutput,
+                            long expectedLength) {
+            this.partialContent = partialContent;
+            this.response = response;
+            final ResponseBody body = response != null ? response.body() : null;
+            this.remoteContent = body != null ? body.byteStream() : null;
+            this.partialOutput = partialOutput;
+            this.expectedLength = expectedLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] singleByte = new byte[1];
+            final int read = read(singleByte, 0, 1);
+            return read < 0 ? -1 : singleByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            if (partialContent != null) {
+                final int read = partialContent.read(buffer, offset, length);
+                if (read >= 0) {
+                    position += read;
+                    return read;
+                }
+                partialContent.close();
+                partialContent = null;
+            }
+
+            final int read = remoteContent != null ? remoteContent.read(buffer, offset, length) : -1;
+            if (read < 0) {
+                if (expectedLength != UNKNOWN_DOWNLOAD_SIZE && position != expectedLength) {
+                    // Keep the partial content, so the next attempt can resume.
+                    throw new EOFException("Download of " + url + " ended after " + position + " of " + expectedLength + " bytes.");
+                }
+                completed = true;
+                return -1;
+            }
+            // Persist the data before handing it out, so it's available if the download is interrupted after this point.
+            if (partialOutput != null) partialOutput.write(buffer, offset, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (partialContent != null) partialContent.close();
+                if (remoteContent != null) remoteContent.close();
+                if (partialOutput != null) partialOutput.close();
+            } finally {
+                if (response != null) response.close();
+                // Once the whole document was handed out, the download job has it, and we no longer need the partial copy.
+                if (completed) deletePartialContent();
+            }
+        }
+    }
+}
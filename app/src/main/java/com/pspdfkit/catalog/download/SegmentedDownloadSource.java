@@ -0,0 +1,565 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.download;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.pspdfkit.document.download.source.DownloadSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+
+import io.reactivex.Completable;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Download source fetching a document over several connections at once. The document is split into fixed-size pieces which are downloaded in parallel
+ * using range requests and written to their offsets in a work file. The stream returned by {@link #open()} hands out the document in order as soon as
+ * the data is available, so a {@code DownloadJob} using this source reports the combined progress of all connections through its
+ * {@code ProgressListener}.
+ * <p>
+ * The download starts with two connections. Another connection is added whenever the previous one noticeably increased the overall throughput, up to the
+ * configured maximum. A connection that didn't help is retired again, and so is one whenever the throughput drops considerably later on.
+ * <p>
+ * Every piece is requested with {@code If-Range} and the validator of the first response, so pieces of a document that changed on the server in the
+ * meantime are never mixed. Servers that don't support range requests or don't send a validator are downloaded over a single connection.
+ * <p>
+ * Requests go through the shared {@link DownloadHttpClient} restricted to HTTP/1.1, since HTTP/2 would multiplex all pieces onto a single connection.
+ */
+public class SegmentedDownloadSource implements DownloadSource {
+    private static final String LOG_TAG = "SegmentedDownload";
+
+    /** Maximum number of connections used by default. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 6;
+
+    /** Size of the pieces the document is split into by default. Each piece is downloaded with a single range request. */
+    private static final int DEFAULT_PIECE_SIZE = 1024 * 1024;
+    private static final int INITIAL_CONNECTIONS = 2;
+    /** A new connection is only kept if it increased the throughput by at least this factor. */
+    private static final double MIN_THROUGHPUT_GAIN = 1.1;
+    /** Once the pool is stable, a connection is retired whenever the throughput drops below the best one by this factor. */
+    private static final double MAX_THROUGHPUT_LOSS = 1.5;
+    /** Throughput is measured over windows of at least this length. */
+    private static final long THROUGHPUT_WINDOW_NANOS = 500_000_000L;
+    private static final int MAX_ATTEMPTS_PER_PIECE = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Returned by {@link SegmentedDownload#takePiece()} when there is nothing left to do. */
+    private static final int NO_PIECE = -1;
+    /** Returned by {@link SegmentedDownload#takePiece()} when the worker should stop because the pool shrank. */
+    private static final int RETIRED = -2;
+
+    @NonNull private final OkHttpClient client;
+    @NonNull private final URL url;
+    @NonNull private final File workFile;
+    private final int maxConnections;
+    private final int pieceSize;
+
+    /** Length of the document returned by the last call to {@link #open()}. */
+    private volatile long contentLength = UNKNOWN_DOWNLOAD_SIZE;
+    /** Stream started by {@link #getLength()} that wasn't opened yet. Guarded by {@code this}. */
+    @Nullable private InputStream pendingStream;
+
+    /**
+     * @param url            Location of the document.
+     * @param workFile       File the pieces are assembled in. It is deleted once the returned stream is closed.
+     * @param maxConnections Maximum number of connections used at the same time.
+     */
+    public SegmentedDownloadSource(@NonNull URL url, @NonNull File workFile, int maxConnections) {
+        this(url, workFile, maxConnections, DEFAULT_PIECE_SIZE);
+    }
+
+    @VisibleForTesting
+    SegmentedDownloadSource(@NonNull URL url, @NonNull File workFile, int maxConnections, int pieceSize) {
+        if (maxConnections < 1) throw new IllegalArgumentException("maxConnections must be at least 1.");
+        if (pieceSize < 1) throw new IllegalArgumentException("pieceSize must be at least 1.");
+        this.client = DownloadHttpClient.getInstance().newBuilder()
+            .protocols(Collections.singletonList(Protocol.HTTP_1_1))
+            .build();
+        this.url = url;
+        this.workFile = workFile;
+        this.maxConnections = maxConnections;
+        this.pieceSize = pieceSize;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        synchronized (this) {
+            if (pendingStream != null) {
+                final InputStream inputStream = pendingStream;
+                pendingStream = null;
+                return inputStream;
+            }
+        }
+        return startDownload();
+    }
+
+    /**
+     * Starts the download and returns the size taken from its first response, which is kept for {@link #open()}, so there's no extra request just for the
+     * size. This must not be called on the main thread and should be followed by {@link #open()}.
+     */
+    @Override
+    public synchronized long getLength() {
+        if (pendingStream != null) return contentLength;
+        try {
+            pendingStream = startDownload();
+            return contentLength;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to retrieve download size - " + e.getMessage(), e);
+            return UNKNOWN_DOWNLOAD_SIZE;
+        }
+    }
+
+    @NonNull
+    private InputStream startDownload() throws IOException {
+        final Response probe = client.newCall(newRequest().header("Range", "bytes=0-0").build()).execute();
+        if (probe.code() == HttpURLConnection.HTTP_OK) {
+            // No range support, so we simply use the response we already have.
+            Log.d(LOG_TAG, "Server doesn't support ranges, downloading " + url + " over a single connection.");
+            return openResponse(probe);
+        }
+        final long length = probe.code() == HttpURLConnection.HTTP_PARTIAL ? parseContentRange(probe.header("Content-Range"))[2] : UNKNOWN_DOWNLOAD_SIZE;
+        final String validator = ResumableDownloadSource.readValidator(probe);
+        probe.close();
+
+        if (length == UNKNOWN_DOWNLOAD_SIZE || validator == null) {
+            // Without a validator we couldn't tell whether pieces belong to the same version of the document.
+            final Response response = client.newCall(newRequest().build()).execute();
+            if (response.code() != HttpURLConnection.HTTP_OK) {
+                response.close();
+                throw new IOException("Server responded with " + response.code() + " for " + url);
+            }
+            return openResponse(response);
+        }
+
+        contentLength = length;
+        final SegmentedDownload download = new SegmentedDownload(length, validator);
+        download.start();
+        return download;
+    }
+
+    @NonNull
+    private InputStream openResponse(@NonNull Response response) {
+        final ResponseBody body = response.body();
+        if (body == null) {
+            response.close();
+            contentLength = 0;
+            return new ResponseInputStream(null, null);
+        }
+        final long length = body.contentLength();
+        contentLength = length >= 0 ? length : UNKNOWN_DOWNLOAD_SIZE;
+        return new ResponseInputStream(response, body.byteStream());
+    }
+
+    @NonNull
+    private Request.Builder newRequest() {
+        return new Request.Builder()
+            .url(url)
+            // Ranges refer to the encoded representation, so the response must not be compressed.
+            .header("Accept-Encoding", "identity");
+    }
+
+    /** Parses {@code Content-Range: bytes first-last/total} into {@code [first, last, total]}, using -1 for anything missing. */
+    @NonNull
+    private static long[] parseContentRange(@Nullable String contentRange) {
+        final long[] range = { -1, -1, -1 };
+        if (contentRange == null) return range;
+        final String value = contentRange.trim();
+        final int dash = value.indexOf('-');
+        final int slash = value.lastIndexOf('/');
+        if (!value.startsWith("bytes ") || dash < 0 || slash < dash) return range;
+        range[0] = parseLong(value.substring("bytes ".length(), dash));
+        range[1] = parseLong(value.substring(dash + 1, slash));
+        range[2] = parseLong(value.substring(slash + 1));
+        return range;
+    }
+
+    private static long parseLong(@Nullable String value) {
+        if (value == null) return UNKNOWN_DOWNLOAD_SIZE;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return UNKNOWN_DOWNLOAD_SIZE;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentedDownloadSource{" +
+            "url=" + url +
+            ", maxConnections=" + maxConnections +
+            '}';
+    }
+
+    /**
+     * Thrown when a piece doesn't belong to the document that was probed. Retrying won't help, so the download fails right away.
+     */
+    public static class DocumentChangedException extends IOException {
+        DocumentChangedException(@NonNull String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Decides how many connections to use, based on the throughput measured with the current number of connections. Not thread safe.
+     */
+    @VisibleForTesting
+    static class ConnectionTuner {
+        private final int maxConnections;
+        private int targetConnections;
+        /** Throughput measured before the last connection was added, if it wasn't evaluated yet, otherwise 0. */
+        private double throughputBeforeLastConnection = 0;
+        private boolean growthStopped = false;
+        /** Best throughput since the number of connections last changed, once growth stopped. */
+        private double bestThroughput = 0;
+
+        ConnectionTuner(int initialConnections, int maxConnections) {
+            this.maxConnections = maxConnections;
+            this.targetConnections = Math.min(initialConnections, maxConnections);
+        }
+
+        int getTargetConnections() {
+            return targetConnections;
+        }
+
+        /**
+         * Records the throughput of the last window and returns the number of connections to use from now on.
+         *
+         * @param canGrow Whether there is enough work left for another connection.
+         */
+        int onThroughputMeasured(double throughput, boolean canGrow) {
+            if (throughputBeforeLastConnection > 0) {
+                final boolean helped = throughput >= throughputBeforeLastConnection * MIN_THROUGHPUT_GAIN;
+                throughputBeforeLastConnection = 0;
+                if (!helped) {
+                    // The last connection didn't help, so the link is saturated and the connection only adds load.
+                    targetConnections--;
+                    growthStopped = true;
+                    bestThroughput = throughput;
+                    return targetConnections;
+                }
+            }
+            if (!growthStopped && targetConnections < maxConnections && canGrow) {
+                throughputBeforeLastConnection = throughput;
+                return ++targetConnections;
+            }
+
+            growthStopped = true;
+            if (throughput > bestThroughput) {
+                bestThroughput = throughput;
+            } else if (throughput * MAX_THROUGHPUT_LOSS < bestThroughput && targetConnections > 1) {
+                // With the same connections we got a lot slower, for example because the server throttles clients with many connections.
+                targetConnections--;
+                bestThroughput = throughput;
+            }
+            return targetConnections;
+        }
+    }
+
+    /**
+     * Stream of a single response, closing the response once it is closed.
+     */
+    private static class ResponseInputStream extends InputStream {
+        @Nullable private final Response response;
+        @Nullable private final InputStream inputStream;
+
+        ResponseInputStream(@Nullable Response response, @Nullable InputStream inputStream) {
+            this.response = response;
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return inputStream != null ? inputStream.read() : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            return inputStream != null ? inputStream.read(buffer, offset, length) : -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (inputStream != null) inputStream.close();
+            } finally {
+                if (response != null) response.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the parallel download and hands out the document in order. All mutable state is guarded by {@code this}.
+     */
+    private class SegmentedDownload extends InputStream {
+        private final long length;
+        /** Validator of the probed document, sent with {@code If-Range} for every piece. */
+        @NonNull private final String validator;
+        private final int pieceCount;
+        @NonNull private final FileChannel channel;
+        @NonNull private final CompositeDisposable workers = new CompositeDisposable();
+        @NonNull private final ConnectionTuner tuner = new ConnectionTuner(INITIAL_CONNECTIONS, maxConnections);
+
+        /** Number of bytes of every piece that were written, pieces are always written from their start. */
+        @NonNull private final long[] writtenBytes;
+        /** Index of the next piece that wasn't handed to a worker yet. */
+        private int nextPiece = 0;
+        private int activeConnections = 0;
+        /** Position of the reader. */
+        private long readPosition = 0;
+        @Nullable private IOException error;
+        private boolean closed = false;
+
+        // Throughput measurement used to decide how many connections to use.
+        private long downloadedBytes = 0;
+        private long windowStartNanos;
+        private long windowStartBytes = 0;
+
+        SegmentedDownload(long length, @NonNull String validator) throws IOException {
+            this.length = length;
+            this.validator = validator;
+            this.pieceCount = (int) ((length + pieceSize - 1) / pieceSize);
+            this.writtenBytes = new long[pieceCount];
+            //noinspection ResultOfMethodCallIgnored
+            workFile.getParentFile().mkdirs();
+            final RandomAccessFile file = new RandomAccessFile(workFile, "rw");
+            file.setLength(length);
+            this.channel = file.getChannel();
+        }
+
+        synchronized void start() {
+            windowStartNanos = System.nanoTime();
+            for (int i = 0; i < tuner.getTargetConnections(); i++) {
+                startWorker();
+            }
+        }
+
+        /** Must be called while holding {@code this}. */
+        private void startWorker() {
+            activeConnections++;
+            workers.add(Completable.fromAction(this::downloadPieces)
+                            .subscribeOn(Schedulers.io())
+                            .subscribe(() -> { }, throwable -> fail(throwable instanceof IOException
+                                ? (IOException) throwable
+                                : new IOException("Download worker failed.", throwable))));
+        }
+
+        /**
+         * Worker loop: downloads pieces until there are none left or the worker is retired. Failed pieces are retried a few times before the whole
+         * download fails.
+         */
+        private void downloadPieces() {
+            int piece = NO_PIECE;
+            try {
+                while ((piece = takePiece()) >= 0) {
+                    for (int attempt = 1; ; attempt++) {
+                        try {
+                            downloadPiece(piece);
+                            break;
+                        } catch (DocumentChangedException e) {
+                            throw e;
+                        } catch (IOException e) {
+                            if (isClosed() || attempt == MAX_ATTEMPTS_PER_PIECE) throw e;
+                            Log.w(LOG_TAG, "Retrying piece " + piece + " of " + url + " - " + e.getMessage());
+                        }
+                    }
+                    adjustConnections();
+                }
+            } catch (IOException e) {
+                fail(e);
+            } finally {
+                // Retired workers were already taken out of the count by takePiece().
+                if (piece != RETIRED) {
+                    synchronized (this) {
+                        activeConnections--;
+                    }
+                }
+            }
+        }
+
+        /** Returns the next piece to download, {@link #NO_PIECE} if there is none, or {@link #RETIRED} if the calling worker should stop. */
+        private synchronized int takePiece() {
+            if (closed || error != null || nextPiece >= pieceCount) return NO_PIECE;
+            if (activeConnections > tuner.getTargetConnections()) {
+                activeConnections--;
+                return RETIRED;
+            }
+            return nextPiece++;
+        }
+
+        private synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /** Downloads the rest of a piece, continuing after the bytes that were written by an earlier attempt. */
+        private void downloadPiece(int piece) throws IOException {
+            final long pieceStart = (long) piece * pieceSize;
+            final long pieceEnd = Math.min(pieceStart + pieceSize, length);
+            final long start;
+            synchronized (this) {
+                start = pieceStart + writtenBytes[piece];
+            }
+            if (start >= pieceEnd) return;
+
+            final Request request = newRequest()
+                .header("Range", "bytes=" + start + "-" + (pieceEnd - 1))
+                // The server only honors the range if the document didn't change since the probe, otherwise it sends the new document in full.
+                .header("If-Range", validator)
+                .build();
+            try (Response response = client.newCall(request).execute()) {
+                if (response.code() == HttpURLConnection.HTTP_OK) {
+                    throw new DocumentChangedException("Document " + url + " changed on the server during the download.");
+                }
+                if (response.code() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("Server responded with " + response.code() + " to range request.");
+                }
+                final long[] contentRange = parseContentRange(response.header("Content-Range"));
+                final String responseValidator = ResumableDownloadSource.readValidator(response);
+                if (contentRange[0] != start || contentRange[1] < pieceEnd - 1 || contentRange[2] != length ||
+                    (responseValidator != null && !responseValidator.equals(validator))) {
+                    throw new DocumentChangedException("Requested bytes " + start + "-" + (pieceEnd - 1) + "/" + length + " of " + validator +
+                        " but received " + response.header("Content-Range") + " of " + responseValidator + ".");
+                }
+                final ResponseBody body = response.body();
+                if (body == null) throw new IOException("Range response without body.");
+
+                try (InputStream inputStream = body.byteStream()) {
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    long position = start;
+                    while (position < pieceEnd) {
+                        if (isClosed()) throw new InterruptedIOException("Download was cancelled.");
+                        final int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, pieceEnd - position));
+                        if (read < 0) throw new IOException("Connection closed before piece " + piece + " was complete.");
+
+                        final ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                        while (data.hasRemaining()) {
+                            channel.write(data, position + data.position());
+                        }
+                        position += read;
+                        synchronized (this) {
+                            writtenBytes[piece] += read;
+                            downloadedBytes += read;
+                            notifyAll();
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Lets the {@link ConnectionTuner} adjust the number of connections to the throughput measured over a window of at least
+         * {@link #THROUGHPUT_WINDOW_NANOS}. New workers are started right away, surplus workers stop after their current piece.
+         */
+        private synchronized void adjustConnections() {
+            if (closed) return;
+            final long now = System.nanoTime();
+            final long elapsedNanos = now - windowStartNanos;
+            if (elapsedNanos < THROUGHPUT_WINDOW_NANOS) return;
+
+            final double throughput = (double) (downloadedBytes - windowStartBytes) / elapsedNanos;
+            windowStartNanos = now;
+            windowStartBytes = downloadedBytes;
+
+            final int previousTarget = tuner.getTargetConnections();
+            final int target = tuner.onThroughputMeasured(throughput, nextPiece < pieceCount);
+            if (target < previousTarget) {
+                Log.d(LOG_TAG, "Reducing to " + target + " connections for " + url);
+            }
+            while (activeConnections < target) {
+                startWorker();
+            }
+        }
+
+        private synchronized void fail(@NonNull IOException e) {
+            if (error == null && !closed) {
+                Log.e(LOG_TAG, "Download of " + url + " failed - " + e.getMessage(), e);
+                error = e;
+            }
+            notifyAll();
+        }
+
+        /** Returns how many bytes are available at {@link #readPosition}, waiting until at least one is. Returns -1 at the end. */
+        private synchronized int awaitAvailable(int maxBytes) throws IOException {
+            while (true) {
+                if (closed) throw new IOException("Stream is closed.");
+                if (readPosition >= length) return -1;
+
+                final int piece = (int) (readPosition / pieceSize);
+                final long available = (long) piece * pieceSize + writtenBytes[piece] - readPosition;
+                if (available > 0) return (int) Math.min(available, maxBytes);
+                if (error != null) throw error;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for download.");
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] singleByte = new byte[1];
+            final int read = read(singleByte, 0, 1);
+            return read < 0 ? -1 : singleByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            final int available = awaitAvailable(length);
+            if (available < 0) return -1;
+
+            final ByteBuffer data = ByteBuffer.wrap(buffer, offset, available);
+            final long position;
+            synchronized (this) {
+                position = readPosition;
+            }
+            while (data.hasRemaining()) {
+                if (channel.read(data, position + data.position() - offset) < 0) throw new IOException("Work file is shorter than expected.");
+            }
+            synchronized (this) {
+                readPosition += available;
+            }
+            return available;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                notifyAll();
+            }
+            workers.dispose();
+            try {
+                channel.close();
+            } finally {
+                if (!workFile.delete()) Log.w(LOG_TAG, "Failed to delete work file " + workFile.getAbsolutePath());
+            }
+        }
+    }
+}
@@ -9,7 +9,6 @@ package com.pspdfkit.catalog.examples.java;
 
 import android.content.Context;
 import android.content.Intent;
-import android.net.Uri;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import com.pspdfkit.PSPDFKit;
@@ -17,10 +16,9 @@ import com.pspdfkit.configuration.activity.PdfActivityConfiguration;
 import com.pspdfkit.configuration.policy.ApplicationPolicy;
 import com.pspdfkit.catalog.R;
 import com.pspdfkit.catalog.PSPDFExample;
+import com.pspdfkit.catalog.examples.java.providers.ApkAssetDataProvider;
 import com.pspdfkit.ui.PdfActivityIntentBuilder;
 
-import static com.pspdfkit.catalog.tasks.ExtractAssetTask.extract;
-
 /**
  * Example of how to customize application policy preventing copy/paste action.
  */
@@ -55,17 +53,15 @@ public class CustomApplicationPolicyExample extends PSPDFExample {
 
     @Override
     public void launchExample(@NonNull final Context context, @NonNull final PdfActivityConfiguration.Builder configuration) {
-        // We use a custom utility class to extract the example document from the assets.
-        extract(QUICK_START_GUIDE, title, context, documentFile -> {
-            // To customize the application policy we extend ApplicationPolicy.
-            CustomApplicationPolicy customApplicationPolicy = new CustomApplicationPolicy();
-            PSPDFKit.setApplicationPolicy(customApplicationPolicy);
+        // To customize the application policy we extend ApplicationPolicy.
+        CustomApplicationPolicy customApplicationPolicy = new CustomApplicationPolicy();
+        PSPDFKit.setApplicationPolicy(customApplicationPolicy);
 
-            final Intent intent = PdfActivityIntentBuilder.fromUri(context, Uri.fromFile(documentFile))
-                .configuration(configuration.build())
-                .build();
+        // The example document is read straight from the app's assets. It's only copied out of the APK once changes are saved.
+        final Intent intent = PdfActivityIntentBuilder.fromDataProvider(context, ApkAssetDataProvider.forExample(context, QUICK_START_GUIDE, title))
+            .configuration(configuration.build())
+            .build();
 
-            context.startActivity(intent);
-        });
+        context.startActivity(intent);
     }
 }
@@ -9,24 +9,30 @@ package com.pspdfkit.catalog.examples.java;
 
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RawRes;
 
 import com.pspdfkit.catalog.PSPDFExample;
+import com.pspdfkit.catalog.examples.java.providers.InstrumentedDataProvider;
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration;
+import com.pspdfkit.document.providers.ContextDataProvider;
 import com.pspdfkit.document.providers.DataProvider;
-import com.pspdfkit.document.providers.InputStreamDataProvider;
 import com.pspdfkit.catalog.R;
 import com.pspdfkit.ui.PdfActivity;
 import com.pspdfkit.ui.PdfActivityIntentBuilder;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * This example shows how to create a custom data provider that reads a document from the {@code raw} resources
@@ -35,11 +41,13 @@ import java.io.InputStream;
 public class CustomDataProviderExample extends PSPDFExample {
 
     /**
-     * Custom data provider for loading a PDF document from the app's raw resources. Since
-     * {@link Resources#openRawResource(int)} returns an {@code InputStream}, this provider derives from
-     * {@code InputStreamDataProvider} which handles loading data from a stream object.
+     * Custom data provider for loading a PDF document from the app's raw resources. Raw resources that are stored uncompressed inside the APK (see
+     * {@code aaptOptions} in the app's {@code build.gradle}) can be opened using {@link Resources#openRawResourceFd(int)}. The returned descriptor
+     * points into the APK file, so this provider can read any part of the document directly using positional reads, instead of re-reading the
+     * resource stream from the start whenever the reader jumps backwards.
      */
-    public static class RawResourceDataProvider extends InputStreamDataProvider implements Parcelable {
+    public static class RawResourceDataProvider implements DataProvider, ContextDataProvider, Parcelable {
+        private static final String LOG_TAG = "RawResourceProvider";
 
         /**
          * Static CREATOR object for creating instances from a Parcel.
@@ -54,10 +62,19 @@ public class CustomDataProviderExample extends PSPDFExample {
             }
         };
         @RawRes private int resId;
+        /** Set by PSPDFKit before the document is loaded. */
+        private Context context;
+        /** Descriptor of the resource inside the APK. Opened on the first read, {@code null} if the resource is compressed. */
+        @Nullable private AssetFileDescriptor resourceFd;
+        /** Channel of the whole APK file. The resource starts at {@link #startOffset}. */
+        @Nullable private FileChannel channel;
+        private long startOffset;
         /**
          * The size of the raw resource. This will be cached after the first call to {@link #getSize()}.
          */
         private long size = FILE_SIZE_UNKNOWN;
+        /** Set if the resource can't be opened as a file descriptor and has to be read as a stream. */
+        private boolean compressed = false;
 
         /**
          * Create a new data provider for reading the PDF document stored within the {@code res/raw/} folder of
@@ -75,19 +92,84 @@ public class CustomDataProviderExample extends PSPDFExample {
             this.resId = in.readInt();
         }
 
+        @Override
+        public void setContext(@NonNull Context context) {
+            this.context = context;
+        }
+
         /**
-         * We return the InputStream for the referenced raw resource. Since InputStreamDataProvider may call this
-         * method multiple times we have to make sure that it always returns a fresh input stream object.
+         * Opens the raw resource as a file descriptor if that wasn't done yet. Returns {@code null} if the resource is compressed.
          */
+        @Nullable
+        private synchronized FileChannel getChannel() throws IOException {
+            if (channel != null || compressed) return channel;
+            try {
+                resourceFd = context.getResources().openRawResourceFd(resId);
+            } catch (Resources.NotFoundException e) {
+                // Compressed resources can't be accessed directly.
+                Log.w(LOG_TAG, "Raw resource is compressed, falling back to slow stream access. Add its extension to aaptOptions.noCompress.");
+                compressed = true;
+                return null;
+            }
+            startOffset = resourceFd.getStartOffset();
+            // The channel shares the descriptor, which is closed in release().
+            channel = new FileInputStream(resourceFd.getFileDescriptor()).getChannel();
+            size = resourceFd.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH ? resourceFd.getLength() : channel.size() - startOffset;
+            return channel;
+        }
+
         @NonNull
         @Override
-        protected InputStream openInputStream() throws IOException {
-            return getContext().getResources().openRawResource(resId);
+        public byte[] read(long size, long offset) {
+            try {
+                final FileChannel channel = getChannel();
+                if (channel == null) return readFromStream(size, offset);
+
+                final int length = (int) Math.max(0, Math.min(size, this.size - offset));
+                final ByteBuffer buffer = ByteBuffer.allocate(length);
+                // Positional reads don't move the channel, so concurrent reads don't interfere.
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, startOffset + offset + buffer.position()) < 0) break;
+                }
+                if (buffer.hasRemaining()) {
+                    final byte[] data = new byte[buffer.position()];
+                    System.arraycopy(buffer.array(), 0, data, 0, data.length);
+                    return data;
+                }
+                return buffer.array();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to read raw resource - " + e.getMessage(), e);
+                return new byte[0];
+            }
+        }
+
+        /**
+         * Slow path for compressed resources: opens a new stream and skips to the requested offset.
+         */
+        @NonNull
+        private byte[] readFromStream(long size, long offset) throws IOException {
+            try (InputStream inputStream = context.getResources().openRawResource(resId)) {
+                long skipped = 0;
+                while (skipped < offset) {
+                    final long count = inputStream.skip(offset - skipped);
+                    if (count <= 0) return new byte[0];
+                    skipped += count;
+                }
+                final byte[] data = new byte[(int) size];
+                int read = 0;
+                int count;
+                while (read < data.length && (count = inputStream.read(data, read, data.length - read)) > 0) {
+                    read += count;
+                }
+                if (read == data.length) return data;
+                final byte[] shortData = new byte[read];
+                System.arraycopy(data, 0, shortData, 0, read);
+                return shortData;
+            }
         }
 
         /**
-         * This method returns the size of our resource.  Android only gives us an {@link InputStream} for
-         * accessing the resources we have to
+         * Returns the exact size of the resource as stored in the APK.
          */
         @Override
         public long getSize() {
@@ -95,14 +177,12 @@ public class CustomDataProviderExample extends PSPDFExample {
             if (size != FILE_SIZE_UNKNOWN) return size;
 
             try {
-                // Since we can only get size of the available data in the input stream we need to
-                // reopen it here if the stream position is not 0.
-                if (getInputStreamPosition() != 0) {
-                    reopenInputStream();
+                if (getChannel() == null) {
+                    // Compressed resources only give us an input stream, so we need to rely on the available data.
+                    try (InputStream inputStream = context.getResources().openRawResource(resId)) {
+                        size = inputStream.available();
+                    }
                 }
-
-                size = openInputStream().available();
-
                 return size;
             } catch (Exception e) {
                 return FILE_SIZE_UNKNOWN;
@@ -117,7 +197,7 @@ public class CustomDataProviderExample extends PSPDFExample {
         @NonNull
         @Override
         public String getUid() {
-            return getContext().getResources().getResourceName(resId);
+            return context.getResources().getResourceName(resId);
         }
 
         @Nullable
@@ -127,6 +207,19 @@ public class CustomDataProviderExample extends PSPDFExample {
             return null;
         }
 
+        @Override
+        public synchronized void release() {
+            if (resourceFd != null) {
+                try {
+                    resourceFd.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to close raw resource - " + e.getMessage(), e);
+                }
+            }
+            resourceFd = null;
+            channel = null;
+        }
+
         /**
          * Default parcelable implementation. The object is always parceled the same way. Thus, we return 0.
          */
@@ -150,8 +243,9 @@ public class CustomDataProviderExample extends PSPDFExample {
 
     @Override
     public void launchExample(@NonNull Context context, @NonNull PdfActivityConfiguration.Builder configuration) {
-        // Create an instance of the custom data provider. See the implementation details below.
-        DataProvider dataProvider = new RawResourceDataProvider(R.raw.guide);
+        // Create an instance of the custom data provider. See the implementation details below. The instrumented provider logs how the
+        // document was read once it is closed, which tells us whether caching or prefetching would pay off.
+        DataProvider dataProvider = InstrumentedDataProvider.wrap(new RawResourceDataProvider(R.raw.guide));
 
         // Start the activity using our data provider.
         Intent intent = PdfActivityIntentBuilder.fromDataProvider(context, dataProvider)
@@ -11,6 +11,7 @@ import android.app.Dialog;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.ProgressBar;
@@ -20,21 +21,26 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.FragmentActivity;
 
 import com.pspdfkit.catalog.PSPDFExample;
+import com.pspdfkit.catalog.download.DocumentCache;
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration;
 import com.pspdfkit.document.download.DownloadJob;
 import com.pspdfkit.document.download.DownloadProgressFragment;
 import com.pspdfkit.document.download.DownloadRequest;
 import com.pspdfkit.document.download.Progress;
+import com.pspdfkit.document.download.source.DownloadSource;
 import com.pspdfkit.catalog.R;
 import com.pspdfkit.ui.PdfActivityIntentBuilder;
 
 import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.Locale;
 
 /**
  * This is an example showing how to use the {@link DownloadJob} to download a PDF document from the web with a custom DownloadProgressFragment.
  */
 public class CustomDocumentDownloadExample extends PSPDFExample {
+    private static final String TAG = "CustomDocumentDownload";
 
     /**
      * Our custom progress fragment, that displays the name of the currently downloading file.
@@ -107,10 +113,20 @@ public class CustomDocumentDownloadExample extends PSPDFExample {
     @Override
     public void launchExample(@NonNull final Context context, @NonNull final PdfActivityConfiguration.Builder configuration) {
 
+        final File outputFile = new File(context.getDir("documents", Context.MODE_PRIVATE), "case-study-box.pdf");
+        final DownloadSource source;
+        try {
+            // Documents are served from the shared document cache if they didn't change, and interrupted downloads are resumed where they stopped.
+            source = DocumentCache.getInstance(context).source(new URL("https://pspdfkit.com/downloads/case-study-box.pdf"));
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "Error while trying to parse the PDF Download URL.", e);
+            return;
+        }
+
         // Build a download request based on various input parameters.
         final DownloadRequest request = new DownloadRequest.Builder(context)
-            .uri("https://pspdfkit.com/downloads/case-study-box.pdf")
-            .outputFile(new File(context.getDir("documents", Context.MODE_PRIVATE), "case-study-box.pdf"))
+            .source(source)
+            .outputFile(outputFile)
             .overwriteExisting(true)
             .build();
 
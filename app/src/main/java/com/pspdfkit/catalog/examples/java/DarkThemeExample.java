@@ -9,18 +9,15 @@ package com.pspdfkit.catalog.examples.java;
 
 import android.content.Context;
 import android.content.Intent;
-import android.net.Uri;
 import androidx.annotation.NonNull;
 
 import com.pspdfkit.catalog.PSPDFExample;
 import com.pspdfkit.catalog.examples.java.activities.DarkThemeActivity;
-import com.pspdfkit.catalog.tasks.ExtractAssetTask;
+import com.pspdfkit.catalog.examples.java.providers.ApkAssetDataProvider;
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration;
 import com.pspdfkit.catalog.R;
 import com.pspdfkit.ui.PdfActivityIntentBuilder;
 
-import static com.pspdfkit.catalog.tasks.ExtractAssetTask.extract;
-
 /**
  * This example shows how to add display an activity using the custom theme.
  */
@@ -32,17 +29,14 @@ public class DarkThemeExample extends PSPDFExample {
 
     @Override
     public void launchExample(@NonNull final Context context, @NonNull final PdfActivityConfiguration.Builder configuration) {
-        // We use a custom utility class to extract the example document from the assets.
-        ExtractAssetTask.extract(QUICK_START_GUIDE, title, context, documentFile -> {
-            // To start the DarkThemeActivity create a launch intent using the builder.
-            final Intent intent = PdfActivityIntentBuilder.fromUri(context, Uri.fromFile(documentFile))
-                .configuration(configuration.build())
-                .activityClass(DarkThemeActivity.class)
-                .build();
-
-            // Start the DarkThemeActivity for the extracted document.
-            context.startActivity(intent);
-        });
-
+        // The example document is read straight from the app's assets. It's only copied out of the APK once changes are saved.
+        // To start the DarkThemeActivity create a launch intent using the builder.
+        final Intent intent = PdfActivityIntentBuilder.fromDataProvider(context, ApkAssetDataProvider.forExample(context, QUICK_START_GUIDE, title))
+            .configuration(configuration.build())
+            .activityClass(DarkThemeActivity.class)
+            .build();
+
+        // Start the DarkThemeActivity for the bundled document.
+        context.startActivity(intent);
     }
 }
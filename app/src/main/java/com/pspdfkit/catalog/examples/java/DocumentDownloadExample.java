@@ -21,15 +21,12 @@ import com.pspdfkit.document.download.DownloadRequest;
 import com.pspdfkit.document.download.source.DownloadSource;
 import com.pspdfkit.catalog.R;
 import com.pspdfkit.catalog.PSPDFExample;
+import com.pspdfkit.catalog.download.DocumentCache;
 import com.pspdfkit.ui.PdfActivityIntentBuilder;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 
 /**
  * This is an example showing how to use the {@link DownloadJob} to download a PDF document from the web.
@@ -43,12 +40,15 @@ public class DocumentDownloadExample extends PSPDFExample {
 
     @Override
     public void launchExample(@NonNull final Context context, @NonNull final PdfActivityConfiguration.Builder configuration) {
-        // The web download source is a custom DownloadSource implemented below.
-        final WebDownloadSource source;
+        final File outputFile = new File(context.getDir("documents", Context.MODE_PRIVATE), "case-study-box.pdf");
+
+        // The download source of the shared document cache only needs a conditional request if the document was downloaded before. New downloads
+        // are resumable: if the download is interrupted, starting it again only requests the missing part of the document from the server.
+        final DownloadSource source;
 
         // Try to parse the URL pointing to the PDF document. If an error occurs, log it and leave the example.
         try {
-            source = new WebDownloadSource(new URL("https://pspdfkit.com/downloads/case-study-box.pdf"));
+            source = DocumentCache.getInstance(context).source(new URL("https://pspdfkit.com/downloads/case-study-box.pdf"));
         } catch (MalformedURLException e) {
             Log.e(TAG, "Error while trying to parse the PDF Download URL.", e);
             return;
@@ -58,7 +58,7 @@ public class DocumentDownloadExample extends PSPDFExample {
         // Build a download request based on various input parameters. Provide the web source pointing to the document.
         final DownloadRequest request = new DownloadRequest.Builder(context)
             .source(source)
-            .outputFile(new File(context.getDir("documents", Context.MODE_PRIVATE), "case-study-box.pdf"))
+            .outputFile(outputFile)
             .overwriteExisting(true)
             .build();
 
@@ -86,60 +86,4 @@ public class DocumentDownloadExample extends PSPDFExample {
             }
         });
     }
-
-    /**
-     * This download source can be used to download a PDF document from the web.
-     */
-    private static class WebDownloadSource implements DownloadSource {
-
-        @NonNull private final URL documentURL;
-
-        private WebDownloadSource(@NonNull URL documentURL) {
-            this.documentURL = documentURL;
-        }
-
-        /**
-         * The open method needs to return an {@link InputStream} that will provide the complete document.
-         */
-        @Override
-        public InputStream open() throws IOException {
-            final HttpURLConnection connection = (HttpURLConnection) documentURL.openConnection();
-            connection.connect();
-            return connection.getInputStream();
-        }
-
-        /**
-         * If the length is available it can be returned here. This is optional, and can improve the reported download progress, since it will then contain
-         * a percentage of download.
-         */
-        @Override
-        public long getLength() {
-            long length = DownloadSource.UNKNOWN_DOWNLOAD_SIZE;
-
-            // We try to estimate the download size using the content length header.
-            URLConnection urlConnection = null;
-            try {
-                urlConnection = documentURL.openConnection();
-                final int contentLength = urlConnection.getContentLength();
-                if (contentLength != -1) {
-                    length = contentLength;
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                if (urlConnection != null && urlConnection instanceof HttpURLConnection) {
-                    ((HttpURLConnection) urlConnection).disconnect();
-                }
-            }
-
-            return length;
-        }
-
-        @Override
-        public String toString() {
-            return "WebDownloadSource{" +
-                "documentURL=" + documentURL +
-                '}';
-        }
-    }
 }
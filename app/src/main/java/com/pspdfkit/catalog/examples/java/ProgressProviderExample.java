@@ -11,29 +11,38 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.pspdfkit.catalog.PSPDFExample;
+import com.pspdfkit.catalog.download.DocumentCache;
+import com.pspdfkit.catalog.download.ResumableDownloadSource;
 import com.pspdfkit.catalog.utils.StringUtils;
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration;
-import com.pspdfkit.document.download.DownloadJob;
-import com.pspdfkit.document.download.DownloadRequest;
-import com.pspdfkit.document.download.Progress;
+import com.pspdfkit.document.providers.ContextDataProvider;
 import com.pspdfkit.document.providers.DataProvider;
-import com.pspdfkit.document.providers.InputStreamDataProvider;
 import com.pspdfkit.document.providers.ProgressDataProvider;
 import com.pspdfkit.catalog.R;
 import com.pspdfkit.ui.PdfActivity;
 import com.pspdfkit.ui.PdfActivityIntentBuilder;
 import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
 import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.PublishSubject;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.CountDownLatch;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
 
 /**
  * This example shows how to create a custom data provider that loads a document from the web and shows the progress in the {@link PdfActivity}.
@@ -42,10 +51,18 @@ import java.util.concurrent.CountDownLatch;
 public class ProgressProviderExample extends PSPDFExample {
 
     /**
-     * Custom data provider for loading a PDF document from the web. This provider derives from
-     * {@code InputStreamDataProvider} which handles loading data from a stream object.
+     * Custom data provider for loading a PDF document from the web. Instead of waiting for the whole document to be downloaded, the provider learns
+     * the document size up front and fetches the byte ranges PSPDFKit asks for using HTTP range requests, so the first page can be rendered after a few
+     * round-trips. A background download fills in the remaining ranges and reports the overall progress.
+     * <p>
+     * Downloaded data is stored in a sparse file of the final size, and a bitmap of fixed-size blocks tracks which parts of the file are present. If the
+     * server doesn't support range requests, the whole document is downloaded sequentially and reads wait until the data they need has arrived.
+     * <p>
+     * Range requests carry the validator of the document in {@code If-Range}, and every response has to cover exactly the requested range of a document
+     * of the probed size. If the document changes on the server during the download, the provider fails instead of mixing data of both versions.
      */
-    public static class RemoteDataProvider extends InputStreamDataProvider implements ProgressDataProvider, Parcelable {
+    public static class RemoteDataProvider implements DataProvider, ContextDataProvider, ProgressDataProvider, Parcelable {
+        private static final String LOG_TAG = "RemoteDataProvider";
 
         public static final Creator<RemoteDataProvider> CREATOR = new Creator<RemoteDataProvider>() {
             @Override
@@ -58,14 +75,46 @@ public class ProgressProviderExample extends PSPDFExample {
                 return new RemoteDataProvider[size];
             }
         };
+
+        /** Granularity of the bitmap tracking which parts of the document were downloaded. */
+        private static final int BLOCK_SIZE = 64 * 1024;
+        /** Number of blocks the background download fetches with a single request. */
+        private static final int BACKGROUND_BLOCKS_PER_REQUEST = 16;
+        private static final int TIMEOUT_MILLIS = 15_000;
+
         /** The url where the PDF document is located. */
         private final String url;
-        /** Responsible for downloading our PDF. */
-        private DownloadJob downloadJob;
-        /** Used to wait until the download is done. */
-        private CountDownLatch downloadLatch = new CountDownLatch(1);
+        private Context context;
         /** Used to notify the PdfFragment of download progress updates. */
-        private PublishSubject<Double> progressSubject = PublishSubject.create();
+        private final PublishSubject<Double> progressSubject = PublishSubject.create();
+
+        // All fields below are guarded by this. Readers waiting for data use wait() and are woken up using notifyAll() whenever blocks arrive.
+        /** Sparse file holding the downloaded ranges. Opened on first access. */
+        @Nullable private FileChannel file;
+        /**
+         * File behind {@link #file} while it belongs to this provider. It is unique to the provider, so several providers of the same URL don't share it.
+         * It is deleted on release, unless it was moved into the document cache.
+         */
+        @Nullable private File workFile;
+        /** Whether a thread is currently probing the document. Other threads wait for it instead of probing as well. */
+        private boolean opening;
+        private long size = FILE_SIZE_UNKNOWN;
+        private boolean rangesSupported;
+        /** {@code ETag} or {@code Last-Modified} value of the probed document, sent with range requests and stored in the document cache. */
+        @Nullable private String validator;
+        /** Blocks that were downloaded completely. */
+        @NonNull private final BitSet presentBlocks = new BitSet();
+        /** Blocks that are currently being downloaded. */
+        @NonNull private final BitSet pendingBlocks = new BitSet();
+        /**
+         * Set if the sequential download used for servers without range support failed, or if the document changed on the server. Reads fail with
+         * this error from then on.
+         */
+        @Nullable private IOException downloadError;
+        private boolean sequentialDownloadFinished;
+        /** Response of the probe request, reused by the sequential download if the server doesn't support ranges. */
+        @Nullable private HttpURLConnection sequentialConnection;
+        private boolean released;
 
         /**
          * Create a new data provider for reading the PDF document stored at the URL.
@@ -79,6 +128,11 @@ public class ProgressProviderExample extends PSPDFExample {
             url = in.readString();
         }
 
+        @Override
+        public void setContext(@NonNull Context context) {
+            this.context = context;
+        }
+
         @NonNull
         @Override
         public Flowable<Double> observeProgress() {
@@ -88,23 +142,47 @@ public class ProgressProviderExample extends PSPDFExample {
 
         @NonNull
         @Override
-        protected InputStream openInputStream() throws Exception {
-            startDownloadIfNotRunning();
-            // We need to wait until our download is finished.
-            downloadLatch.await();
-            return new FileInputStream(downloadJob.getOutputFile());
+        public byte[] read(long size, long offset) {
+            try {
+                final FileChannel file = open();
+                final long end = Math.min(offset + size, getSize());
+                if (end <= offset) return new byte[0];
+
+                final int firstBlock = (int) (offset / BLOCK_SIZE);
+                final int lastBlock = (int) ((end - 1) / BLOCK_SIZE);
+                if (isRangesSupported()) {
+                    fetchBlocks(firstBlock, lastBlock);
+                } else {
+                    waitForBlocks(firstBlock, lastBlock);
+                }
+
+                final ByteBuffer buffer = ByteBuffer.allocate((int) (end - offset));
+                while (buffer.hasRemaining()) {
+                    if (file.read(buffer, offset + buffer.position()) < 0) throw new EOFException("Downloaded file is shorter than expected.");
+                }
+                return buffer.array();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to read remote document - " + e.getMessage(), e);
+                return new byte[0];
+            }
         }
 
         @Override
         public long getSize() {
-            startDownloadIfNotRunning();
-            // We need to wait until our download is finished.
             try {
-                downloadLatch.await();
-            } catch (InterruptedException ex) {
+                open();
+                synchronized (this) {
+                    // Without range support the server might not tell us the size up front, so we wait for the download to finish.
+                    while (size == FILE_SIZE_UNKNOWN) {
+                        if (downloadError != null) throw downloadError;
+                        waitForDownload();
+                    }
+                    return size;
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to determine size of remote document - " + e.getMessage(), e);
                 return FILE_SIZE_UNKNOWN;
             }
-            return downloadJob.getOutputFile().length();
         }
 
         @NonNull
@@ -120,44 +198,451 @@ public class ProgressProviderExample extends PSPDFExample {
         }
 
         /**
-         * Starts our download if it wasn't already started.
+         * Learns the document size, creates the sparse file and starts the background download if this wasn't done yet. The network requests are sent
+         * without holding {@code this}, so {@link #release()} and readers of other documents aren't blocked by a slow server. Concurrent callers wait
+         * for the first one to finish.
          */
-        private void startDownloadIfNotRunning() {
-            if (downloadJob == null) {
-                try {
-                    // We delay starting the download so the progress bar will appear, this is only required because our example file is so small.
-                    Thread.sleep(2000);
-                } catch (InterruptedException ex) {
-                    // No problem.
-                }
-
-                downloadJob = DownloadJob.startDownload(new DownloadRequest.Builder(getContext())
-                                                            .uri(url)
-                                                            .outputFile(new File(getContext().getDir("documents", Context.MODE_PRIVATE), "temp.pdf"))
-                                                            .overwriteExisting(true)
-                                                            .build());
-                downloadJob.setProgressListener(new DownloadJob.ProgressListener() {
-                    @Override
-                    public void onProgress(@NonNull Progress progress) {
-                        // Notify our listeners about the download progress.
-                        progressSubject.onNext((double) progress.bytesReceived / (double) progress.totalBytes);
+        @NonNull
+        private FileChannel open() throws IOException {
+            synchronized (this) {
+                while (true) {
+                    if (released) throw new IOException("Data provider was released.");
+                    if (file != null) return file;
+                    if (downloadError != null) throw downloadError;
+                    if (!opening) break;
+                    waitForDownload();
+                }
+                opening = true;
+            }
+
+            final File cachedFile;
+            final Probe probe;
+            try {
+                cachedFile = DocumentCache.getInstance(context).getIfUnchanged(new URL(url));
+                probe = cachedFile == null ? probe() : null;
+            } catch (IOException e) {
+                synchronized (this) {
+                    opening = false;
+                    notifyAll();
+                }
+                throw e;
+            }
+
+            final FileChannel file;
+            final File workFile;
+            synchronized (this) {
+                opening = false;
+                notifyAll();
+                if (released) {
+                    if (probe != null && probe.sequentialConnection != null) probe.sequentialConnection.disconnect();
+                    throw new IOException("Data provider was released.");
+                }
+
+                if (cachedFile != null) {
+                    // We downloaded the document before and it didn't change, so everything is present already.
+                    this.file = new RandomAccessFile(cachedFile, "r").getChannel();
+                    size = this.file.size();
+                    rangesSupported = true;
+                    presentBlocks.set(0, getBlockCount());
+                    progressSubject.onComplete();
+                    return this.file;
+                }
+
+                size = probe.size;
+                rangesSupported = probe.rangesSupported;
+                validator = probe.validator;
+                sequentialConnection = probe.sequentialConnection;
+                workFile = File.createTempFile(getUid(), ".part", context.getDir("documents", Context.MODE_PRIVATE));
+                this.workFile = workFile;
+                final RandomAccessFile randomAccessFile = new RandomAccessFile(workFile, "rw");
+                // Extending the new file creates an empty sparse file.
+                if (size != FILE_SIZE_UNKNOWN) randomAccessFile.setLength(size);
+                file = randomAccessFile.getChannel();
+                this.file = file;
+            }
+
+            // The background download stops by itself once the provider is released.
+            final boolean useRanges = probe.rangesSupported;
+            //noinspection ResultOfMethodCallIgnored
+            Completable
+                .fromAction(() -> {
+                    if (useRanges) {
+                        downloadRemainingBlocks();
+                    } else {
+                        downloadSequentially();
                     }
+                    storeInCache(workFile);
+                })
+                .subscribeOn(Schedulers.io())
+                .subscribe(progressSubject::onComplete, progressSubject::onError);
+            return file;
+        }
 
-                    @Override
-                    public void onComplete(@NonNull File output) {
-                        progressSubject.onComplete();
-                        downloadLatch.countDown();
+        /**
+         * Retrieves the document size and checks if the server supports range requests. This uses a HEAD request first and falls back to requesting the
+         * first byte of the document if the HEAD response is inconclusive.
+         */
+        @NonNull
+        private Probe probe() throws IOException {
+            HttpURLConnection connection = openConnection();
+            try {
+                connection.setRequestMethod("HEAD");
+                if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                    final long contentLength = parseLong(connection.getHeaderField("Content-Length"));
+                    if (contentLength >= 0 && "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"))) {
+                        return new Probe(contentLength, true, ResumableDownloadSource.readValidator(connection), null);
+                    }
+                }
+            } finally {
+                connection.disconnect();
+            }
+
+            connection = openConnection();
+            boolean keepConnection = false;
+            try {
+                connection.setRequestProperty("Range", "bytes=0-0");
+                final int responseCode = connection.getResponseCode();
+                final String validator = ResumableDownloadSource.readValidator(connection);
+                if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                    // Content-Range: bytes 0-0/<size>
+                    final long totalSize = parseContentRange(connection.getHeaderField("Content-Range"))[2];
+                    if (totalSize >= 0) return new Probe(totalSize, true, validator, null);
+                } else if (responseCode != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Server responded with " + responseCode + " for " + url);
+                }
+                // The server ignored the range and is sending the whole document, which we keep for the sequential download.
+                final long contentLength = parseLong(connection.getHeaderField("Content-Length"));
+                keepConnection = true;
+                return new Probe(contentLength >= 0 ? contentLength : FILE_SIZE_UNKNOWN, false, validator, connection);
+            } finally {
+                if (!keepConnection) connection.disconnect();
+            }
+        }
+
+        private synchronized boolean isRangesSupported() {
+            return rangesSupported;
+        }
+
+        /**
+         * Makes sure all blocks in the given range are present. Missing blocks that aren't being downloaded yet are fetched on the calling thread, blocks
+         * that are being downloaded by someone else are waited for.
+         */
+        private void fetchBlocks(int firstBlock, int lastBlock) throws IOException {
+            while (true) {
+                final int runStart;
+                int runEnd;
+                synchronized (this) {
+                    final int missing = presentBlocks.nextClearBit(firstBlock);
+                    if (missing > lastBlock) return;
+                    if (downloadError != null) throw downloadError;
+
+                    runStart = nextClaimableBlock(missing, lastBlock);
+                    if (runStart < 0) {
+                        // Everything that is missing is already being downloaded by someone else.
+                        waitForDownload();
+                        continue;
                     }
+                    runEnd = runStart;
+                    while (runEnd < lastBlock && !presentBlocks.get(runEnd + 1) && !pendingBlocks.get(runEnd + 1)) runEnd++;
+                    pendingBlocks.set(runStart, runEnd + 1);
+                }
+                fetchRange(runStart, runEnd);
+            }
+        }
 
-                    @Override
-                    public void onError(@NonNull Throwable exception) {
-                        progressSubject.onError(exception);
-                        downloadLatch.countDown();
+        /** Returns the first block in the range that is neither present nor being downloaded, or -1. Must be called while holding {@code this}. */
+        private int nextClaimableBlock(int fromBlock, int lastBlock) {
+            for (int block = fromBlock; block <= lastBlock; block++) {
+                if (!presentBlocks.get(block) && !pendingBlocks.get(block)) return block;
+            }
+            return -1;
+        }
+
+        /**
+         * Downloads the given blocks, which have to be marked as pending by the caller, using a single range request. Blocks are marked as present as soon
+         * as they arrived.
+         */
+        private void fetchRange(int firstBlock, int lastBlock) throws IOException {
+            final FileChannel file = open();
+            final long start = (long) firstBlock * BLOCK_SIZE;
+            final long end = Math.min((long) (lastBlock + 1) * BLOCK_SIZE, size);
+            int nextBlock = firstBlock;
+
+            final String validator;
+            synchronized (this) {
+                validator = this.validator;
+            }
+
+            final HttpURLConnection connection = openConnection();
+            try {
+                connection.setRequestProperty("Range", "bytes=" + start + "-" + (end - 1));
+                // The server only sends the range if the document is still the one we probed, otherwise we get the whole new document.
+                if (validator != null) connection.setRequestProperty("If-Range", validator);
+                final int responseCode = connection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_OK) {
+                    throw documentChanged("Server sent the whole document instead of bytes " + start + "-" + (end - 1) + ", it probably changed.");
+                } else if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("Range request failed, server responded with " + responseCode);
+                }
+                final long[] contentRange = parseContentRange(connection.getHeaderField("Content-Range"));
+                if (contentRange[0] != start || contentRange[1] < end - 1 || contentRange[2] != size) {
+                    throw documentChanged("Requested bytes " + start + "-" + (end - 1) + "/" + size + " but received " +
+                        connection.getHeaderField("Content-Range") + ".");
+                }
+
+                final byte[] block = new byte[BLOCK_SIZE];
+                try (InputStream inputStream = connection.getInputStream()) {
+                    while (nextBlock <= lastBlock) {
+                        final long blockStart = (long) nextBlock * BLOCK_SIZE;
+                        final int blockLength = (int) (Math.min(blockStart + BLOCK_SIZE, end) - blockStart);
+                        readFully(inputStream, block, blockLength);
+                        writeFully(file, ByteBuffer.wrap(block, 0, blockLength), blockStart);
+                        synchronized (this) {
+                            presentBlocks.set(nextBlock);
+                            pendingBlocks.clear(nextBlock);
+                            notifyAll();
+                        }
+                        nextBlock++;
+                    }
+                }
+                reportProgress();
+            } finally {
+                connection.disconnect();
+                if (nextBlock <= lastBlock) {
+                    // Hand back the blocks we didn't manage to download, so other readers can try again.
+                    synchronized (this) {
+                        pendingBlocks.clear(nextBlock, lastBlock + 1);
+                        notifyAll();
                     }
-                });
+                }
             }
         }
 
+        /**
+         * Records that the document changed on the server. Data of the new version can't be combined with what was already downloaded, so all pending
+         * and future reads fail with the returned error.
+         */
+        @NonNull
+        private IOException documentChanged(@NonNull String message) {
+            final IOException error = new IOException("Document " + url + " changed during the download. " + message);
+            synchronized (this) {
+                if (downloadError == null) downloadError = error;
+                notifyAll();
+            }
+            return error;
+        }
+
+        /**
+         * Background download for servers with range support. Fetches all blocks that weren't requested by a reader yet, starting at the beginning of
+         * the document, and reports the progress.
+         */
+        private void downloadRemainingBlocks() throws IOException {
+            final int blockCount;
+            synchronized (this) {
+                blockCount = getBlockCount();
+            }
+            while (true) {
+                final int runStart;
+                int runEnd;
+                synchronized (this) {
+                    if (released) return;
+                    if (downloadError != null) throw downloadError;
+                    runStart = nextClaimableBlock(presentBlocks.nextClearBit(0), blockCount - 1);
+                    if (runStart < 0) {
+                        if (presentBlocks.nextClearBit(0) >= blockCount) return;
+                        // The remaining blocks are being fetched by readers.
+                        waitForDownload();
+                        continue;
+                    }
+                    runEnd = runStart;
+                    while (runEnd < blockCount - 1 && runEnd - runStart + 1 < BACKGROUND_BLOCKS_PER_REQUEST &&
+                        !presentBlocks.get(runEnd + 1) && !pendingBlocks.get(runEnd + 1)) {
+                        runEnd++;
+                    }
+                    pendingBlocks.set(runStart, runEnd + 1);
+                }
+                fetchRange(runStart, runEnd);
+            }
+        }
+
+        /**
+         * Background download for servers without range support. Downloads the whole document and marks the blocks present as they arrive.
+         */
+        private void downloadSequentially() throws IOException {
+            final FileChannel file = open();
+            final HttpURLConnection connection;
+            synchronized (this) {
+                connection = sequentialConnection != null ? sequentialConnection : openConnection();
+                sequentialConnection = null;
+            }
+            long position = 0;
+            try (InputStream inputStream = connection.getInputStream()) {
+                final byte[] block = new byte[BLOCK_SIZE];
+                while (true) {
+                    synchronized (this) {
+                        if (released) return;
+                    }
+                    final int length = readFully(inputStream, block, BLOCK_SIZE);
+                    writeFully(file, ByteBuffer.wrap(block, 0, length), position);
+                    position += length;
+                    synchronized (this) {
+                        if (length > 0) presentBlocks.set((int) ((position - 1) / BLOCK_SIZE));
+                        if (length < BLOCK_SIZE) {
+                            size = position;
+                            sequentialDownloadFinished = true;
+                        }
+                        notifyAll();
+                    }
+                    reportProgress();
+                    if (length < BLOCK_SIZE) return;
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (downloadError == null) downloadError = e;
+                    notifyAll();
+                }
+                throw e;
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        /**
+         * Waits until the blocks were downloaded sequentially. Used if the server doesn't support range requests.
+         */
+        private synchronized void waitForBlocks(int firstBlock, int lastBlock) throws IOException {
+            while (presentBlocks.nextClearBit(firstBlock) <= lastBlock) {
+                if (downloadError != null) throw downloadError;
+                if (sequentialDownloadFinished) throw new EOFException("Requested data is past the end of the document.");
+                waitForDownload();
+            }
+        }
+
+        /**
+         * Moves the completely downloaded document into the shared document cache, so it doesn't have to be downloaded again next time. Reads keep being
+         * served from the open file.
+         */
+        private void storeInCache(@NonNull File downloadedFile) {
+            final String validator;
+            synchronized (this) {
+                if (released || size == FILE_SIZE_UNKNOWN || presentBlocks.nextClearBit(0) < getBlockCount()) return;
+                validator = this.validator;
+                // From now on the file belongs to the cache.
+                workFile = null;
+            }
+            try {
+                DocumentCache.getInstance(context).moveIn(new URL(url), downloadedFile, validator);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to store downloaded document in the cache - " + e.getMessage(), e);
+                // Reads are still served from the open file.
+                //noinspection ResultOfMethodCallIgnored
+                downloadedFile.delete();
+            }
+        }
+
+        /** Returns the number of blocks of the document. Must be called while holding {@code this} and only once the size is known. */
+        private int getBlockCount() {
+            return (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        }
+
+        /** Waits until new blocks arrive or the document was opened. Must be called while holding {@code this}. */
+        private void waitForDownload() throws IOException {
+            if (released) throw new IOException("Data provider was released.");
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for download.");
+            }
+        }
+
+        private void reportProgress() {
+            final double progress;
+            synchronized (this) {
+                if (size == FILE_SIZE_UNKNOWN) return;
+                final int blockCount = getBlockCount();
+                progress = blockCount == 0 ? 1.0 : (double) presentBlocks.cardinality() / blockCount;
+            }
+            progressSubject.onNext(progress);
+        }
+
+        @NonNull
+        private HttpURLConnection openConnection() throws IOException {
+            final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            // Ranges refer to the encoded representation, so we must not let the connection decompress anything.
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            return connection;
+        }
+
+        /** Reads until {@code length} bytes were read or the stream ended and returns the number of bytes read. */
+        private static int readFully(@NonNull InputStream inputStream, @NonNull byte[] buffer, int length) throws IOException {
+            int read = 0;
+            int count;
+            while (read < length && (count = inputStream.read(buffer, read, length - read)) >= 0) {
+                read += count;
+            }
+            return read;
+        }
+
+        private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+
+        /**
+         * Parses {@code Content-Range: bytes <first>-<last>/<total>} into {@code [first, last, total]}. Parts that are missing or unknown are -1.
+         */
+        @NonNull
+        private static long[] parseContentRange(@Nullable String contentRange) {
+            final long[] range = { -1, -1, -1 };
+            if (contentRange == null) return range;
+            final String value = contentRange.trim();
+            final int dash = value.indexOf('-');
+            final int slash = value.lastIndexOf('/');
+            if (!value.startsWith("bytes ") || dash < 0 || slash < dash) return range;
+            range[0] = parseLong(value.substring("bytes ".length(), dash));
+            range[1] = parseLong(value.substring(dash + 1, slash));
+            range[2] = parseLong(value.substring(slash + 1));
+            return range;
+        }
+
+        private static long parseLong(@Nullable String value) {
+            if (value == null) return -1;
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public void release() {
+            final FileChannel file;
+            final File workFile;
+            synchronized (this) {
+                released = true;
+                file = this.file;
+                this.file = null;
+                workFile = this.workFile;
+                this.workFile = null;
+                if (sequentialConnection != null) sequentialConnection.disconnect();
+                sequentialConnection = null;
+                notifyAll();
+            }
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to close downloaded file - " + e.getMessage(), e);
+                }
+            }
+            //noinspection ResultOfMethodCallIgnored
+            if (workFile != null) workFile.delete();
+        }
+
         @Override
         public int describeContents() {
             return 0;
@@ -167,6 +652,22 @@ public class ProgressProviderExample extends PSPDFExample {
         public void writeToParcel(Parcel dest, int flags) {
             dest.writeString(url);
         }
+
+        /** Outcome of {@link #probe()}. */
+        private static final class Probe {
+            final long size;
+            final boolean rangesSupported;
+            @Nullable final String validator;
+            /** Response to keep for the sequential download, if the server sent the whole document. */
+            @Nullable final HttpURLConnection sequentialConnection;
+
+            Probe(long size, boolean rangesSupported, @Nullable String validator, @Nullable HttpURLConnection sequentialConnection) {
+                this.size = size;
+                this.rangesSupported = rangesSupported;
+                this.validator = validator;
+                this.sequentialConnection = sequentialConnection;
+            }
+        }
     }
 
     public ProgressProviderExample(Context context) {
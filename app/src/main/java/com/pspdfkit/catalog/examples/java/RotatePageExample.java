@@ -9,16 +9,14 @@ package com.pspdfkit.catalog.examples.java;
 
 import android.content.Context;
 import android.content.Intent;
-import android.net.Uri;
 import androidx.annotation.NonNull;
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration;
 import com.pspdfkit.catalog.R;
 import com.pspdfkit.catalog.PSPDFExample;
 import com.pspdfkit.catalog.examples.java.activities.RotatePageActivity;
+import com.pspdfkit.catalog.examples.java.providers.ApkAssetDataProvider;
 import com.pspdfkit.ui.PdfActivityIntentBuilder;
 
-import static com.pspdfkit.catalog.tasks.ExtractAssetTask.extract;
-
 /**
  * Simple example showing how to apply rotation to pages.
  */
@@ -35,15 +33,13 @@ public class RotatePageExample extends PSPDFExample {
         configuration.disableSearch()
             .disableOutline();
 
-        // Start the activity once the example document has been extracted from the app's assets.
-        extract(QUICK_START_GUIDE, title, context, documentFile -> {
-            final Intent intent = PdfActivityIntentBuilder.fromUri(context, Uri.fromFile(documentFile))
-                .configuration(configuration.build())
-                .activityClass(RotatePageActivity.class)
-                .build();
+        // The example document is read straight from the app's assets. It's only copied out of the APK once the rotation is saved.
+        final Intent intent = PdfActivityIntentBuilder.fromDataProvider(context, ApkAssetDataProvider.forExample(context, QUICK_START_GUIDE, title))
+            .configuration(configuration.build())
+            .activityClass(RotatePageActivity.class)
+            .build();
 
-            // Start the RotatePageActivity for the extracted document.
-            context.startActivity(intent);
-        });
+        // Start the RotatePageActivity for the bundled document.
+        context.startActivity(intent);
     }
 }
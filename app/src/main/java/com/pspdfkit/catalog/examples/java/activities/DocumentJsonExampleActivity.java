@@ -18,8 +18,8 @@ import androidx.annotation.Nullable;
 
 import com.pspdfkit.document.formatters.DocumentJsonFormatter;
 import com.pspdfkit.document.providers.DataProvider;
-import com.pspdfkit.document.providers.InputStreamDataProvider;
 import com.pspdfkit.catalog.R;
+import com.pspdfkit.catalog.examples.java.providers.CachingInputStreamDataProvider;
 import com.pspdfkit.example.utils.Utils;
 import com.pspdfkit.ui.PdfActivity;
 
@@ -149,7 +149,13 @@ public class DocumentJsonExampleActivity extends PdfActivity {
     }
 
     /** A small in-memory data provider for loading the JSON file from the external storage. */
-    private static class DocumentJsonDataProvider extends InputStreamDataProvider {
+    private static class DocumentJsonDataProvider extends CachingInputStreamDataProvider {
+
+        DocumentJsonDataProvider() {
+            // The JSON is a local file, so there's no point in spilling it to another file. Recently read segments are kept in memory.
+            super(DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_MEMORY_BYTES, 0);
+        }
+
         @NonNull
         @Override
         protected InputStream openInputStream() throws Exception {
@@ -11,16 +11,19 @@ import android.app.Activity;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.util.Log;
 import android.widget.ImageView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.pspdfkit.PSPDFKit;
+import com.pspdfkit.catalog.download.DownloadScheduler;
+import com.pspdfkit.catalog.tasks.AssetExtractionManager;
 import com.pspdfkit.catalog.tasks.ExtractAssetTask;
 import com.pspdfkit.document.ImageDocumentUtils;
 import com.pspdfkit.document.download.DownloadJob;
 import com.pspdfkit.document.download.DownloadProgressFragment;
-import com.pspdfkit.document.download.DownloadRequest;
 import com.pspdfkit.catalog.R;
 import com.pspdfkit.example.utils.Utils;
 import com.pspdfkit.ui.DocumentCoordinator;
@@ -29,6 +32,10 @@ import com.pspdfkit.ui.PdfActivity;
 import com.pspdfkit.ui.tabs.PdfTabBar;
 
 import java.io.File;
+import java.util.Arrays;
+
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
 
 import static com.pspdfkit.catalog.tasks.ExtractAssetTask.extract;
 
@@ -36,6 +43,7 @@ import static com.pspdfkit.catalog.tasks.ExtractAssetTask.extract;
  * This example activity show how to use tabs in {@link com.pspdfkit.ui.PdfActivity}.
  */
 public class DocumentTabsActivity extends PdfActivity {
+    private static final String LOG_TAG = "DocumentTabsActivity";
 
     private static final String[] assetFiles = new String[]{"Guide-v5.pdf", "Guide-v4.pdf", "Annotations.pdf"};
 
@@ -44,6 +52,8 @@ public class DocumentTabsActivity extends PdfActivity {
 
     private static final String DOWNLOAD_PROGRESS_FRAGMENT = "DownloadProgressFragment";
 
+    @Nullable private Disposable extractDocumentsDisposable;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -52,10 +62,16 @@ public class DocumentTabsActivity extends PdfActivity {
         // Tab bar will pick these documents and display tabs for them.
         final DocumentCoordinator documentCoordinator = getDocumentCoordinator();
         if (getDocument() == null && savedInstanceState == null) {
-            for (final String assetName : assetFiles) {
-                // Extract document from the app's assets and place it in the device's internal storage.
-                ExtractAssetTask.extract(assetName, assetName, this, documentFile -> documentCoordinator.addDocument(DocumentDescriptor.fromUri(Uri.fromFile(documentFile))));
-            }
+            // Extract all documents from the app's assets concurrently and place them in the device's internal storage. The tabs are added
+            // in the order of the assets once all documents are ready.
+            extractDocumentsDisposable = AssetExtractionManager.getInstance(this)
+                .extractAll(Arrays.asList(assetFiles), getString(R.string.documentTabsExampleTitle), null)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(documentFiles -> {
+                    for (File documentFile : documentFiles) {
+                        documentCoordinator.addDocument(DocumentDescriptor.fromUri(Uri.fromFile(documentFile)));
+                    }
+                }, throwable -> Log.e(LOG_TAG, "Failed to extract example documents.", throwable));
 
             // Extract image from the app's assets and place it in the device's internal storage.
             ExtractAssetTask.extract("images/android.png", "images/android.png", this,
@@ -76,6 +92,15 @@ public class DocumentTabsActivity extends PdfActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (extractDocumentsDisposable != null) {
+            extractDocumentsDisposable.dispose();
+            extractDocumentsDisposable = null;
+        }
+    }
+
     private void addNewTab() {
         // On Android 6.0+ we ask for SD card access permission. This isn't strictly necessary, but PSPDFKit
         // being able to access file directly will significantly improve performance.
@@ -128,14 +153,14 @@ public class DocumentTabsActivity extends PdfActivity {
                             DOWNLOAD_PROGRESS_FRAGMENT
                     );
                     if (downloadFragment == null) {
-                        final DownloadJob job = DownloadJob.startDownload(new DownloadRequest.Builder(this).uri(uri).build());
+                        final DownloadJob job = DownloadScheduler.getInstance(this).schedule(uri, DownloadScheduler.PRIORITY_VISIBLE);
                         downloadFragment = new DownloadProgressFragment();
                         downloadFragment.show(getSupportFragmentManager(), DOWNLOAD_PROGRESS_FRAGMENT);
                         downloadFragment.setJob(job);
                     }
 
                     // Once the download is complete we show the downloaded document in a new tab.
-                    downloadFragment.getJob().setProgressListener(new DownloadJob.ProgressListenerAdapter() {
+                    DownloadScheduler.getInstance(this).addProgressListener(downloadFragment.getJob(), this, new DownloadJob.ProgressListenerAdapter() {
                         @Override
                         public void onComplete(@NonNull File output) {
                             showDocumentInNewTab(Uri.fromFile(output), isImageFile);
@@ -14,12 +14,12 @@ import android.os.Bundle;
 import androidx.annotation.NonNull;
 import androidx.fragment.app.FragmentActivity;
 import com.pspdfkit.PSPDFKit;
+import com.pspdfkit.catalog.download.DownloadScheduler;
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration;
 import com.pspdfkit.document.ImageDocumentLoader;
 import com.pspdfkit.document.ImageDocumentUtils;
 import com.pspdfkit.document.download.DownloadJob;
 import com.pspdfkit.document.download.DownloadProgressFragment;
-import com.pspdfkit.document.download.DownloadRequest;
 import com.pspdfkit.example.utils.Utils;
 import com.pspdfkit.ui.PdfActivityIntentBuilder;
 
@@ -61,14 +61,14 @@ public class ExternalExampleActivity extends FragmentActivity {
                         DOWNLOAD_PROGRESS_FRAGMENT
                     );
                     if (downloadFragment == null) {
-                        final DownloadJob job = DownloadJob.startDownload(new DownloadRequest.Builder(this).uri(uri).build());
+                        final DownloadJob job = DownloadScheduler.getInstance(this).schedule(uri, DownloadScheduler.PRIORITY_VISIBLE);
                         downloadFragment = new DownloadProgressFragment();
                         downloadFragment.show(getSupportFragmentManager(), DOWNLOAD_PROGRESS_FRAGMENT);
                         downloadFragment.setJob(job);
                     }
 
                     // Once the download is complete we launch the PdfActivity from the downloaded file.
-                    downloadFragment.getJob().setProgressListener(new DownloadJob.ProgressListenerAdapter() {
+                    DownloadScheduler.getInstance(this).addProgressListener(downloadFragment.getJob(), this, new DownloadJob.ProgressListenerAdapter() {
                         @Override
                         public void onComplete(@NonNull File output) {
                             startActivity(createActivityIntent(Uri.fromFile(output), configuration, isImageFile));
@@ -35,18 +35,20 @@ import androidx.core.graphics.drawable.DrawableCompat;
 import com.google.android.material.snackbar.Snackbar;
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration;
 import com.pspdfkit.datastructures.Range;
-import com.pspdfkit.document.DocumentSource;
-import com.pspdfkit.document.PdfDocument;
-import com.pspdfkit.document.PdfDocumentLoader;
 import com.pspdfkit.document.library.PdfLibrary;
 import com.pspdfkit.document.library.QueryOptions;
 import com.pspdfkit.document.library.QueryPreviewResult;
 import com.pspdfkit.document.library.QueryResultListener;
 import com.pspdfkit.document.providers.AssetDataProvider;
 import com.pspdfkit.catalog.R;
+import com.pspdfkit.catalog.examples.java.fts.FullTextIndexCoordinator;
 import com.pspdfkit.example.utils.Utils;
 import com.pspdfkit.ui.PdfActivityIntentBuilder;
 import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
 
 import java.io.File;
 import java.io.IOException;
@@ -70,6 +72,11 @@ public class IndexedFullTextSearchActivity extends AppCompatActivity {
      */
     private static final String FTS_SEARCH_LIBRARY_NAME = "fts-library.db";
 
+    /**
+     * Name of the file storing the fingerprints of all indexed documents, so unchanged documents aren't indexed again.
+     */
+    private static final String FTS_FINGERPRINTS_NAME = "fts-library.fingerprints";
+
     /**
      * UI-thread handler for updating the UI from a background thread.
      */
@@ -100,6 +107,11 @@ public class IndexedFullTextSearchActivity extends AppCompatActivity {
      */
     private boolean ignoreAnnotations = false;
 
+    /**
+     * Disposable of the running index update.
+     */
+    @Nullable private Disposable indexingDisposable;
+
     /**
      * Create the Full-text search indexing library and prepare the search result list view.
      */
@@ -121,6 +133,7 @@ public class IndexedFullTextSearchActivity extends AppCompatActivity {
             Log.e(TAG, "Error while creating the FTS library database.", e);
             Toast.makeText(this, "Could not create FTS library - see logcat for error. Exiting example.", Toast.LENGTH_LONG).show();
             finish();
+            return;
         }
 
         // Prepare the list view and adapter for displaying search results.
@@ -160,7 +173,7 @@ public class IndexedFullTextSearchActivity extends AppCompatActivity {
             }
         });
 
-        // Initially trigger document indexing.
+        // Initially trigger document indexing, which only indexes documents that weren't indexed before.
         performIndexing();
     }
 
@@ -250,49 +263,43 @@ public class IndexedFullTextSearchActivity extends AppCompatActivity {
     }
 
     /**
-     * Performs indexing of all available documents in the app's assets.
+     * Brings the index up to date with all available documents in the app's assets. Only new and changed documents are indexed, so once the documents
+     * were indexed they can be searched right away.
      */
     private void performIndexing() {
-        final List<PdfDocument> indexingQueue = new ArrayList<>();
-
-        // This example always clears the FTS index, just for demo purposes. In a real-world app this is not necessary.
-        library.clearIndex();
-
-        try {
+        final FullTextIndexCoordinator coordinator = new FullTextIndexCoordinator(this, library, getDatabasePath(FTS_FINGERPRINTS_NAME));
+        indexingDisposable = Single.fromCallable(() -> {
             // List all top-level assets of the app and filter them for PDF files.
             final List<String> assets = Observable.fromArray(Objects.requireNonNull(getAssets().list("")))
                 .filter(s -> s.endsWith(".pdf"))
                 .toList()
                 .blockingGet();
-
-            // Open and collect all documents that should be indexed.
-            for (String asset : assets) {
-                try {
-                    // Try to open the document and if successful, enqueue it for indexing.
-                    final PdfDocument document = PdfDocumentLoader.openDocumentAsync(this, new DocumentSource(new AssetDataProvider(asset))).blockingGet();
-                    indexingQueue.add(document);
-
-                    // Store the asset's path and name using its UID. This allows us to retrieve the document later when a search is performed.
-                    indexedDocumentPaths.put(document.getUid(), asset);
-                } catch (Exception ex) {
-                    // This example catches any action that happens while opening the document (e.g. if a password would be needed).
-                    // If an exception is thrown, the document will not be indexed.
-                    Log.w(TAG, String.format("Could not open document '%s' from assets. See exception for reason.", asset), ex);
+            return coordinator.synchronizeAssets(assets);
+        })
+            .subscribeOn(Schedulers.io())
+            .observeOn(AndroidSchedulers.mainThread())
+            .subscribe(result -> {
+                // The asset paths are stored using the document UIDs. This allows us to retrieve the document later when a search is performed.
+                indexedDocumentPaths.putAll(result.documentPaths);
+
+                if (result.enqueuedCount > 0) {
+                    // Show to the user that indexing is in progress.
+                    progressIndicator = Snackbar.make(findViewById(android.R.id.content), "Indexing...", Snackbar.LENGTH_INDEFINITE);
+                    progressIndicator.show();
+                    scheduleProgressIndicatorUpdate();
                 }
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "Error while trying to index all catalog app assets.", e);
-            Toast.makeText(this, "Error listing asset files to index - see logcat for detailed error message.", Toast.LENGTH_LONG).show();
-        }
-
-        if (indexingQueue.size() > 0) {
-            // Start the actual document indexing.
-            library.enqueueDocuments(indexingQueue);
+            }, throwable -> {
+                Log.e(TAG, "Error while trying to index all catalog app assets.", throwable);
+                Toast.makeText(this, "Error listing asset files to index - see logcat for detailed error message.", Toast.LENGTH_LONG).show();
+            });
+    }
 
-            // Show to the user that indexing is in progress.
-            progressIndicator = Snackbar.make(findViewById(android.R.id.content), "Indexing...", Snackbar.LENGTH_INDEFINITE);
-            progressIndicator.show();
-            scheduleProgressIndicatorUpdate();
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (indexingDisposable != null) {
+            indexingDisposable.dispose();
+            indexingDisposable = null;
         }
     }
 
@@ -7,28 +7,25 @@
 
 package com.pspdfkit.catalog.examples.java.activities;
 
-import android.net.Uri;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.pspdfkit.catalog.PSPDFExample;
-import com.pspdfkit.catalog.tasks.ExtractAssetTask;
+import com.pspdfkit.catalog.examples.java.providers.ApkAssetDataProvider;
 import com.pspdfkit.configuration.PdfConfiguration;
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration;
 import com.pspdfkit.catalog.R;
+import com.pspdfkit.document.providers.DataProvider;
 import com.pspdfkit.listeners.DocumentListener;
 import com.pspdfkit.ui.PdfUiFragment;
 import com.pspdfkit.ui.PdfUiFragmentBuilder;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
-import static com.pspdfkit.catalog.tasks.ExtractAssetTask.extract;
-
-public class SplitDocumentActivity extends AppCompatActivity implements ExtractAssetTask.OnDocumentExtractedListener {
+public class SplitDocumentActivity extends AppCompatActivity {
 
     private List<DocumentListener> listeners = new ArrayList<>(2);
 
@@ -39,28 +36,20 @@ public class SplitDocumentActivity extends AppCompatActivity implements ExtractA
         // Set the custom activity layout which is going to hold our side-by-side fragments.
         setContentView(R.layout.activity_split_document);
 
-        // This example uses a PDF document from the app's assets. Before loading it to the fragments we extract it
-        // to the internal device storage.
-        ExtractAssetTask.extract(PSPDFExample.QUICK_START_GUIDE, getString(R.string.splitDocumentExampleTitle), this, this);
-    }
+        // This example reads the PDF document straight from the app's assets, so both fragments can be set up right away.
+        final ApkAssetDataProvider dataProvider =
+            ApkAssetDataProvider.forExample(this, PSPDFExample.QUICK_START_GUIDE, getString(R.string.splitDocumentExampleTitle));
 
-    /**
-     * This method is called after {@link ExtractAssetTask} has prepared the example's PDF document. Here we set up our
-     * two fragments.
-     */
-    @Override
-    public void onDocumentExtracted(@NonNull File documentFile) {
         // We create a plain configuration, providing our license, but without any specific settings.
         final PdfConfiguration configuration = new PdfConfiguration.Builder().build();
-        final Uri documentUri = Uri.fromFile(documentFile);
 
-        setupFragment(R.id.fragmentContainer1, configuration, documentUri, "PdfViewer1");
-        setupFragment(R.id.fragmentContainer2, configuration, documentUri, "PdfViewer2");
+        setupFragment(R.id.fragmentContainer1, configuration, dataProvider, "PdfViewer1");
+        setupFragment(R.id.fragmentContainer2, configuration, dataProvider, "PdfViewer2");
     }
 
     private void setupFragment(int fragmentContainerId,
                                final PdfConfiguration configuration,
-                               Uri documentUri,
+                               @NonNull DataProvider dataProvider,
                                @NonNull String pdfFragmentTag) {
         // Check if the fragment already exists in our layout, using the given fragmentContainerId. This is the case if the
         // activity was recreated (e.g. due to an orientation change).
@@ -68,7 +57,7 @@ public class SplitDocumentActivity extends AppCompatActivity implements ExtractA
 
         // If no fragment was found in the layout we create a new one and place it in the layout.
         if (fragment == null) {
-            fragment = PdfUiFragmentBuilder.fromUri(this, documentUri)
+            fragment = PdfUiFragmentBuilder.fromDataProvider(this, dataProvider)
                 .configuration(new PdfActivityConfiguration.Builder(this).configuration(configuration).build())
                 .pdfFragmentTag(pdfFragmentTag)
                 .build();
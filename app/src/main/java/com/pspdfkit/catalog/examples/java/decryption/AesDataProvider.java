@@ -14,33 +14,43 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.pspdfkit.document.providers.WritableDataProvider;
 
 import java.io.Closeable;
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
-import java.util.Arrays;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
- * This is a DataProvider that will open and decrypt an AES256-CTR encrypted file on the fly. It won't store decrypted blocks anywhere and allows
- * random seeking to prevent large PDF files from causing OutOfMemoryExceptions.
+ * This is a DataProvider that will open and decrypt an AES256-CTR encrypted file on the fly. It only keeps a small, bounded cache of recently decrypted
+ * chunks in memory and allows random seeking to prevent large PDF files from causing OutOfMemoryExceptions.
  * <p>
  * The file itself has a 16-byte IV (also called nonce) prepended before the actual encrypted payload. This serves as the initialization vector for decrypting
  * the first byte. Subsequent bytes use an incremented IV, for example block n uses IV+n.
+ * <p>
+ * By default every reading thread opens its own file handle. Alternatively the encrypted file can be memory mapped once and decrypted straight out of
+ * the mapping, see {@link #AesDataProvider(String, String, boolean)}.
  */
 public class AesDataProvider implements WritableDataProvider, Parcelable {
     public static final Creator<AesDataProvider> CREATOR = new Creator<AesDataProvider>() {
@@ -59,28 +69,101 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
     private static final int IV_SIZE = 16;
     private static final int FILE_SIZE_NOT_SET = -1;
 
+    /** Size of the decrypted chunks kept in the cache. This has to be a multiple of {@link #AES_BLOCK_SIZE}. */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    /** Maximum number of decrypted chunks kept in memory (4 MiB in total). */
+    private static final int MAX_CACHED_CHUNKS = 64;
+    /** Reads larger than this (e.g. embedded images) would evict most of the cache, so they are decrypted directly instead. */
+    private static final int MAX_CACHED_READ_SIZE = 1024 * 1024;
+    /** Size of the reusable buffers of each read lease. A whole chunk fits, and it has to be a multiple of {@link #AES_BLOCK_SIZE}. */
+    private static final int READ_BUFFER_SIZE = CHUNK_SIZE;
+    /** Read leases that weren't used for this long are closed, freeing their file descriptor and buffers. */
+    private static final long READ_LEASE_MAX_IDLE_MILLIS = 30_000;
+    /** Reads of at least this size are split into segments that are decrypted in parallel, see {@link #setParallelDecryptionThreshold(int)}. */
+    public static final int DEFAULT_PARALLEL_DECRYPTION_THRESHOLD = 2 * 1024 * 1024;
+    /** Number of consecutive forward reads after which the following chunks are decrypted ahead of time. */
+    private static final int READ_AHEAD_TRIGGER_READS = 3;
+    /** Number of chunks decrypted ahead of a sequential reader (256 KiB). */
+    private static final int READ_AHEAD_WINDOW_CHUNKS = 4;
+    /** Data passed to {@link #write(byte[])} is encrypted and written in batches of this size. It has to be a multiple of {@link #AES_BLOCK_SIZE}. */
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
     @NonNull private final File encryptedFile;
     @NonNull private byte[] encryptedFileKey;
+    /** Key spec for {@link #encryptedFileKey}, created once and shared by all ciphers. */
+    @NonNull private final SecretKeySpec encryptionKeySpec;
     private long decryptedFileSize = FILE_SIZE_NOT_SET;
 
-    @Nullable private byte[] encryptedFileIv = null;
+    @Nullable private volatile byte[] encryptedFileIv = null;
+
+    /** Whether the encrypted file is read through {@link #mapping} instead of per-thread file channels. */
+    private final boolean memoryMapped;
+    /** Mapping of the encrypted file in memory mapped mode. It is dropped when the files are closed and re-created on the next read. */
+    @Nullable private volatile EncryptedFileMapping mapping = null;
 
     private File temporaryOutputFile;
-    private FileOutputStream fos;
-    private CipherOutputStream cos;
-
-    // Per Thread Data - When multi threaded rendering is activated read() can be called from multiple threads at the
-    // same time. In order to support this we store everything we need for reading on a per thread basis, otherwise
-    // conflicts might lead to an exception being thrown.
-    // We don't use ThreadLocal here as we need to be able clean everything from a single thread.
-    // This is open file information per thread.
-    @NonNull private final ConcurrentHashMap<Thread, RandomAccessFile> openFileHandles = new ConcurrentHashMap<>();
-    // We also need a Cipher for every thread.
-    @NonNull private final ConcurrentHashMap<Thread, Cipher> aesCipherMap = new ConcurrentHashMap<>();
+    /** Channel the encrypted output is written to while saving. */
+    @Nullable private FileChannel writeChannel;
+    /** Cipher encrypting the output while saving. */
+    @Nullable private Cipher writeCipher;
+    // The PDF writer passes lots of small chunks to write(). They are collected in writeBuffer and encrypted into
+    // encryptedWriteBuffer in large batches, so each batch needs only one cipher update and one write call.
+    // Both buffers are kept for the next save.
+    @Nullable private ByteBuffer writeBuffer;
+    @Nullable private ByteBuffer encryptedWriteBuffer;
+    /** Length of the encrypted file before appending started, or {@link #FILE_SIZE_NOT_SET} if the current write rewrites the whole file. */
+    private long appendStartLength = FILE_SIZE_NOT_SET;
+
+    // When multi threaded rendering is activated read() can be called from multiple threads at the same time. Each read
+    // therefore acquires a lease holding an open file channel (unless the file is memory mapped), a Cipher and the buffers
+    // used for decrypting, and hands it back afterwards. Leases aren't tied to threads, so the number of open file
+    // descriptors stays bounded even if the reading threads come and go.
+    private final int maxConcurrentReads;
+    @NonNull private final AesReadLeasePool readLeasePool;
+
+    // CTR mode can decrypt any block on its own, so large reads (e.g. embedded image streams) are split into block aligned
+    // segments that are decrypted concurrently, each with its own lease and counter.
+    private volatile int parallelDecryptionThreshold = DEFAULT_PARALLEL_DECRYPTION_THRESHOLD;
+    /** Number of segments large reads are split into. Reads are decrypted on the calling thread if this is less than 2. */
+    private volatile int parallelSegmentCount;
+
+    // The renderer reads the same regions (xref, fonts, page objects) over and over again, so we keep the most recently
+    // decrypted chunks around. Re-rendering a page that was already visited won't need any decryption this way.
+    @NonNull private final DecryptedChunkCache chunkCache = new DecryptedChunkCache(CHUNK_SIZE, MAX_CACHED_CHUNKS);
+
+    // Linear scans (indexing, processing) read the file front to back. Once this pattern is detected, the next chunks are
+    // decrypted in the background so the reader doesn't have to wait for them.
+    @NonNull private final SequentialReadAhead readAhead =
+        new SequentialReadAhead(CHUNK_SIZE, READ_AHEAD_TRIGGER_READS, READ_AHEAD_WINDOW_CHUNKS, 2 * READ_AHEAD_WINDOW_CHUNKS);
 
     public AesDataProvider(@NonNull String encryptedFilePath, @NonNull String base64Aes256Key) {
-        encryptedFile = new File(encryptedFilePath);
-        encryptedFileKey = Base64.decode(base64Aes256Key, Base64.DEFAULT);
+        this(encryptedFilePath, base64Aes256Key, false);
+    }
+
+    public AesDataProvider(@NonNull String encryptedFilePath, @NonNull String base64Aes256Key, boolean memoryMapped) {
+        this(encryptedFilePath, base64Aes256Key, memoryMapped, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param memoryMapped       {@code true} to map the encrypted file into memory and decrypt straight out of the mapping. This saves a file descriptor
+     *                           and read calls per rendering thread, at the cost of address space for the whole file.
+     * @param maxConcurrentReads Maximum number of reads running at the same time, and thus the maximum number of open file descriptors. This should
+     *                           match the rendering parallelism, by default it's the number of CPU cores.
+     */
+    public AesDataProvider(@NonNull String encryptedFilePath, @NonNull String base64Aes256Key, boolean memoryMapped, int maxConcurrentReads) {
+        this(new File(encryptedFilePath), Base64.decode(base64Aes256Key, Base64.DEFAULT), memoryMapped, maxConcurrentReads);
+    }
+
+    @VisibleForTesting
+    AesDataProvider(@NonNull File encryptedFile, @NonNull byte[] aes256Key, boolean memoryMapped, int maxConcurrentReads) {
+        if (maxConcurrentReads < 1) throw new IllegalArgumentException("maxConcurrentReads must be at least 1.");
+        this.encryptedFile = encryptedFile;
+        encryptedFileKey = aes256Key;
+        encryptionKeySpec = new SecretKeySpec(encryptedFileKey, "AES");
+        this.memoryMapped = memoryMapped;
+        this.maxConcurrentReads = maxConcurrentReads;
+        parallelSegmentCount = Math.min(DecryptionExecutor.PARALLELISM, maxConcurrentReads);
+        readLeasePool = new AesReadLeasePool(maxConcurrentReads, READ_LEASE_MAX_IDLE_MILLIS, this::createReadLease);
     }
 
     /**
@@ -92,68 +175,105 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
     private AesDataProvider(Parcel in) {
         encryptedFile = new File(in.readString());
         encryptedFileKey = in.createByteArray();
+        encryptionKeySpec = new SecretKeySpec(encryptedFileKey, "AES");
+        memoryMapped = in.readInt() == 1;
+        maxConcurrentReads = in.readInt();
+        parallelDecryptionThreshold = in.readInt();
+        parallelSegmentCount = Math.min(DecryptionExecutor.PARALLELISM, maxConcurrentReads);
+        readLeasePool = new AesReadLeasePool(maxConcurrentReads, READ_LEASE_MAX_IDLE_MILLIS, this::createReadLease);
     }
 
     /**
      * In AES-CTR mode, each AES block is encrypted with a key and IV. IV is incremented by number 1 for each next block,
-     * so to figure out the IV for block N, we need to add N to the initial IV. Only lower four bytes of IV can change like this.
+     * so to figure out the IV for block N, we need to add N to the initial IV. The whole IV is treated as a 128-bit big-endian counter,
+     * just like the cipher does when it moves from one block to the next.
      */
-    private static byte[] getIvForBlock(byte[] originalIv, long block) {
-        long counter = ((long) originalIv[12] << 24 & 0xFF000000) |
-            ((long) originalIv[13] << 16) & 0xFF0000 |
-            ((long) originalIv[14] << 8) & 0xFF00 |
-            ((long) originalIv[15] & 0xFF);
-        counter += block;
-
-        byte[] iv = Arrays.copyOf(originalIv, 16);
-        iv[12] = (byte) ((counter >> 24) & 0xFF);
-        iv[13] = (byte) ((counter >> 16) & 0xFF);
-        iv[14] = (byte) ((counter >> 8) & 0xFF);
-        iv[15] = (byte) (counter & 0xFF);
-        return iv;
+    private static void getIvForBlock(@NonNull byte[] originalIv, long block, @NonNull byte[] iv) {
+        long carry = block;
+        for (int i = IV_SIZE - 1; i >= 0; i--) {
+            final long sum = (originalIv[i] & 0xFF) + (carry & 0xFF);
+            iv[i] = (byte) sum;
+            carry = (carry >>> 8) + (sum >>> 8);
+        }
     }
 
     /**
-     * This opens the file and reads the IV if it wasn't read yet. Every thread calling this gets its own
-     * RandomAccessFile.
+     * Creates a new read lease for {@link #readLeasePool}, opening the file and reading the IV if this wasn't done yet.
      */
-    private RandomAccessFile openFile() throws IOException {
-        if (openFileHandles.containsKey(Thread.currentThread())) {
-            return openFileHandles.get(Thread.currentThread());
-        } else {
-            RandomAccessFile file = new RandomAccessFile(encryptedFile, "r");
+    @NonNull
+    private AesReadLease createReadLease() throws IOException {
+        if (memoryMapped) {
+            getMapping();
+            try {
+                return new AesReadLease(null, Cipher.getInstance("AES/CTR/NoPadding"), READ_BUFFER_SIZE, IV_SIZE);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("This device does not support AES-CTR!");
+            }
+        }
 
+        final AesReadLease lease;
+        final FileChannel channel = new RandomAccessFile(encryptedFile, "r").getChannel();
+        try {
             if (encryptedFileIv == null) {
                 synchronized (this) {
                     if (encryptedFileIv == null) {
                         // Encrypted file IV is stored at the beginning of the file, read it.
-                        encryptedFileIv = new byte[16];
-                        file.read(encryptedFileIv, 0, 16);
+                        final byte[] iv = new byte[IV_SIZE];
+                        readFully(channel, ByteBuffer.wrap(iv), 0);
 
-                        decryptedFileSize = file.length() - IV_SIZE; // Don't take saved IV into account.
+                        decryptedFileSize = channel.size() - IV_SIZE; // Don't take saved IV into account.
+                        encryptedFileIv = iv;
                     }
                 }
             }
+            lease = new AesReadLease(channel, Cipher.getInstance("AES/CTR/NoPadding"), READ_BUFFER_SIZE, IV_SIZE);
+        } catch (GeneralSecurityException e) {
+            channel.close();
+            throw new IOException("This device does not support AES-CTR!");
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
 
-            Log.i(LOG_TAG, "Opened encrypted file " + encryptedFile.getAbsolutePath() + " size " + decryptedFileSize);
-            openFileHandles.put(Thread.currentThread(), file);
-            return file;
+        Log.i(LOG_TAG, "Opened encrypted file " + encryptedFile.getAbsolutePath() + " size " + decryptedFileSize);
+        return lease;
+    }
+
+    /**
+     * Returns the memory mapping of the encrypted file, mapping it and reading the IV if this wasn't done yet.
+     */
+    @NonNull
+    private EncryptedFileMapping getMapping() throws IOException {
+        EncryptedFileMapping mapping = this.mapping;
+        if (mapping != null) return mapping;
+
+        synchronized (this) {
+            mapping = this.mapping;
+            if (mapping == null) {
+                mapping = EncryptedFileMapping.map(encryptedFile);
+                if (encryptedFileIv == null) {
+                    // Encrypted file IV is stored at the beginning of the file, read it.
+                    final byte[] iv = new byte[IV_SIZE];
+                    mapping.get(0, iv);
+
+                    decryptedFileSize = mapping.size() - IV_SIZE; // Don't take saved IV into account.
+                    encryptedFileIv = iv;
+                }
+                this.mapping = mapping;
+                Log.i(LOG_TAG, "Mapped encrypted file " + encryptedFile.getAbsolutePath() + " size " + decryptedFileSize);
+            }
         }
+        return mapping;
     }
 
     /**
-     * Creates a Cipher set up for decrypting. Every thread calling this gets its own Cipher.
+     * Fills the remaining space of {@code buffer} with data of {@code channel} starting at {@code position}.
      */
-    private Cipher getCipher() throws IOException {
-        if (aesCipherMap.containsKey(Thread.currentThread())) {
-            return aesCipherMap.get(Thread.currentThread());
-        } else {
-            try {
-                Cipher aesCipher = Cipher.getInstance("AES/CTR/NoPadding");
-                aesCipherMap.put(Thread.currentThread(), aesCipher);
-                return aesCipher;
-            } catch (GeneralSecurityException e) {
-                throw new IOException("This device does not support AES-CTR!");
+    private static void readFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position) throws IOException {
+        final long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of encrypted file.");
             }
         }
     }
@@ -162,38 +282,28 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
     @Override
     public byte[] read(long size, long offset) {
         try {
-            // Grab the thread specific data needed for reading.
-            RandomAccessFile file = openFile();
-            Cipher aesCipher = getCipher();
-
-            // AES is encrypted in 16B blocks which are the minimum we can read. So here we need to figure out which block the offset falls in and start
-            // decryption there.
-            long block = offset / AES_BLOCK_SIZE;
-
-            // Each block has different IV, so we need to calculate the IV of the first block to start decrypting.
-            IvParameterSpec ivParameterSpec = new IvParameterSpec(getIvForBlock(encryptedFileIv, block));
-            aesCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(encryptedFileKey, "AES"), ivParameterSpec);
-
-            // Figure out the location of the encrypted block inside the file - we need to add 16 to offset because we stored IV at the beginning of the file.
-            long seekPos = (block * AES_BLOCK_SIZE) + IV_SIZE;
-            file.seek(seekPos);
-
-            // Initialize cipher stream from the set file location.
-            final CipherInputStream cis = new CipherInputStream(Channels.newInputStream(file.getChannel()), aesCipher);
-
-            // On some devices (primarily Samsung) CipherInputStream implementations suffer from a bug that stops reading early once an internal buffer is hit.
-            // Wrapping the cipher stream into a DataInputStream allows to reliably read the entire chunk that was requested.
-            DataInputStream input = new DataInputStream(cis);
-
-            // Since we had to start on an AES block boundary, skip bytes which may not align with it.
-            int toSkip = (int) (offset % AES_BLOCK_SIZE);
-            while (toSkip > 0) {
-                toSkip -= input.skip(toSkip);
+            if (size > MAX_CACHED_READ_SIZE) {
+                final byte[] decryptedData = decrypt((int) size, offset);
+                scheduleReadAhead(offset, size);
+                return decryptedData;
             }
 
-            // Read and decrypt data into the byte array.
-            byte[] decryptedData = new byte[(int) size];
-            input.readFully(decryptedData);
+            // Assemble the requested range from decrypted chunks, decrypting only those chunks that aren't cached yet.
+            final byte[] decryptedData = new byte[(int) size];
+            int copied = 0;
+            while (copied < decryptedData.length) {
+                final long position = offset + copied;
+                final long chunkIndex = position / CHUNK_SIZE;
+                final byte[] chunk = getChunk(chunkIndex);
+                final int positionInChunk = (int) (position - chunkIndex * CHUNK_SIZE);
+                final int length = Math.min(chunk.length - positionInChunk, decryptedData.length - copied);
+                if (length <= 0) {
+                    throw new EOFException("Tried to read past the end of " + encryptedFile.getAbsolutePath());
+                }
+                System.arraycopy(chunk, positionInChunk, decryptedData, copied, length);
+                copied += length;
+            }
+            scheduleReadAhead(offset, size);
             return decryptedData;
         } catch (GeneralSecurityException | IOException e) {
             Log.e(LOG_TAG, "Crypto exception: " + e.getMessage(), e);
@@ -204,6 +314,265 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
         }
     }
 
+    /**
+     * Returns the decrypted chunk with the given index, either from the cache or by decrypting it. The last chunk of the file may be shorter than
+     * {@link #CHUNK_SIZE}, chunks past the end of the file are empty.
+     */
+    @NonNull
+    private byte[] getChunk(long chunkIndex) throws IOException, GeneralSecurityException {
+        byte[] chunk = chunkCache.get(chunkIndex);
+        if (chunk != null) return chunk;
+
+        final int generation = chunkCache.getGeneration();
+        chunk = readAhead.take(chunkIndex);
+        if (chunk != null) {
+            chunkCache.put(chunkIndex, chunk, generation);
+            return chunk;
+        }
+
+        final long chunkOffset = chunkIndex * CHUNK_SIZE;
+        final long chunkLength = Math.min(CHUNK_SIZE, getSize() - chunkOffset);
+        if (chunkLength <= 0) return new byte[0];
+
+        chunk = new byte[(int) chunkLength];
+        decrypt(chunkOffset, chunk, 0, chunk.length);
+        chunkCache.put(chunkIndex, chunk, generation);
+        return chunk;
+    }
+
+    /**
+     * Records the read for access pattern detection and, if the file is read sequentially, decrypts the chunks following this read in the background.
+     */
+    private void scheduleReadAhead(long offset, long size) {
+        final long firstChunk = readAhead.onRead(offset, size);
+        if (firstChunk < 0) return;
+
+        final long fileSize = getSize();
+        final int generation = readAhead.getGeneration();
+        for (long chunkIndex = firstChunk; chunkIndex < firstChunk + readAhead.getWindowChunks(); chunkIndex++) {
+            final long chunkOffset = chunkIndex * CHUNK_SIZE;
+            if (chunkOffset >= fileSize) break;
+            if (chunkCache.contains(chunkIndex) || !readAhead.startPrefetch(chunkIndex)) continue;
+
+            final long prefetchedChunkIndex = chunkIndex;
+            final byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, fileSize - chunkOffset)];
+            DecryptionExecutor.INSTANCE.execute(() -> {
+                try {
+                    decrypt(chunkOffset, chunk, 0, chunk.length);
+                    readAhead.finishPrefetch(prefetchedChunkIndex, chunk, generation);
+                } catch (Exception e) {
+                    Log.w(LOG_TAG, "Read-ahead failed - " + e.getMessage(), e);
+                    readAhead.finishPrefetch(prefetchedChunkIndex, null, generation);
+                }
+            });
+        }
+    }
+
+    /**
+     * Decrypts {@code size} bytes starting at {@code offset} of the decrypted file. Reads above the parallel decryption threshold are decrypted
+     * concurrently.
+     */
+    @NonNull
+    private byte[] decrypt(int size, long offset) throws IOException, GeneralSecurityException {
+        final byte[] decryptedData = new byte[size];
+        if (size >= parallelDecryptionThreshold) {
+            decryptInParallel(offset, decryptedData);
+        } else {
+            decrypt(offset, decryptedData, 0, size);
+        }
+        return decryptedData;
+    }
+
+    /**
+     * Splits the range into one segment per core and decrypts the segments concurrently on {@link DecryptionExecutor}. All segment boundaries except
+     * {@code offset} are block aligned, so every segment starts its own counter at the IV of its first block. The calling thread decrypts the first
+     * segment itself.
+     */
+    private void decryptInParallel(long offset, @NonNull byte[] destination) throws IOException, GeneralSecurityException {
+        final int segmentCount = parallelSegmentCount;
+        if (segmentCount < 2) {
+            decrypt(offset, destination, 0, destination.length);
+            return;
+        }
+
+        final long[] boundaries = getSegmentBoundaries(offset, destination.length, segmentCount);
+        final List<Future<Void>> segments = new ArrayList<>(segmentCount - 1);
+        try {
+            for (int i = 1; i < segmentCount; i++) {
+                final long segmentStart = boundaries[i];
+                final long segmentEnd = boundaries[i + 1];
+                if (segmentStart == segmentEnd) continue;
+                segments.add(DecryptionExecutor.INSTANCE.submit(() -> {
+                    decrypt(segmentStart, destination, (int) (segmentStart - offset), (int) (segmentEnd - segmentStart));
+                    return null;
+                }));
+            }
+
+            decrypt(offset, destination, 0, (int) (boundaries[1] - offset));
+
+            for (Future<Void> segment : segments) {
+                segment.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decrypting " + encryptedFile.getAbsolutePath());
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof GeneralSecurityException) throw (GeneralSecurityException) cause;
+            throw new IOException("Parallel decryption failed.", cause);
+        } finally {
+            for (Future<Void> segment : segments) {
+                segment.cancel(false);
+            }
+        }
+    }
+
+    /** Overrides the number of segments large reads are split into, which is the number of cores by default. */
+    @VisibleForTesting
+    void setParallelSegmentCount(int parallelSegmentCount) {
+        this.parallelSegmentCount = parallelSegmentCount;
+    }
+
+    /**
+     * Splits {@code length} bytes starting at {@code offset} into {@code segmentCount} segments for {@link #decryptInParallel(long, byte[])}. Segment
+     * {@code i} covers {@code [boundaries[i], boundaries[i + 1])}. Inner boundaries are rounded down to the block they fall in, trailing segments may be
+     * empty.
+     */
+    @NonNull
+    @VisibleForTesting
+    static long[] getSegmentBoundaries(long offset, int length, int segmentCount) {
+        final long segmentSize = ((long) length / segmentCount / AES_BLOCK_SIZE + 1) * AES_BLOCK_SIZE;
+        final long[] boundaries = new long[segmentCount + 1];
+        boundaries[0] = offset;
+        boundaries[segmentCount] = offset + length;
+        for (int i = 1; i < segmentCount; i++) {
+            boundaries[i] = Math.min(boundaries[segmentCount], (offset + i * segmentSize) / AES_BLOCK_SIZE * AES_BLOCK_SIZE);
+        }
+        return boundaries;
+    }
+
+    /**
+     * Decrypts {@code length} bytes starting at {@code offset} of the decrypted file into {@code destination}. Encrypted data is read with positional
+     * reads into the direct buffers of a read lease (or taken straight from the memory mapping) and decrypted there, so apart from the IV spec nothing
+     * gets allocated.
+     */
+    private void decrypt(long offset, @NonNull byte[] destination, int destinationOffset, int length) throws IOException, GeneralSecurityException {
+        final AesReadLease lease = readLeasePool.acquire();
+        try {
+            decrypt(lease, offset, destination, destinationOffset, length);
+        } finally {
+            readLeasePool.release(lease);
+        }
+    }
+
+    private void decrypt(@NonNull AesReadLease lease,
+                         long offset,
+                         @NonNull byte[] destination,
+                         int destinationOffset,
+                         int length) throws IOException, GeneralSecurityException {
+        final EncryptedFileMapping mapping = memoryMapped ? getMapping() : null;
+        final byte[] iv = encryptedFileIv;
+        if (iv == null) throw new IOException("Encrypted file was closed while reading.");
+
+        // AES is encrypted in 16B blocks which are the minimum we can read. So here we need to figure out which block the offset falls in and start
+        // decryption there. Bytes of the first block that precede the offset are simply dropped from the decrypted output.
+        final long block = offset / AES_BLOCK_SIZE;
+        int leadingBytes = (int) (offset - block * AES_BLOCK_SIZE);
+
+        // Each block has different IV, so we need to calculate the IV of the first block to start decrypting.
+        getIvForBlock(iv, block, lease.iv);
+        lease.cipher.init(Cipher.DECRYPT_MODE, encryptionKeySpec, new IvParameterSpec(lease.iv));
+
+        // Figure out the location of the encrypted block inside the file - we need to add 16 to offset because we stored IV at the beginning of the file.
+        long position = (block * AES_BLOCK_SIZE) + IV_SIZE;
+        int written = 0;
+        while (written < length) {
+            final int remaining = leadingBytes + length - written;
+            final ByteBuffer encrypted;
+            if (mapping != null) {
+                encrypted = mapping.slice(position, Math.min(remaining, READ_BUFFER_SIZE));
+            } else {
+                encrypted = lease.encryptedBuffer;
+                encrypted.clear();
+                encrypted.limit(Math.min(remaining, READ_BUFFER_SIZE));
+                readFully(lease.channel, encrypted, position);
+                encrypted.flip();
+            }
+            final boolean lastSegment = encrypted.remaining() == remaining;
+            position += encrypted.remaining();
+
+            // All segments but the last are block aligned, so the cipher keeps counting from where the previous segment ended.
+            final ByteBuffer decrypted = lease.decryptedBuffer;
+            decrypted.clear();
+            if (lastSegment) {
+                lease.cipher.doFinal(encrypted, decrypted);
+            } else {
+                lease.cipher.update(encrypted, decrypted);
+            }
+            decrypted.flip();
+            decrypted.position(leadingBytes);
+            leadingBytes = 0;
+
+            final int count = decrypted.remaining();
+            decrypted.get(destination, destinationOffset + written, count);
+            written += count;
+        }
+    }
+
+    /**
+     * Sets the read size from which on reads are split into segments that are decrypted in parallel. Use {@link Integer#MAX_VALUE} to always decrypt on
+     * the calling thread.
+     */
+    public void setParallelDecryptionThreshold(int parallelDecryptionThreshold) {
+        this.parallelDecryptionThreshold = parallelDecryptionThreshold;
+    }
+
+    /** Returns the number of currently open read leases. Without memory mapping, each of them holds an open file descriptor. */
+    public int getOpenReadLeaseCount() {
+        return readLeasePool.getOpenLeaseCount();
+    }
+
+    /** Returns how many read leases were created, including those that were closed again in the meantime. */
+    public long getCreatedReadLeaseCount() {
+        return readLeasePool.getCreatedLeaseCount();
+    }
+
+    /** Returns how many read leases were closed after being idle for too long. */
+    public long getEvictedReadLeaseCount() {
+        return readLeasePool.getEvictedLeaseCount();
+    }
+
+    /** Returns how often a read had to wait because {@code maxConcurrentReads} reads were already running. */
+    public long getReadLeaseWaitCount() {
+        return readLeasePool.getWaitCount();
+    }
+
+    /** Returns how many bytes were decrypted ahead of sequential reads. */
+    public long getReadAheadPrefetchedBytes() {
+        return readAhead.getPrefetchedBytes();
+    }
+
+    /** Returns how many bytes decrypted ahead of time were actually read. Divide by {@link #getReadAheadPrefetchedBytes()} for the hit rate. */
+    public long getReadAheadHitBytes() {
+        return readAhead.getHitBytes();
+    }
+
+    /** Returns how many bytes decrypted ahead of time were dropped without being read. */
+    public long getReadAheadWastedBytes() {
+        return readAhead.getWastedBytes();
+    }
+
+    /** Returns how many chunk lookups could be served from the decrypted chunk cache. */
+    public long getCacheHitCount() {
+        return chunkCache.getHitCount();
+    }
+
+    /** Returns how many chunk lookups required decrypting the chunk from the file. */
+    public long getCacheMissCount() {
+        return chunkCache.getMissCount();
+    }
+
     /**
      * PSPDFKit expects size of decrypted PDF here.
      */
@@ -213,7 +582,7 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
             // Initialize the size the first time it's needed.
             // We do it as late as possible since right after saving the size sometimes isn't updated yet.
             try {
-                openFile();
+                readLeasePool.release(readLeasePool.acquire());
             } catch (IOException e) {
                 decryptedFileSize = encryptedFile.length() - IV_SIZE;
             }
@@ -244,11 +613,10 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
     }
 
     private void closeFiles() throws IOException {
-        for (RandomAccessFile file : openFileHandles.values()) {
-            file.close();
-        }
-        openFileHandles.clear();
-        aesCipherMap.clear();
+        readLeasePool.closeAll();
+        mapping = null;
+        chunkCache.clear();
+        readAhead.clear();
     }
 
     @Override
@@ -264,8 +632,7 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
 
     @Override
     public boolean startWrite(WriteMode writeMode) {
-        // We return "supportsAppending()" as "false" so this shouldn't happen.
-        if (writeMode == WriteMode.APPEND_TO_FILE) throw new IllegalArgumentException("Appending isn't supported by this provider.");
+        if (writeMode == WriteMode.APPEND_TO_FILE) return startAppending();
 
         // We need to save information into a temporary file since input file will probably be read as saving is in progress.
         temporaryOutputFile = new File(encryptedFile.getParent(), "tmp-write.pdf");
@@ -277,17 +644,18 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
 
         try {
             // Write IV at the start of file just like we had at the input.
-            fos = new FileOutputStream(temporaryOutputFile);
-            fos.write(outputAesIv);
+            writeChannel = new FileOutputStream(temporaryOutputFile).getChannel();
+            writeFully(writeChannel, ByteBuffer.wrap(outputAesIv));
 
             // Setup encryption - use same key as for the input.
             Cipher c = Cipher.getInstance("AES/CTR/NoPadding");
             IvParameterSpec ivSpec = new IvParameterSpec(outputAesIv);
-            SecretKeySpec outputKey = new SecretKeySpec(encryptedFileKey, "AES");
-            c.init(Cipher.ENCRYPT_MODE, outputKey, ivSpec);
-            cos = new CipherOutputStream(fos, c);
+            c.init(Cipher.ENCRYPT_MODE, encryptionKeySpec, ivSpec);
+            startWriting(c);
         } catch (IOException | GeneralSecurityException e) {
             Log.e(LOG_TAG, "Failed to open file for writing - " + e.getMessage(), e);
+            safelyClose(writeChannel);
+            writeChannel = null;
             return false;
         }
 
@@ -295,11 +663,69 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
         return true;
     }
 
+    /**
+     * Prepares appending to the existing encrypted file. In CTR mode each byte is simply XORed with the key stream, so we can continue the key stream
+     * right where the existing data ends: the counter of the block containing the end offset is IV + block, and if the last block is only partially
+     * filled, the part of the key stream that was already used for it is skipped.
+     */
+    private boolean startAppending() {
+        try {
+            // Make sure the IV of the existing file has been read.
+            readLeasePool.release(readLeasePool.acquire());
+            final byte[] iv = encryptedFileIv;
+            if (iv == null) throw new IOException("Could not read the IV of " + encryptedFile.getAbsolutePath());
+
+            appendStartLength = encryptedFile.length();
+            final long appendOffset = appendStartLength - IV_SIZE;
+            final byte[] blockIv = new byte[IV_SIZE];
+            getIvForBlock(iv, appendOffset / AES_BLOCK_SIZE, blockIv);
+
+            Cipher c = Cipher.getInstance("AES/CTR/NoPadding");
+            c.init(Cipher.ENCRYPT_MODE, encryptionKeySpec, new IvParameterSpec(blockIv));
+            final int usedKeyStreamBytes = (int) (appendOffset % AES_BLOCK_SIZE);
+            if (usedKeyStreamBytes > 0) {
+                c.update(new byte[usedKeyStreamBytes]);
+            }
+
+            writeChannel = new FileOutputStream(encryptedFile, true).getChannel();
+            startWriting(c);
+        } catch (IOException | GeneralSecurityException e) {
+            Log.e(LOG_TAG, "Failed to open file for appending - " + e.getMessage(), e);
+            safelyClose(writeChannel);
+            writeChannel = null;
+            appendStartLength = FILE_SIZE_NOT_SET;
+            return false;
+        }
+
+        Log.i(LOG_TAG, "Appending changes to " + encryptedFile.getName() + " at offset " + (appendStartLength - IV_SIZE));
+        return true;
+    }
+
+    /**
+     * Sets up the write buffers for a new save using the given, already initialized cipher.
+     */
+    private void startWriting(@NonNull Cipher cipher) {
+        writeCipher = cipher;
+        if (writeBuffer == null || encryptedWriteBuffer == null) {
+            writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            encryptedWriteBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        }
+        writeBuffer.clear();
+    }
+
     @Override
     public boolean write(byte[] data) {
+        final ByteBuffer buffer = writeBuffer;
+        if (buffer == null || writeCipher == null) return false;
         try {
-            cos.write(data);
-        } catch (IOException e) {
+            int written = 0;
+            while (written < data.length) {
+                final int count = Math.min(buffer.remaining(), data.length - written);
+                buffer.put(data, written, count);
+                written += count;
+                if (!buffer.hasRemaining()) flushWriteBuffer(false);
+            }
+        } catch (IOException | GeneralSecurityException e) {
             Log.e(LOG_TAG, "Failed to write encrypted file - " + e.getMessage(), e);
             return false;
         }
@@ -307,20 +733,68 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
         return true;
     }
 
+    /**
+     * Encrypts everything collected in {@link #writeBuffer} with a single cipher call and writes it with a single channel write.
+     */
+    private void flushWriteBuffer(boolean lastBatch) throws IOException, GeneralSecurityException {
+        final ByteBuffer buffer = writeBuffer;
+        final ByteBuffer encrypted = encryptedWriteBuffer;
+        final Cipher cipher = writeCipher;
+        final FileChannel channel = writeChannel;
+        if (buffer == null || encrypted == null || cipher == null || channel == null) throw new IOException("Writing was not started.");
+
+        buffer.flip();
+        encrypted.clear();
+        // All batches but the last are block aligned, so the cipher can simply keep counting.
+        if (lastBatch) {
+            cipher.doFinal(buffer, encrypted);
+        } else {
+            cipher.update(buffer, encrypted);
+        }
+        encrypted.flip();
+        writeFully(channel, encrypted);
+        buffer.clear();
+    }
+
+    /**
+     * Writes the last batch, makes sure everything reached the disk and closes the output. Returns the first error, if any.
+     */
+    @Nullable
+    private Throwable finishOutput() {
+        Throwable error = null;
+        try {
+            flushWriteBuffer(true);
+            if (writeChannel != null) writeChannel.force(true);
+        } catch (Throwable e) {
+            error = e;
+        }
+        final Throwable closeError = safelyClose(writeChannel);
+        writeChannel = null;
+        writeCipher = null;
+        return error != null ? error : closeError;
+    }
+
+    private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
     @Override
     public boolean finishWrite() {
+        if (appendStartLength != FILE_SIZE_NOT_SET) return finishAppending();
+
         // File has finished writing. Now we need to close the input file and replace it with the freshly written temporary file.
         // Any reads after that will expect the new file already.
 
-        Throwable[] closeErrors = new Throwable[3];
+        Throwable[] closeErrors = new Throwable[2];
         boolean success = true;
-        closeErrors[0] = safelyClose(cos);
-        closeErrors[1] = safelyClose(fos);
+        closeErrors[0] = finishOutput();
 
         try {
             closeFiles();
         } catch (Throwable ex) {
-            closeErrors[2] = ex;
+            closeErrors[1] = ex;
         }
 
         for (Throwable e : closeErrors) {
@@ -330,17 +804,20 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
             }
         }
 
-        // Delete original file
-        if (!encryptedFile.delete()) success = false;
-        if (!temporaryOutputFile.renameTo(encryptedFile)) success = false;
-
+        // The last batch is only written while finishing, so a full disk shows up here. The original file must stay untouched in that case.
         if (!success) {
+            temporaryOutputFile.delete();
+            return false;
+        }
+
+        // Renaming replaces the original file in a single step, so there's always either the old or the new file.
+        if (!temporaryOutputFile.renameTo(encryptedFile)) {
+            Log.e(LOG_TAG, "Failed to replace " + encryptedFile.getAbsolutePath() + " with the written file.");
+            temporaryOutputFile.delete();
             return false;
         }
 
         temporaryOutputFile = null;
-        cos = null;
-        fos = null;
         // We need to reset the iv after writing since we always pick a new one when saving.
         encryptedFileIv = null;
 
@@ -350,14 +827,49 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
         return true;
     }
 
+    /**
+     * Finishes appending. The file wasn't replaced, so the IV stays the same. Only cached data has to be dropped, since the last chunk grew.
+     */
+    private boolean finishAppending() {
+        boolean success = true;
+        final Throwable closeError = finishOutput();
+        if (closeError != null) {
+            Log.e(LOG_TAG, "Error while closing output streams - " + closeError.getMessage(), closeError);
+            success = false;
+        }
+
+        if (!success) {
+            // Cut off whatever was appended, so the file is left as it was before saving.
+            try (RandomAccessFile file = new RandomAccessFile(encryptedFile, "rw")) {
+                file.setLength(appendStartLength);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to restore original file length - " + e.getMessage(), e);
+            }
+        }
+
+        try {
+            closeFiles();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error while closing input files - " + e.getMessage(), e);
+        }
+
+        appendStartLength = FILE_SIZE_NOT_SET;
+        decryptedFileSize = encryptedFile.length() - IV_SIZE;
+        if (success) {
+            Log.i(LOG_TAG, "Appending complete, new file size " + decryptedFileSize);
+        }
+        return success;
+    }
+
     @Override
     public boolean supportsAppending() {
-        // Even though AES-CTR mode allows us to actually append as well, this example will keep it simple and always rewrite the full file on save.
-        return false;
+        // AES-CTR mode allows to continue the key stream at the end of the file, so incremental saves only need to encrypt the appended data.
+        return true;
     }
 
     @Nullable
-    private Throwable safelyClose(Closeable closeable) {
+    private Throwable safelyClose(@Nullable Closeable closeable) {
+        if (closeable == null) return null;
         try {
             closeable.close();
             return null;
@@ -366,6 +878,28 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
         }
     }
 
+    /**
+     * Bounded pool of daemon threads used for decrypting segments of large reads. It is shared by all providers, so the number of decryption threads
+     * never exceeds the number of CPU cores.
+     */
+    private static final class DecryptionExecutor {
+        static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+        static final ThreadPoolExecutor INSTANCE = createExecutor();
+
+        @NonNull
+        private static ThreadPoolExecutor createExecutor() {
+            final AtomicInteger threadCount = new AtomicInteger();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    final Thread thread = new Thread(runnable, "AesDecryption-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -375,5 +909,8 @@ public class AesDataProvider implements WritableDataProvider, Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeString(encryptedFile.getAbsolutePath());
         dest.writeByteArray(encryptedFileKey);
+        dest.writeInt(memoryMapped ? 1 : 0);
+        dest.writeInt(maxConcurrentReads);
+        dest.writeInt(parallelDecryptionThreshold);
     }
 }
@@ -0,0 +1,248 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java.decryption;
+
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Encrypts, decrypts or re-keys files in the AES-CTR layout used by {@link AesDataProvider}: a random 16-byte IV followed by the encrypted payload.
+ * <p>
+ * Files are streamed through large direct buffers and several files are processed concurrently. When re-keying, data is decrypted and encrypted again in
+ * memory, so no plaintext is ever written to disk. Output is written to a temporary file next to the target, which replaces the target only once
+ * everything was written successfully.
+ */
+public class AesFileTranscoder {
+
+    private static final int IV_SIZE = 16;
+
+    /** Number of files processed at the same time by default. */
+    public static final int DEFAULT_MAX_CONCURRENT_FILES = 4;
+
+    /** Size of the streaming buffers. This has to be a multiple of the AES block size. */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final int maxConcurrentFiles;
+
+    public AesFileTranscoder() {
+        this(DEFAULT_MAX_CONCURRENT_FILES);
+    }
+
+    /**
+     * @param maxConcurrentFiles Maximum number of files that are processed at the same time.
+     */
+    public AesFileTranscoder(int maxConcurrentFiles) {
+        if (maxConcurrentFiles < 1) throw new IllegalArgumentException("maxConcurrentFiles must be at least 1.");
+        this.maxConcurrentFiles = maxConcurrentFiles;
+    }
+
+    /**
+     * Processes all requests, at most {@code maxConcurrentFiles} at the same time. The returned observable emits progress for every file and completes
+     * once all files were processed. It fails with the first error, disposing it cancels all running requests.
+     */
+    @NonNull
+    public Observable<Progress> transcode(@NonNull List<Request> requests) {
+        return Observable.fromIterable(requests)
+            .flatMap(request -> transcode(request).subscribeOn(Schedulers.io()), maxConcurrentFiles);
+    }
+
+    /**
+     * Processes a single request on the subscribing thread, emitting progress after every buffer.
+     */
+    @NonNull
+    public Observable<Progress> transcode(@NonNull Request request) {
+        return Observable.create(emitter -> {
+            File temporaryFile = null;
+            try {
+                // Every request gets its own temporary file, so requests for the same output never write into each other's file.
+                temporaryFile = File.createTempFile(request.output.getName(), ".tmp", request.output.getAbsoluteFile().getParentFile());
+                transcode(request, temporaryFile, emitter);
+                if (emitter.isDisposed()) return;
+                // Renaming replaces the output in a single step, so the previous output is kept if anything fails. This matters when re-keying a file
+                // in place, where the previous output is also the only copy of the document.
+                if (!temporaryFile.renameTo(request.output)) {
+                    throw new IOException("Could not move output to " + request.output.getAbsolutePath());
+                }
+                emitter.onComplete();
+            } catch (Exception e) {
+                emitter.tryOnError(e);
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                if (temporaryFile != null) temporaryFile.delete();
+            }
+        });
+    }
+
+    private void transcode(@NonNull Request request, @NonNull File temporaryFile, @NonNull ObservableEmitter<Progress> emitter)
+        throws IOException, GeneralSecurityException {
+        try (FileInputStream inputStream = new FileInputStream(request.input);
+             FileOutputStream outputStream = new FileOutputStream(temporaryFile)) {
+            final FileChannel input = inputStream.getChannel();
+            final FileChannel output = outputStream.getChannel();
+
+            long position = 0;
+            final long totalBytes = input.size();
+
+            Cipher decryptionCipher = null;
+            if (request.inputKey != null) {
+                final ByteBuffer iv = ByteBuffer.allocate(IV_SIZE);
+                if (readFully(input, iv, 0) < IV_SIZE) throw new EOFException("Encrypted file is missing its IV: " + request.input.getAbsolutePath());
+                decryptionCipher = Cipher.getInstance("AES/CTR/NoPadding");
+                decryptionCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(request.inputKey, "AES"), new IvParameterSpec(iv.array()));
+                position = IV_SIZE;
+            }
+
+            Cipher encryptionCipher = null;
+            if (request.outputKey != null) {
+                // To keep writing secure we must generate a new IV from a random source for each file.
+                final byte[] iv = new byte[IV_SIZE];
+                new SecureRandom().nextBytes(iv);
+                encryptionCipher = Cipher.getInstance("AES/CTR/NoPadding");
+                encryptionCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(request.outputKey, "AES"), new IvParameterSpec(iv));
+                writeFully(output, ByteBuffer.wrap(iv));
+            }
+
+            ByteBuffer data = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            ByteBuffer spare = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (position < totalBytes) {
+                if (emitter.isDisposed()) throw new InterruptedIOException("Transcoding of " + request.input.getAbsolutePath() + " was cancelled.");
+
+                // Full buffers keep every update block aligned.
+                data.clear();
+                final int read = readFully(input, data, position);
+                if (read == 0) throw new EOFException("Unexpected end of " + request.input.getAbsolutePath());
+                position += read;
+                data.flip();
+
+                if (decryptionCipher != null) {
+                    spare.clear();
+                    decryptionCipher.update(data, spare);
+                    spare.flip();
+                    final ByteBuffer decrypted = spare;
+                    spare = data;
+                    data = decrypted;
+                }
+                if (encryptionCipher != null) {
+                    spare.clear();
+                    encryptionCipher.update(data, spare);
+                    spare.flip();
+                    final ByteBuffer encrypted = spare;
+                    spare = data;
+                    data = encrypted;
+                }
+                writeFully(output, data);
+                emitter.onNext(new Progress(request, position, totalBytes));
+            }
+            // The data and the file's metadata have to reach the disk before the file replaces the output.
+            output.force(true);
+        }
+    }
+
+    /** Reads until {@code buffer} is full or the end of the channel is reached, and returns the number of bytes read. */
+    private static int readFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position + total);
+            if (read < 0) break;
+            total += read;
+        }
+        return total;
+    }
+
+    private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * A single file to encrypt, decrypt or re-key.
+     */
+    public static final class Request {
+        @NonNull final File input;
+        @NonNull final File output;
+        /** Key of the encrypted input, or {@code null} if the input is plaintext. */
+        @Nullable final byte[] inputKey;
+        /** Key of the encrypted output, or {@code null} if the output should be plaintext. */
+        @Nullable final byte[] outputKey;
+
+        private Request(@NonNull File input, @NonNull File output, @Nullable String base64InputKey, @Nullable String base64OutputKey) {
+            this.input = input;
+            this.output = output;
+            this.inputKey = base64InputKey != null ? Base64.decode(base64InputKey, Base64.DEFAULT) : null;
+            this.outputKey = base64OutputKey != null ? Base64.decode(base64OutputKey, Base64.DEFAULT) : null;
+        }
+
+        /** Encrypts the plaintext {@code input} file into {@code output}. */
+        @NonNull
+        public static Request encrypt(@NonNull File input, @NonNull File output, @NonNull String base64Aes256Key) {
+            return new Request(input, output, null, base64Aes256Key);
+        }
+
+        /** Decrypts {@code input} into {@code output}. Note that this writes plaintext to disk. */
+        @NonNull
+        public static Request decrypt(@NonNull File input, @NonNull File output, @NonNull String base64Aes256Key) {
+            return new Request(input, output, base64Aes256Key, null);
+        }
+
+        /** Re-encrypts {@code input} under a new key and a new IV, without writing plaintext to disk. */
+        @NonNull
+        public static Request rekey(@NonNull File input, @NonNull File output, @NonNull String base64OldAes256Key, @NonNull String base64NewAes256Key) {
+            return new Request(input, output, base64OldAes256Key, base64NewAes256Key);
+        }
+
+        @NonNull
+        public File getInput() {
+            return input;
+        }
+
+        @NonNull
+        public File getOutput() {
+            return output;
+        }
+    }
+
+    /**
+     * Progress of a single request.
+     */
+    public static final class Progress {
+        @NonNull public final Request request;
+        /** Number of bytes of the input file that were processed. */
+        public final long bytesProcessed;
+        /** Size of the input file. */
+        public final long totalBytes;
+
+        Progress(@NonNull Request request, long bytesProcessed, long totalBytes) {
+            this.request = request;
+            this.bytesProcessed = bytesProcessed;
+            this.totalBytes = totalBytes;
+        }
+    }
+}
@@ -0,0 +1,698 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java.decryption;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.pspdfkit.document.providers.WritableDataProvider;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * DataProvider for files that are encrypted and authenticated in chunks using AES-GCM. Unlike {@link AesDataProvider} every read is verified, so
+ * tampering with the file is detected, while random access stays cheap: only the chunks touched by a read have to be decrypted and verified.
+ * <p>
+ * The file starts with a header (magic, version, chunk size, random file id), followed by one slot per chunk holding the encrypted chunk and its 16-byte
+ * authentication tag. Chunk {@code n} always lives at {@code header + n * (chunkSize + 16)}, so any chunk can be located without reading the others. The
+ * chunk index is stored in a trailer after the last chunk: the number of chunks, the plaintext size and the 12-byte nonce of every chunk. A footer at the very end of the file
+ * points to the trailer.
+ * <p>
+ * Each chunk is sealed under its own random nonce, with the file id, the chunk number and a flag marking the last chunk as additional authenticated data.
+ * Moving, swapping or dropping chunks therefore fails verification as well. The trailer ends with its own nonce and a tag authenticating the header and
+ * the chunk index, so the number of chunks, the size and the nonces can't be changed either. Replacing the whole file with one of its earlier versions
+ * can't be detected without keeping state outside of the file. When saving, only chunks whose content changed are sealed again. Just like
+ * {@link AesDataProvider}, the new version is written to a temporary file that replaces the current file once it is complete, so a crash or a full disk
+ * during saving never leaves a half-written document behind. Unchanged chunks are copied into the temporary file as they are.
+ * <p>
+ * Use {@link #convertFromCtr(AesDataProvider, File, String)} to convert files used by {@link AesDataProvider}. The files should use a different key, since
+ * GCM uses CTR mode internally.
+ */
+public class AesGcmChunkedDataProvider implements WritableDataProvider, Parcelable {
+    public static final Creator<AesGcmChunkedDataProvider> CREATOR = new Creator<AesGcmChunkedDataProvider>() {
+        @Override
+        public AesGcmChunkedDataProvider createFromParcel(Parcel in) {
+            return new AesGcmChunkedDataProvider(in);
+        }
+
+        @Override
+        public AesGcmChunkedDataProvider[] newArray(int size) {
+            return new AesGcmChunkedDataProvider[size];
+        }
+    };
+    private static final String LOG_TAG = "AesGcmProvider";
+
+    /** Plaintext size of a single chunk, used when creating new files. */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final byte[] MAGIC = { 'P', 'G', 'C', 'M' };
+    private static final int VERSION = 2;
+    private static final int FILE_ID_SIZE = 16;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final int HEADER_SIZE = MAGIC.length + 4 + 4 + FILE_ID_SIZE;
+    private static final int FOOTER_SIZE = 8 + MAGIC.length;
+    private static final int AAD_SIZE = FILE_ID_SIZE + 8 + 1;
+    /** Chunk count, plaintext size, nonce and tag of the trailer. The chunk nonces come in between. */
+    private static final int MIN_TRAILER_SIZE = 4 + 8 + NONCE_SIZE + TAG_SIZE;
+    private static final int MAX_CACHED_CHUNKS = 64;
+
+    @NonNull private final File encryptedFile;
+    @NonNull private final byte[] encryptionKey;
+    @NonNull private final SecretKeySpec encryptionKeySpec;
+
+    /** Channel and chunk index of the encrypted file. It is replaced after every save. */
+    @Nullable private volatile ChunkIndex chunkIndex;
+
+    /** Verified, decrypted chunks. Chunks have to be verified only once as long as they stay in the cache. */
+    @NonNull private final DecryptedChunkCache chunkCache = new DecryptedChunkCache(DEFAULT_CHUNK_SIZE, MAX_CACHED_CHUNKS);
+
+    /** GCM ciphers are comparatively expensive to create, so they are reused across reads. */
+    @NonNull private final ConcurrentLinkedQueue<Cipher> idleCiphers = new ConcurrentLinkedQueue<>();
+
+    @NonNull private final SecureRandom secureRandom = new SecureRandom();
+
+    /** State of the save that is currently in progress. */
+    @Nullable private PendingWrite pendingWrite;
+
+    public AesGcmChunkedDataProvider(@NonNull String encryptedFilePath, @NonNull String base64Aes256Key) {
+        encryptedFile = new File(encryptedFilePath);
+        encryptionKey = Base64.decode(base64Aes256Key, Base64.DEFAULT);
+        encryptionKeySpec = new SecretKeySpec(encryptionKey, "AES");
+    }
+
+    /**
+     * When parcelling, we only store the filepath and encryption key - everything else gets restored from file.
+     * <p>
+     * Note: This will hand over the encryption key to the operating system!
+     * In order to keep the key secret, you should consider persisting/retrieving it from a reliable source.
+     **/
+    private AesGcmChunkedDataProvider(Parcel in) {
+        encryptedFile = new File(in.readString());
+        encryptionKey = in.createByteArray();
+        encryptionKeySpec = new SecretKeySpec(encryptionKey, "AES");
+    }
+
+    /**
+     * Creates an empty chunked file, which can then be filled using {@link #startWrite(WriteMode)}.
+     *
+     * @param base64Aes256Key Key the file is going to be opened with. It authenticates the empty chunk index.
+     */
+    public static void createEmptyFile(@NonNull File file, @NonNull String base64Aes256Key) throws IOException {
+        final SecureRandom secureRandom = new SecureRandom();
+        final byte[] fileId = new byte[FILE_ID_SIZE];
+        secureRandom.nextBytes(fileId);
+        final byte[] header = ByteBuffer.allocate(HEADER_SIZE).put(MAGIC).putInt(VERSION).putInt(DEFAULT_CHUNK_SIZE).put(fileId).array();
+        final SecretKeySpec keySpec = new SecretKeySpec(Base64.decode(base64Aes256Key, Base64.DEFAULT), "AES");
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            final FileChannel channel = randomAccessFile.getChannel();
+            writeFully(channel, ByteBuffer.wrap(header), 0);
+            final long length = writeTrailer(channel, HEADER_SIZE, keySpec, header, new byte[0][], 0, secureRandom);
+            channel.truncate(length);
+            channel.force(true);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to seal the chunk index - " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Converts a file in the AES-CTR format of {@link AesDataProvider} into the chunked AES-GCM format. Data is streamed chunk by chunk, so the whole
+     * document is never held in memory and no plaintext is written to disk.
+     *
+     * @param source          Provider for the AES-CTR encrypted file.
+     * @param outputFile      File the chunked output is written to. Existing files are replaced.
+     * @param base64Aes256Key Key for the output file. This should not be the key of the source file.
+     */
+    public static void convertFromCtr(@NonNull AesDataProvider source, @NonNull File outputFile, @NonNull String base64Aes256Key) throws IOException {
+        createEmptyFile(outputFile, base64Aes256Key);
+        final AesGcmChunkedDataProvider output = new AesGcmChunkedDataProvider(outputFile.getAbsolutePath(), base64Aes256Key);
+        try {
+            if (!output.startWrite(WriteMode.REWRITE_FILE)) throw new IOException("Could not start writing " + outputFile.getAbsolutePath());
+            final long size = source.getSize();
+            for (long offset = 0; offset < size; offset += DEFAULT_CHUNK_SIZE) {
+                final int length = (int) Math.min(DEFAULT_CHUNK_SIZE, size - offset);
+                final byte[] data = source.read(length, offset);
+                if (data.length != length) throw new IOException("Could not read " + length + " bytes at offset " + offset + " of the source file.");
+                if (!output.write(data)) throw new IOException("Could not write " + outputFile.getAbsolutePath());
+            }
+            if (!output.finishWrite()) throw new IOException("Could not finish writing " + outputFile.getAbsolutePath());
+        } finally {
+            output.release();
+        }
+    }
+
+    @NonNull
+    @Override
+    public byte[] read(long size, long offset) {
+        try {
+            final ChunkIndex index = getChunkIndex();
+            final byte[] decryptedData = new byte[(int) size];
+            int copied = 0;
+            while (copied < decryptedData.length) {
+                final long position = offset + copied;
+                final long chunk = position / index.chunkSize;
+                final byte[] chunkData = getChunk(index, chunk);
+                final int positionInChunk = (int) (position - chunk * index.chunkSize);
+                final int length = Math.min(chunkData.length - positionInChunk, decryptedData.length - copied);
+                if (length <= 0) {
+                    throw new EOFException("Tried to read past the end of " + encryptedFile.getAbsolutePath());
+                }
+                System.arraycopy(chunkData, positionInChunk, decryptedData, copied, length);
+                copied += length;
+            }
+            return decryptedData;
+        } catch (GeneralSecurityException e) {
+            Log.e(LOG_TAG, "Chunk verification failed, the file has been modified: " + e.getMessage(), e);
+            return new byte[0];
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Exception: " + e.getMessage(), e);
+            return new byte[0];
+        }
+    }
+
+    /**
+     * Returns the verified content of chunk {@code chunk}, either from the cache or by decrypting it.
+     */
+    @NonNull
+    private byte[] getChunk(@NonNull ChunkIndex index, long chunk) throws IOException, GeneralSecurityException {
+        if (chunk >= index.getChunkCount()) return new byte[0];
+        byte[] chunkData = chunkCache.get(chunk);
+        if (chunkData != null) return chunkData;
+
+        final int generation = chunkCache.getGeneration();
+        final int length = index.getChunkLength(chunk);
+        final ByteBuffer sealed = ByteBuffer.allocate(length + TAG_SIZE);
+        readFully(index.channel, sealed, index.getSlotOffset(chunk));
+
+        final Cipher cipher = acquireCipher();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, encryptionKeySpec, new GCMParameterSpec(TAG_SIZE * 8, index.nonces[(int) chunk]));
+            cipher.updateAAD(getAssociatedData(index.fileId, chunk, chunk == index.getChunkCount() - 1));
+            chunkData = cipher.doFinal(sealed.array());
+        } finally {
+            idleCiphers.offer(cipher);
+        }
+        chunkCache.put(chunk, chunkData, generation);
+        return chunkData;
+    }
+
+    @NonNull
+    private Cipher acquireCipher() throws GeneralSecurityException {
+        final Cipher cipher = idleCiphers.poll();
+        return cipher != null ? cipher : Cipher.getInstance("AES/GCM/NoPadding");
+    }
+
+    /**
+     * Seals a chunk under a fresh random nonce and returns the encrypted chunk followed by its tag.
+     */
+    @NonNull
+    private byte[] sealChunk(@NonNull byte[] fileId, long chunk, boolean lastChunk, @NonNull byte[] data, int length, @NonNull byte[] nonce)
+        throws GeneralSecurityException {
+        secureRandom.nextBytes(nonce);
+        final Cipher cipher = acquireCipher();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, encryptionKeySpec, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+            cipher.updateAAD(getAssociatedData(fileId, chunk, lastChunk));
+            return cipher.doFinal(data, 0, length);
+        } finally {
+            idleCiphers.offer(cipher);
+        }
+    }
+
+    /**
+     * Binds a chunk to its file and position: file id, chunk number and whether it's the last chunk.
+     */
+    @NonNull
+    private static byte[] getAssociatedData(@NonNull byte[] fileId, long chunk, boolean lastChunk) {
+        return ByteBuffer.allocate(AAD_SIZE).put(fileId).putLong(chunk).put((byte) (lastChunk ? 1 : 0)).array();
+    }
+
+    @NonNull
+    private ChunkIndex getChunkIndex() throws IOException {
+        ChunkIndex index = chunkIndex;
+        if (index != null) return index;
+
+        synchronized (this) {
+            index = chunkIndex;
+            if (index == null) {
+                index = ChunkIndex.read(encryptedFile, encryptionKeySpec);
+                chunkIndex = index;
+                Log.i(LOG_TAG, "Opened encrypted file " + encryptedFile.getAbsolutePath() + " with " + index.getChunkCount() + " chunks");
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public long getSize() {
+        try {
+            return getChunkIndex().size;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not read chunk index - " + e.getMessage(), e);
+            return FILE_SIZE_UNKNOWN;
+        }
+    }
+
+    @NonNull
+    @Override
+    public String getUid() {
+        return encryptedFile.getAbsolutePath();
+    }
+
+    @Nullable
+    @Override
+    public String getTitle() {
+        return null;
+    }
+
+    @Override
+    public void release() {
+        closeFile();
+    }
+
+    private synchronized void closeFile() {
+        final ChunkIndex index = chunkIndex;
+        chunkIndex = null;
+        chunkCache.clear();
+        if (index != null) {
+            try {
+                index.channel.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to close encrypted file - " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public boolean canWrite() {
+        return true;
+    }
+
+    @Override
+    public boolean startWrite(WriteMode writeMode) {
+        try {
+            pendingWrite = new PendingWrite(getChunkIndex(), writeMode == WriteMode.APPEND_TO_FILE);
+        } catch (IOException | GeneralSecurityException e) {
+            Log.e(LOG_TAG, "Failed to open file for writing - " + e.getMessage(), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean write(byte[] data) {
+        final PendingWrite write = pendingWrite;
+        if (write == null) return false;
+        try {
+            write.write(data);
+        } catch (IOException | GeneralSecurityException e) {
+            Log.e(LOG_TAG, "Failed to write encrypted file - " + e.getMessage(), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean finishWrite() {
+        final PendingWrite write = pendingWrite;
+        if (write == null) return false;
+        pendingWrite = null;
+        try {
+            write.finish();
+            // The new version is complete, replace the current file with it. Reads after this will open the new file.
+            closeFile();
+            write.commit();
+        } catch (IOException | GeneralSecurityException e) {
+            Log.e(LOG_TAG, "Failed to finish writing encrypted file - " + e.getMessage(), e);
+            write.discard();
+            return false;
+        } finally {
+            closeFile();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean supportsAppending() {
+        return true;
+    }
+
+    private static void readFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position) throws IOException {
+        final long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of encrypted file.");
+            }
+        }
+    }
+
+    private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position) throws IOException {
+        final long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, start + buffer.position());
+        }
+    }
+
+    /**
+     * Copies {@code length} bytes at {@code position} of {@code input} to the same position of {@code output}. The data is copied by the kernel, without
+     * passing through the Java heap.
+     */
+    private static void copyRange(@NonNull FileChannel input, @NonNull FileChannel output, long position, long length) throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            output.position(position + copied);
+            final long transferred = input.transferTo(position + copied, length - copied, output);
+            if (transferred <= 0) throw new EOFException("Unexpected end of encrypted file.");
+            copied += transferred;
+        }
+    }
+
+    /**
+     * Writes trailer and footer at {@code trailerOffset} and returns the resulting file length. The trailer is sealed together with the file's header.
+     */
+    private static long writeTrailer(@NonNull FileChannel channel,
+                                     long trailerOffset,
+                                     @NonNull SecretKeySpec keySpec,
+                                     @NonNull byte[] header,
+                                     @NonNull byte[][] nonces,
+                                     long size,
+                                     @NonNull SecureRandom secureRandom) throws IOException, GeneralSecurityException {
+        final ByteBuffer trailer = ByteBuffer.allocate(MIN_TRAILER_SIZE + nonces.length * NONCE_SIZE + FOOTER_SIZE);
+        trailer.putInt(nonces.length).putLong(size);
+        for (byte[] nonce : nonces) {
+            trailer.put(nonce);
+        }
+        final int indexLength = trailer.position();
+
+        final byte[] trailerNonce = new byte[NONCE_SIZE];
+        secureRandom.nextBytes(trailerNonce);
+        final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, keySpec, new GCMParameterSpec(TAG_SIZE * 8, trailerNonce));
+        cipher.updateAAD(header);
+        cipher.updateAAD(trailer.array(), 0, indexLength);
+        trailer.put(trailerNonce).put(cipher.doFinal());
+
+        trailer.putLong(trailerOffset).put(MAGIC).flip();
+        writeFully(channel, trailer, trailerOffset);
+        return trailerOffset + trailer.limit();
+    }
+
+    /**
+     * Open channel and chunk index of a chunked file.
+     */
+    private static final class ChunkIndex {
+        @NonNull final FileChannel channel;
+        @NonNull final byte[] header;
+        final int chunkSize;
+        @NonNull final byte[] fileId;
+        @NonNull final byte[][] nonces;
+        final long size;
+
+        private ChunkIndex(@NonNull FileChannel channel,
+                           @NonNull byte[] header,
+                           int chunkSize,
+                           @NonNull byte[] fileId,
+                           @NonNull byte[][] nonces,
+                           long size) {
+            this.channel = channel;
+            this.header = header;
+            this.chunkSize = chunkSize;
+            this.fileId = fileId;
+            this.nonces = nonces;
+            this.size = size;
+        }
+
+        /**
+         * Opens {@code file} and reads its chunk index, which is verified with {@code keySpec} before it is used.
+         */
+        @NonNull
+        static ChunkIndex read(@NonNull File file, @NonNull SecretKeySpec keySpec) throws IOException {
+            final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+            try {
+                final long length = channel.size();
+                if (length < HEADER_SIZE + FOOTER_SIZE) throw new IOException("File is too short to be a chunked encrypted file.");
+
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0);
+                header.flip();
+                checkMagic(header);
+                final int version = header.getInt();
+                if (version != VERSION) throw new IOException("Unsupported chunked file version " + version);
+                final int chunkSize = header.getInt();
+                if (chunkSize <= 0) throw new IOException("Invalid chunk size " + chunkSize);
+                final byte[] fileId = new byte[FILE_ID_SIZE];
+                header.get(fileId);
+
+                final ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+                readFully(channel, footer, length - FOOTER_SIZE);
+                footer.flip();
+                final long trailerOffset = footer.getLong();
+                checkMagic(footer);
+                if (trailerOffset < HEADER_SIZE || trailerOffset > length - FOOTER_SIZE - MIN_TRAILER_SIZE) throw new IOException("Invalid trailer offset.");
+
+                final ByteBuffer trailer = ByteBuffer.allocate((int) (length - FOOTER_SIZE - trailerOffset));
+                readFully(channel, trailer, trailerOffset);
+                trailer.flip();
+                final int chunkCount = trailer.getInt();
+                final long size = trailer.getLong();
+                if (chunkCount < 0
+                    || trailer.remaining() != (long) chunkCount * NONCE_SIZE + NONCE_SIZE + TAG_SIZE
+                    || chunkCount != (size + chunkSize - 1) / chunkSize) {
+                    throw new IOException("Invalid chunk index.");
+                }
+                final byte[][] nonces = new byte[chunkCount][NONCE_SIZE];
+                for (byte[] nonce : nonces) {
+                    trailer.get(nonce);
+                }
+                verifyTrailer(keySpec, header.array(), trailer);
+                return new ChunkIndex(channel, header.array(), chunkSize, fileId, nonces, size);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Verifies the tag at the current position of {@code trailer}, which covers the header and everything in the trailer before the tag's nonce.
+         */
+        private static void verifyTrailer(@NonNull SecretKeySpec keySpec, @NonNull byte[] header, @NonNull ByteBuffer trailer) throws IOException {
+            final int indexLength = trailer.position();
+            final byte[] trailerNonce = new byte[NONCE_SIZE];
+            trailer.get(trailerNonce);
+            try {
+                final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.DECRYPT_MODE, keySpec, new GCMParameterSpec(TAG_SIZE * 8, trailerNonce));
+                cipher.updateAAD(header);
+                cipher.updateAAD(trailer.array(), 0, indexLength);
+                cipher.doFinal(trailer.array(), trailer.position(), trailer.remaining());
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Chunk index verification failed, the file has been modified: " + e.getMessage(), e);
+            }
+        }
+
+        private static void checkMagic(@NonNull ByteBuffer buffer) throws IOException {
+            final byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a chunked encrypted file.");
+        }
+
+        int getChunkCount() {
+            return nonces.length;
+        }
+
+        int getChunkLength(long chunk) {
+            return (int) Math.min(chunkSize, size - chunk * chunkSize);
+        }
+
+        long getSlotOffset(long chunk) {
+            return HEADER_SIZE + chunk * (chunkSize + TAG_SIZE);
+        }
+    }
+
+    /**
+     * Collects written data chunk by chunk and seals only chunks that differ from what's currently stored.
+     * <p>
+     * Everything is written to a temporary file, since PSPDFKit keeps reading the current file while saving. Chunks keep their slots, so the sealed data
+     * of unchanged chunks is copied from the current file without decrypting it. {@link #commit()} replaces the current file with the temporary file.
+     */
+    private final class PendingWrite {
+        @NonNull private final ChunkIndex base;
+        @NonNull private final File temporaryFile;
+        @NonNull private final FileChannel output;
+
+        /** Nonces of all chunks written so far, including unchanged chunks. */
+        @NonNull private final List<byte[]> nonces = new ArrayList<>();
+        /** Number of chunks that were sealed again. */
+        private int sealedChunks = 0;
+
+        @NonNull private final byte[] buffer;
+        private int buffered = 0;
+        /** Number of the chunk that is currently collected in {@link #buffer}. */
+        private long currentChunk = 0;
+        /** Plaintext size of all chunks before {@link #currentChunk}. */
+        private long completedSize = 0;
+
+        PendingWrite(@NonNull ChunkIndex base, boolean append) throws IOException, GeneralSecurityException {
+            this.base = base;
+            this.buffer = new byte[base.chunkSize];
+            this.temporaryFile = new File(encryptedFile.getParent(), encryptedFile.getName() + ".tmp");
+            this.output = new RandomAccessFile(temporaryFile, "rw").getChannel();
+
+            try {
+                output.truncate(0);
+                // The header holds the file id, which is part of every chunk's associated data, so it has to stay the same for copied chunks to verify.
+                copyRange(base.channel, output, 0, HEADER_SIZE);
+
+                if (append && base.getChunkCount() > 0) {
+                    // Keep all chunks but the last, which is going to grow. Writing continues right after its current content.
+                    currentChunk = base.getChunkCount() - 1;
+                    for (int i = 0; i < currentChunk; i++) {
+                        nonces.add(base.nonces[i]);
+                    }
+                    copyRange(base.channel, output, HEADER_SIZE, base.getSlotOffset(currentChunk) - HEADER_SIZE);
+                    completedSize = currentChunk * base.chunkSize;
+                    final byte[] lastChunk = getChunk(base, currentChunk);
+                    System.arraycopy(lastChunk, 0, buffer, 0, lastChunk.length);
+                    buffered = lastChunk.length;
+                }
+            } catch (IOException | GeneralSecurityException e) {
+                discard();
+                throw e;
+            }
+        }
+
+        void write(@NonNull byte[] data) throws IOException, GeneralSecurityException {
+            int consumed = 0;
+            while (consumed < data.length) {
+                if (buffered == buffer.length) {
+                    // More data is coming, so the full chunk is not the last one.
+                    sealCurrentChunk(false);
+                }
+                final int count = Math.min(buffer.length - buffered, data.length - consumed);
+                System.arraycopy(data, consumed, buffer, buffered, count);
+                buffered += count;
+                consumed += count;
+            }
+        }
+
+        private void sealCurrentChunk(boolean lastChunk) throws IOException, GeneralSecurityException {
+            final long chunk = currentChunk;
+            final boolean storedLastChunk = chunk == base.getChunkCount() - 1;
+            if (chunk < base.getChunkCount() && lastChunk == storedLastChunk && base.getChunkLength(chunk) == buffered) {
+                final byte[] stored = getChunk(base, chunk);
+                if (contentEquals(stored, buffer, buffered)) {
+                    // Unchanged chunk, copy it as it is.
+                    copyRange(base.channel, output, base.getSlotOffset(chunk), buffered + TAG_SIZE);
+                    nonces.add(base.nonces[(int) chunk]);
+                    advance();
+                    return;
+                }
+            }
+
+            final byte[] nonce = new byte[NONCE_SIZE];
+            final ByteBuffer sealed = ByteBuffer.wrap(sealChunk(base.fileId, chunk, lastChunk, buffer, buffered, nonce));
+            writeFully(output, sealed, base.getSlotOffset(chunk));
+            nonces.add(nonce);
+            sealedChunks++;
+            advance();
+        }
+
+        private void advance() {
+            completedSize += buffered;
+            currentChunk++;
+            buffered = 0;
+        }
+
+        /**
+         * Seals the last chunk, writes the new chunk index and makes sure the temporary file reached the disk.
+         */
+        void finish() throws IOException, GeneralSecurityException {
+            if (buffered > 0) {
+                sealCurrentChunk(true);
+            }
+            final long chunkCount = currentChunk;
+            final long size = completedSize;
+
+            final long trailerOffset = chunkCount == 0
+                ? HEADER_SIZE
+                : base.getSlotOffset(chunkCount - 1) + getChunkLength(chunkCount - 1, size) + TAG_SIZE;
+            final long length = writeTrailer(output, trailerOffset, encryptionKeySpec, base.header, nonces.toArray(new byte[0][]), size, secureRandom);
+            output.truncate(length);
+            output.force(true);
+            output.close();
+            Log.i(LOG_TAG, "Saved " + encryptedFile.getName() + ", sealed " + sealedChunks + " of " + chunkCount + " chunks, new size " + size);
+        }
+
+        /**
+         * Replaces the current file with the completely written temporary file.
+         */
+        void commit() throws IOException {
+            if (!temporaryFile.renameTo(encryptedFile)) {
+                throw new IOException("Failed to move " + temporaryFile.getAbsolutePath() + " to " + encryptedFile.getAbsolutePath());
+            }
+        }
+
+        /**
+         * Drops the temporary file, leaving the current file untouched.
+         */
+        void discard() {
+            try {
+                output.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to close output - " + e.getMessage(), e);
+            }
+            //noinspection ResultOfMethodCallIgnored
+            temporaryFile.delete();
+        }
+
+        private int getChunkLength(long chunk, long size) {
+            return (int) Math.min(base.chunkSize, size - chunk * base.chunkSize);
+        }
+
+        private boolean contentEquals(@NonNull byte[] a, @NonNull byte[] b, int length) {
+            for (int i = 0; i < length; i++) {
+                if (a[i] != b[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(encryptedFile.getAbsolutePath());
+        dest.writeByteArray(encryptionKey);
+    }
+}
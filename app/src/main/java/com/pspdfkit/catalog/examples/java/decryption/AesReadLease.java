@@ -0,0 +1,62 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java.decryption;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.crypto.Cipher;
+
+/**
+ * Everything a single reader needs for decrypting data: the file channel, a cipher and reusable buffers. A lease must only be used by one thread at a
+ * time, so reads never have to allocate any of these objects. Leases are handed out by an {@link AesReadLeasePool}.
+ */
+class AesReadLease implements Closeable {
+
+    /**
+     * Channel of the encrypted file. Only positional reads are used, so the channel position is never touched. This is {@code null} when the file is
+     * memory mapped, since data is then decrypted straight out of the mapping.
+     */
+    @Nullable final FileChannel channel;
+
+    /** Cipher used for decrypting. It is re-initialized with the IV of the first block for every read. */
+    @NonNull final Cipher cipher;
+
+    /** Holds encrypted data read from the channel. The capacity is a multiple of the AES block size. Only allocated if there is a channel. */
+    @Nullable final ByteBuffer encryptedBuffer;
+
+    /** Receives decrypted data from the cipher. Has the same capacity as {@link #encryptedBuffer}. */
+    @NonNull final ByteBuffer decryptedBuffer;
+
+    /** Scratch space for calculating the IV of a block. */
+    @NonNull final byte[] iv;
+
+    /** Pool generation this lease was created in. Guarded by the owning {@link AesReadLeasePool}. */
+    int generation;
+
+    /** {@link System#nanoTime()} of the moment this lease was last handed back. Guarded by the owning {@link AesReadLeasePool}. */
+    long releasedAtNanos;
+
+    AesReadLease(@Nullable FileChannel channel, @NonNull Cipher cipher, int bufferSize, int ivSize) {
+        this.channel = channel;
+        this.cipher = cipher;
+        this.encryptedBuffer = channel != null ? ByteBuffer.allocateDirect(bufferSize) : null;
+        this.decryptedBuffer = ByteBuffer.allocateDirect(bufferSize);
+        this.iv = new byte[ivSize];
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+    }
+}
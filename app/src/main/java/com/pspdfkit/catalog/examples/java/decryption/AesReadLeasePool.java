@@ -0,0 +1,181 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java.decryption;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of {@link AesReadLease}s. Readers acquire a lease for the duration of a single read and hand it back afterwards, so the number of open
+ * file handles is capped by the pool size no matter how many threads are reading. Leases that weren't used for a while are closed again.
+ */
+class AesReadLeasePool {
+    private static final String LOG_TAG = "AesProvider";
+
+    /** Creates a new lease whenever the pool has no idle lease left. */
+    interface LeaseFactory {
+        @NonNull
+        AesReadLease createLease() throws IOException;
+    }
+
+    @NonNull private final LeaseFactory factory;
+    private final long maxIdleNanos;
+
+    /** One permit per lease that may exist at the same time. */
+    @NonNull private final Semaphore permits;
+
+    /** Idle leases, most recently used first. Guarded by {@code this}. */
+    @NonNull private final ArrayDeque<AesReadLease> idleLeases = new ArrayDeque<>();
+
+    /** Incremented by {@link #closeAll()}. Leases of an older generation are closed when they are handed back. Guarded by {@code this}. */
+    private int generation = 0;
+
+    @NonNull private final AtomicInteger openLeaseCount = new AtomicInteger();
+    @NonNull private final AtomicLong createdLeaseCount = new AtomicLong();
+    @NonNull private final AtomicLong evictedLeaseCount = new AtomicLong();
+    @NonNull private final AtomicLong waitCount = new AtomicLong();
+
+    AesReadLeasePool(int maxLeases, long maxIdleMillis, @NonNull LeaseFactory factory) {
+        this.factory = factory;
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMillis);
+        this.permits = new Semaphore(maxLeases, true);
+    }
+
+    /**
+     * Returns an idle lease or creates a new one. Blocks while all leases are in use. Every acquired lease has to be handed back using
+     * {@link #release(AesReadLease)}.
+     */
+    @NonNull
+    AesReadLease acquire() throws IOException {
+        if (!permits.tryAcquire()) {
+            waitCount.incrementAndGet();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a read lease.");
+            }
+        }
+
+        final int currentGeneration;
+        AesReadLease lease;
+        final List<AesReadLease> evictedLeases;
+        synchronized (this) {
+            evictedLeases = removeIdleLeases(System.nanoTime());
+            lease = idleLeases.pollFirst();
+            currentGeneration = generation;
+        }
+        closeLeases(evictedLeases);
+        if (lease != null) return lease;
+
+        try {
+            lease = factory.createLease();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        lease.generation = currentGeneration;
+        openLeaseCount.incrementAndGet();
+        createdLeaseCount.incrementAndGet();
+        return lease;
+    }
+
+    /**
+     * Hands back a lease that was retrieved using {@link #acquire()}.
+     */
+    void release(@NonNull AesReadLease lease) {
+        final long now = System.nanoTime();
+        final boolean reusable;
+        final List<AesReadLease> evictedLeases;
+        synchronized (this) {
+            reusable = lease.generation == generation;
+            if (reusable) {
+                lease.releasedAtNanos = now;
+                idleLeases.addFirst(lease);
+            }
+            evictedLeases = removeIdleLeases(now);
+        }
+        if (!reusable) closeLease(lease);
+        closeLeases(evictedLeases);
+        permits.release();
+    }
+
+    /**
+     * Closes all idle leases. Leases that are currently in use are closed as soon as they are handed back.
+     */
+    void closeAll() {
+        final List<AesReadLease> leases;
+        synchronized (this) {
+            generation++;
+            leases = new ArrayList<>(idleLeases);
+            idleLeases.clear();
+        }
+        closeLeases(leases);
+    }
+
+    /** Removes leases that were idle for too long. The least recently used leases are at the end of the queue. */
+    @NonNull
+    private List<AesReadLease> removeIdleLeases(long now) {
+        List<AesReadLease> evictedLeases = null;
+        AesReadLease oldest;
+        while ((oldest = idleLeases.peekLast()) != null && now - oldest.releasedAtNanos > maxIdleNanos) {
+            idleLeases.pollLast();
+            if (evictedLeases == null) evictedLeases = new ArrayList<>();
+            evictedLeases.add(oldest);
+            evictedLeaseCount.incrementAndGet();
+        }
+        return evictedLeases != null ? evictedLeases : Collections.<AesReadLease>emptyList();
+    }
+
+    private void closeLeases(@NonNull List<AesReadLease> leases) {
+        for (AesReadLease lease : leases) {
+            closeLease(lease);
+        }
+    }
+
+    private void closeLease(@NonNull AesReadLease lease) {
+        openLeaseCount.decrementAndGet();
+        try {
+            lease.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to close read lease - " + e.getMessage(), e);
+        }
+    }
+
+    /** Returns the number of leases that are currently open, both idle and in use. */
+    int getOpenLeaseCount() {
+        return openLeaseCount.get();
+    }
+
+    /** Returns how many leases were created so far. */
+    long getCreatedLeaseCount() {
+        return createdLeaseCount.get();
+    }
+
+    /** Returns how many leases were closed because they were idle for too long. */
+    long getEvictedLeaseCount() {
+        return evictedLeaseCount.get();
+    }
+
+    /** Returns how often a reader had to wait because all leases were in use. */
+    long getWaitCount() {
+        return waitCount.get();
+    }
+}
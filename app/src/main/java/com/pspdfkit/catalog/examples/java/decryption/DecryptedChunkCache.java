@@ -0,0 +1,94 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java.decryption;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe LRU cache of decrypted fixed-size chunks. Chunks are identified by their index, so chunk {@code n} holds the decrypted bytes
+ * starting at offset {@code n * chunkSize}.
+ */
+class DecryptedChunkCache {
+
+    private final int chunkSize;
+    private final int maxChunks;
+
+    /** Access-ordered map, so iteration starts at the least recently used chunk. Guarded by {@code this}. */
+    @NonNull private final LinkedHashMap<Long, byte[]> chunks;
+
+    /**
+     * Incremented whenever the cache is cleared. Chunks decrypted before a {@link #clear()} (i.e. from a file that was replaced in the meantime) are not
+     * allowed back into the cache. Guarded by {@code this}.
+     */
+    private int generation = 0;
+
+    @NonNull private final AtomicLong hitCount = new AtomicLong();
+    @NonNull private final AtomicLong missCount = new AtomicLong();
+
+    DecryptedChunkCache(int chunkSize, int maxChunks) {
+        this.chunkSize = chunkSize;
+        this.maxChunks = maxChunks;
+        this.chunks = new LinkedHashMap<Long, byte[]>(maxChunks, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > DecryptedChunkCache.this.maxChunks;
+            }
+        };
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /** Returns the cached chunk, or {@code null} if it has to be decrypted. Returned arrays must not be modified. */
+    @Nullable
+    synchronized byte[] get(long chunkIndex) {
+        final byte[] chunk = chunks.get(chunkIndex);
+        if (chunk != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return chunk;
+    }
+
+    /** Returns whether the chunk is cached, without counting this as a hit or miss. */
+    synchronized boolean contains(long chunkIndex) {
+        return chunks.containsKey(chunkIndex);
+    }
+
+    /** Returns the current generation. Pass it to {@link #put(long, byte[], int)} once the chunk has been decrypted. */
+    synchronized int getGeneration() {
+        return generation;
+    }
+
+    /** Stores a decrypted chunk, unless the cache was cleared since {@code generation} was retrieved. */
+    synchronized void put(long chunkIndex, @NonNull byte[] chunk, int generation) {
+        if (generation != this.generation) return;
+        chunks.put(chunkIndex, chunk);
+    }
+
+    /** Drops all cached chunks, for example after the underlying file was replaced. */
+    synchronized void clear() {
+        chunks.clear();
+        generation++;
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java.decryption;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of a whole file. A single {@link MappedByteBuffer} can't address more than 2 GB, so larger files are split into several
+ * mappings.
+ */
+class EncryptedFileMapping {
+
+    /** Size of a single mapping. It is a multiple of the AES block size, so no block is ever split between two mappings. */
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    @NonNull private final MappedByteBuffer[] segments;
+    private final long size;
+
+    private EncryptedFileMapping(@NonNull MappedByteBuffer[] segments, long size) {
+        this.segments = segments;
+        this.size = size;
+    }
+
+    /**
+     * Maps {@code file} into memory. The file descriptor is closed again right away, the mappings stay valid until they are garbage collected.
+     */
+    @NonNull
+    static EncryptedFileMapping map(@NonNull File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = randomAccessFile.getChannel();
+            final long size = channel.size();
+            final MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + MAX_SEGMENT_SIZE - 1) / MAX_SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                final long position = i * MAX_SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_SEGMENT_SIZE, size - position));
+            }
+            return new EncryptedFileMapping(segments, size);
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Returns a view of at most {@code length} bytes starting at {@code position}. The view ends early if the range crosses the end of a mapping, so
+     * callers have to loop until they got everything they need.
+     */
+    @NonNull
+    ByteBuffer slice(long position, int length) throws EOFException {
+        if (position < 0 || position >= size) throw new EOFException("Unexpected end of encrypted file.");
+        final int segmentIndex = (int) (position / MAX_SEGMENT_SIZE);
+        final int positionInSegment = (int) (position - segmentIndex * MAX_SEGMENT_SIZE);
+
+        // Mapped buffers are shared by all readers, so every read works on its own duplicate.
+        final ByteBuffer view = segments[segmentIndex].duplicate();
+        view.position(positionInSegment);
+        view.limit(positionInSegment + Math.min(length, view.capacity() - positionInSegment));
+        return view;
+    }
+
+    /**
+     * Copies {@code destination.length} bytes starting at {@code position} into {@code destination}.
+     */
+    void get(long position, @NonNull byte[] destination) throws EOFException {
+        int copied = 0;
+        while (copied < destination.length) {
+            final ByteBuffer view = slice(position + copied, destination.length - copied);
+            final int count = view.remaining();
+            view.get(destination, copied, count);
+            copied += count;
+        }
+    }
+}
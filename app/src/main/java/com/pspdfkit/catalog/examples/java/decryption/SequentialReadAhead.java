@@ -0,0 +1,144 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java.decryption;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects sequential access and holds chunks that were decrypted ahead of time. After a number of consecutive forward reads, the chunks following the
+ * last read are prefetched into a small buffer. A single read elsewhere stops prefetching until the reader moves forward sequentially again.
+ */
+class SequentialReadAhead {
+
+    private final int chunkSize;
+    private final int triggerReadCount;
+    private final int windowChunks;
+    private final int maxBufferedChunks;
+
+    /** End offset of the previous read. Guarded by {@code this}. */
+    private long lastReadEnd = -1;
+    /** Number of consecutive forward reads. Guarded by {@code this}. */
+    private int sequentialReadCount = 0;
+
+    /** Prefetched chunks in the order they arrived. Guarded by {@code this}. */
+    @NonNull private final LinkedHashMap<Long, byte[]> bufferedChunks = new LinkedHashMap<>();
+    /** Chunks that are currently being prefetched. Guarded by {@code this}. */
+    @NonNull private final Set<Long> pendingChunks = new HashSet<>();
+    /** Incremented by {@link #clear()}, prefetches started before are discarded. Guarded by {@code this}. */
+    private int generation = 0;
+
+    @NonNull private final AtomicLong prefetchedBytes = new AtomicLong();
+    @NonNull private final AtomicLong hitBytes = new AtomicLong();
+    @NonNull private final AtomicLong wastedBytes = new AtomicLong();
+
+    /**
+     * @param chunkSize         Size of a chunk in bytes.
+     * @param triggerReadCount  Number of consecutive forward reads after which prefetching starts.
+     * @param windowChunks      Number of chunks prefetched after the end of the last read.
+     * @param maxBufferedChunks Maximum number of prefetched chunks held at the same time.
+     */
+    SequentialReadAhead(int chunkSize, int triggerReadCount, int windowChunks, int maxBufferedChunks) {
+        this.chunkSize = chunkSize;
+        this.triggerReadCount = triggerReadCount;
+        this.windowChunks = windowChunks;
+        this.maxBufferedChunks = maxBufferedChunks;
+    }
+
+    /**
+     * Records a read and returns the first chunk that should be prefetched, or {@code -1} if the access pattern isn't sequential. Reads that start at or
+     * slightly after the end of the previous read (skipping less than a chunk) count as sequential.
+     */
+    synchronized long onRead(long offset, long size) {
+        final boolean sequential = lastReadEnd >= 0 && offset >= lastReadEnd && offset - lastReadEnd < chunkSize;
+        sequentialReadCount = sequential ? sequentialReadCount + 1 : 0;
+        lastReadEnd = offset + size;
+        return sequentialReadCount >= triggerReadCount ? lastReadEnd / chunkSize : -1;
+    }
+
+    int getWindowChunks() {
+        return windowChunks;
+    }
+
+    /**
+     * Marks {@code chunkIndex} as being prefetched. Returns {@code false} if it is already buffered or being prefetched.
+     */
+    synchronized boolean startPrefetch(long chunkIndex) {
+        if (bufferedChunks.containsKey(chunkIndex)) return false;
+        return pendingChunks.add(chunkIndex);
+    }
+
+    synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Stores a prefetched chunk, or drops it if the buffer was cleared in the meantime. Pass {@code null} if prefetching failed.
+     */
+    void finishPrefetch(long chunkIndex, @Nullable byte[] chunk, int generation) {
+        synchronized (this) {
+            if (generation != this.generation) return;
+            pendingChunks.remove(chunkIndex);
+            if (chunk == null) return;
+            bufferedChunks.put(chunkIndex, chunk);
+            prefetchedBytes.addAndGet(chunk.length);
+
+            final Iterator<byte[]> oldestChunks = bufferedChunks.values().iterator();
+            while (bufferedChunks.size() > maxBufferedChunks) {
+                wastedBytes.addAndGet(oldestChunks.next().length);
+                oldestChunks.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes and returns a prefetched chunk, or returns {@code null} if it wasn't prefetched.
+     */
+    @Nullable
+    synchronized byte[] take(long chunkIndex) {
+        final byte[] chunk = bufferedChunks.remove(chunkIndex);
+        if (chunk != null) hitBytes.addAndGet(chunk.length);
+        return chunk;
+    }
+
+    /**
+     * Drops all prefetched chunks, for example after the underlying file was replaced.
+     */
+    synchronized void clear() {
+        for (Map.Entry<Long, byte[]> chunk : bufferedChunks.entrySet()) {
+            wastedBytes.addAndGet(chunk.getValue().length);
+        }
+        bufferedChunks.clear();
+        pendingChunks.clear();
+        lastReadEnd = -1;
+        sequentialReadCount = 0;
+        generation++;
+    }
+
+    /** Returns the number of bytes that were prefetched. */
+    long getPrefetchedBytes() {
+        return prefetchedBytes.get();
+    }
+
+    /** Returns the number of prefetched bytes that were actually read. */
+    long getHitBytes() {
+        return hitBytes.get();
+    }
+
+    /** Returns the number of prefetched bytes that were dropped without being read. */
+    long getWastedBytes() {
+        return wastedBytes.get();
+    }
+}
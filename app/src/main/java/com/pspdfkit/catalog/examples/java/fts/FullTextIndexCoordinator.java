@@ -0,0 +1,268 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java.fts;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.pspdfkit.catalog.utils.StringUtils;
+import com.pspdfkit.document.DocumentSource;
+import com.pspdfkit.document.PdfDocument;
+import com.pspdfkit.document.PdfDocumentLoader;
+import com.pspdfkit.document.library.PdfLibrary;
+import com.pspdfkit.document.providers.AssetDataProvider;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Keeps a {@link PdfLibrary} in sync with a set of documents from the app's assets, without indexing unchanged documents again. For every indexed
+ * document a fingerprint is stored next to the library: its UID, size, modification time and content hash.
+ * <ul>
+ * <li>Documents whose size and modification time didn't change are skipped without being opened.</li>
+ * <li>If only the modification time changed, the content hash decides whether the document has to be indexed again.</li>
+ * <li>Documents that are no longer part of the set are removed from the library.</li>
+ * </ul>
+ * Assets can only change when the app is updated, so the time of the last app update is used as their modification time.
+ */
+public class FullTextIndexCoordinator {
+    private static final String LOG_TAG = "FullTextIndex";
+
+    private static final String FINGERPRINT_UID = ".uid";
+    private static final String FINGERPRINT_SIZE = ".size";
+    private static final String FINGERPRINT_MODIFIED = ".modified";
+    private static final String FINGERPRINT_HASH = ".sha256";
+
+    @NonNull private final Context context;
+    @NonNull private final PdfLibrary library;
+    /** Properties file holding the fingerprints of all indexed documents. */
+    @NonNull private final File fingerprintFile;
+
+    /**
+     * @param library         Library that is kept in sync.
+     * @param fingerprintFile File used to store the document fingerprints. It belongs to the library, so keep it next to the library's database.
+     */
+    public FullTextIndexCoordinator(@NonNull Context context, @NonNull PdfLibrary library, @NonNull File fingerprintFile) {
+        this.context = context.getApplicationContext();
+        this.library = library;
+        this.fingerprintFile = fingerprintFile;
+    }
+
+    /**
+     * Makes sure the library contains exactly the given assets: new and changed documents are enqueued for indexing, and documents that were indexed
+     * before but are missing from {@code assetPaths} are removed. Documents that can't be opened are skipped.
+     *
+     * @param assetPaths Paths of the PDF documents inside the app's assets.
+     * @return The searchable documents, and the number of documents that are being indexed.
+     */
+    @NonNull
+    @WorkerThread
+    public synchronized Result synchronizeAssets(@NonNull List<String> assetPaths) {
+        final Map<String, Fingerprint> fingerprints = readFingerprints();
+        final Map<String, Fingerprint> updatedFingerprints = new HashMap<>();
+        final Map<String, String> documentPaths = new HashMap<>();
+        final List<PdfDocument> indexingQueue = new ArrayList<>();
+        final long modified = getAssetModificationTime();
+
+        for (String assetPath : assetPaths) {
+            final Fingerprint fingerprint = fingerprints.remove(assetPath);
+            final long size = getAssetSize(assetPath);
+            final boolean indexed = fingerprint != null && library.isIndexed(fingerprint.uid);
+
+            // Fast path: Nothing changed since the document was indexed.
+            if (indexed && size >= 0 && fingerprint.size == size && fingerprint.modified == modified) {
+                updatedFingerprints.put(assetPath, fingerprint);
+                documentPaths.put(fingerprint.uid, assetPath);
+                continue;
+            }
+
+            final String hash;
+            try {
+                hash = hashAsset(assetPath);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Could not read document '" + assetPath + "' from assets.", e);
+                if (fingerprint != null) library.removeDocument(fingerprint.uid);
+                continue;
+            }
+
+            // The app was updated, but the document is still the same.
+            if (indexed && hash.equals(fingerprint.hash)) {
+                updatedFingerprints.put(assetPath, new Fingerprint(fingerprint.uid, fingerprint.size, modified, hash));
+                documentPaths.put(fingerprint.uid, assetPath);
+                continue;
+            }
+
+            final PdfDocument document;
+            try {
+                document = PdfDocumentLoader.openDocument(context, new DocumentSource(new AssetDataProvider(assetPath)));
+            } catch (Exception ex) {
+                // This example catches any action that happens while opening the document (e.g. if a password would be needed).
+                // If an exception is thrown, the document will not be indexed.
+                Log.w(LOG_TAG, String.format("Could not open document '%s' from assets. See exception for reason.", assetPath), ex);
+                if (fingerprint != null) library.removeDocument(fingerprint.uid);
+                continue;
+            }
+
+            // Drop the outdated index of the document, in case its content changed but its UID didn't.
+            if (fingerprint != null) library.removeDocument(fingerprint.uid);
+            if (library.isIndexed(document.getUid())) library.removeDocument(document.getUid());
+
+            indexingQueue.add(document);
+            updatedFingerprints.put(assetPath, new Fingerprint(document.getUid(), size, modified, hash));
+            documentPaths.put(document.getUid(), assetPath);
+        }
+
+        // All remaining fingerprints belong to documents that are gone.
+        for (Fingerprint staleFingerprint : fingerprints.values()) {
+            if (!documentPaths.containsKey(staleFingerprint.uid)) library.removeDocument(staleFingerprint.uid);
+        }
+
+        if (!indexingQueue.isEmpty()) library.enqueueDocuments(indexingQueue);
+        writeFingerprints(updatedFingerprints);
+        return new Result(documentPaths, indexingQueue.size());
+    }
+
+    /** Returns the size of the asset, or -1 if it is compressed and its size isn't known without reading it. */
+    private long getAssetSize(@NonNull String assetPath) {
+        try (AssetFileDescriptor assetFileDescriptor = context.getAssets().openFd(assetPath)) {
+            return assetFileDescriptor.getLength();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private long getAssetModificationTime() {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    @NonNull
+    private String hashAsset(@NonNull String assetPath) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Device is missing SHA-256!", e);
+        }
+        try (InputStream inputStream = context.getAssets().open(assetPath)) {
+            final byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return StringUtils.byteToHex(digest.digest());
+    }
+
+    @NonNull
+    private Map<String, Fingerprint> readFingerprints() {
+        final Map<String, Fingerprint> fingerprints = new HashMap<>();
+        final Properties properties = new Properties();
+        try (FileInputStream inputStream = new FileInputStream(fingerprintFile)) {
+            properties.load(inputStream);
+        } catch (FileNotFoundException e) {
+            // Nothing was indexed yet.
+            return fingerprints;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to read document fingerprints, all documents will be indexed again.", e);
+            return fingerprints;
+        }
+
+        final Set<String> assetPaths = new HashSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.endsWith(FINGERPRINT_UID)) assetPaths.add(key.substring(0, key.length() - FINGERPRINT_UID.length()));
+        }
+        for (String assetPath : assetPaths) {
+            try {
+                fingerprints.put(assetPath, new Fingerprint(properties.getProperty(assetPath + FINGERPRINT_UID),
+                                                            Long.parseLong(properties.getProperty(assetPath + FINGERPRINT_SIZE)),
+                                                            Long.parseLong(properties.getProperty(assetPath + FINGERPRINT_MODIFIED)),
+                                                            properties.getProperty(assetPath + FINGERPRINT_HASH)));
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, "Ignoring invalid fingerprint of " + assetPath, e);
+            }
+        }
+        return fingerprints;
+    }
+
+    private void writeFingerprints(@NonNull Map<String, Fingerprint> fingerprints) {
+        final Properties properties = new Properties();
+        for (Map.Entry<String, Fingerprint> entry : fingerprints.entrySet()) {
+            final Fingerprint fingerprint = entry.getValue();
+            properties.setProperty(entry.getKey() + FINGERPRINT_UID, fingerprint.uid);
+            properties.setProperty(entry.getKey() + FINGERPRINT_SIZE, Long.toString(fingerprint.size));
+            properties.setProperty(entry.getKey() + FINGERPRINT_MODIFIED, Long.toString(fingerprint.modified));
+            if (fingerprint.hash != null) properties.setProperty(entry.getKey() + FINGERPRINT_HASH, fingerprint.hash);
+        }
+
+        // Written to a temporary file first, so a crash never leaves truncated fingerprints behind.
+        final File temporaryFile = new File(fingerprintFile.getPath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(temporaryFile)) {
+            properties.store(outputStream, null);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to write document fingerprints.", e);
+            //noinspection ResultOfMethodCallIgnored
+            temporaryFile.delete();
+            return;
+        }
+        if (!temporaryFile.renameTo(fingerprintFile)) {
+            Log.w(LOG_TAG, "Failed to move document fingerprints to " + fingerprintFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Outcome of {@link #synchronizeAssets(List)}.
+     */
+    public static class Result {
+        /** Asset paths of all documents in the library, keyed by the document UID. */
+        @NonNull public final Map<String, String> documentPaths;
+        /** Number of documents that were enqueued for indexing. */
+        public final int enqueuedCount;
+
+        Result(@NonNull Map<String, String> documentPaths, int enqueuedCount) {
+            this.documentPaths = documentPaths;
+            this.enqueuedCount = enqueuedCount;
+        }
+    }
+
+    private static class Fingerprint {
+        @NonNull final String uid;
+        final long size;
+        final long modified;
+        @Nullable final String hash;
+
+        Fingerprint(@NonNull String uid, long size, long modified, @Nullable String hash) {
+            this.uid = uid;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java.providers;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.pspdfkit.catalog.tasks.AssetExtractionManager;
+import com.pspdfkit.catalog.tasks.AssetStore;
+import com.pspdfkit.catalog.utils.StringUtils;
+import com.pspdfkit.document.providers.ContextDataProvider;
+import com.pspdfkit.document.providers.WritableDataProvider;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Data provider serving a PDF document straight from the app's assets, without extracting it first. Uncompressed assets are read with positional reads
+ * at their offset inside the APK. Compressed assets are inflated once into the shared {@link AssetStore} and read from there.
+ * <p>
+ * The APK is read-only, so the document is copied on write: the first time changes are saved, the document is written to a writable copy, and all later
+ * reads are served from that copy. If the copy already exists when the provider is created, the previously saved document is shown.
+ */
+public class ApkAssetDataProvider implements WritableDataProvider, ContextDataProvider, Parcelable {
+    private static final String LOG_TAG = "ApkAssetDataProvider";
+
+    public static final Creator<ApkAssetDataProvider> CREATOR = new Creator<ApkAssetDataProvider>() {
+        @Override
+        public ApkAssetDataProvider createFromParcel(Parcel in) {
+            return new ApkAssetDataProvider(in.readString(), new File(in.readString()));
+        }
+
+        @Override
+        public ApkAssetDataProvider[] newArray(int size) {
+            return new ApkAssetDataProvider[size];
+        }
+    };
+
+    @NonNull private final String assetPath;
+    /** Where the document is written to when changes are saved. */
+    @NonNull private final File writableCopy;
+    /** Set by PSPDFKit before the document is loaded. */
+    private Context context;
+
+    // All following fields are guarded by this.
+    /** Descriptor of the asset inside the APK, {@code null} if the stored asset or the writable copy is used. */
+    @Nullable private AssetFileDescriptor assetFd;
+    /** Channel of the APK file, the stored asset or the writable copy. Data starts at {@link #startOffset}. */
+    @Nullable private FileChannel channel;
+    private long startOffset;
+    private long size = FILE_SIZE_UNKNOWN;
+    /** Incremented whenever the channel is closed. */
+    private int channelGeneration = 0;
+
+    /** File the document is written to while saving, moved to {@link #writableCopy} once saving is done. */
+    @Nullable private File temporaryFile;
+    @Nullable private FileOutputStream temporaryOutput;
+
+    /**
+     * Creates a provider that keeps saved changes in a copy specific to the given example, so examples sharing an asset don't see each other's changes.
+     * Copies belong to the current app version and are removed after an update, together with other extracted assets.
+     */
+    @NonNull
+    public static ApkAssetDataProvider forExample(@NonNull Context context, @NonNull String assetPath, @NonNull String exampleTitle) {
+        final File directory = new File(AssetExtractionManager.getEditedAssetsDirectory(context), StringUtils.sha1(exampleTitle));
+        return new ApkAssetDataProvider(assetPath, new File(directory, assetPath));
+    }
+
+    /**
+     * @param assetPath    Path of the document inside the app's assets.
+     * @param writableCopy File the document is written to once changes are saved.
+     */
+    public ApkAssetDataProvider(@NonNull String assetPath, @NonNull File writableCopy) {
+        this.assetPath = assetPath;
+        this.writableCopy = writableCopy;
+    }
+
+    @Override
+    public void setContext(@NonNull Context context) {
+        this.context = context;
+    }
+
+    /** Returns whether changes were saved, so the document is served from the writable copy. */
+    public boolean hasWritableCopy() {
+        return writableCopy.exists();
+    }
+
+    /**
+     * Opens the writable copy, or the asset as file descriptor, if that wasn't done yet. Must be called while holding {@code this}.
+     */
+    @NonNull
+    private FileChannel getChannel() throws IOException {
+        if (channel != null) return channel;
+        if (writableCopy.exists()) return openFile(writableCopy);
+        try {
+            assetFd = context.getAssets().openFd(assetPath);
+        } catch (FileNotFoundException e) {
+            // Compressed assets can't be accessed directly, so they are read from the store.
+            return openFile(AssetStore.getFile(context, assetPath, null));
+        }
+        startOffset = assetFd.getStartOffset();
+        // The channel shares the descriptor, which is closed in closeChannel().
+        channel = new FileInputStream(assetFd.getFileDescriptor()).getChannel();
+        size = assetFd.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH ? assetFd.getLength() : channel.size() - startOffset;
+        return channel;
+    }
+
+    @NonNull
+    private FileChannel openFile(@NonNull File file) throws IOException {
+        channel = new RandomAccessFile(file, "r").getChannel();
+        startOffset = 0;
+        size = channel.size();
+        return channel;
+    }
+
+    @NonNull
+    @Override
+    public byte[] read(long size, long offset) {
+        final int generation = getChannelGeneration();
+        try {
+            try {
+                return readFromChannel(size, offset);
+            } catch (IOException e) {
+                // Saving may have switched to the writable copy while we were reading, in which case the new channel is opened on the next attempt.
+                if (generation == getChannelGeneration()) throw e;
+                return readFromChannel(size, offset);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to read asset " + assetPath + " - " + e.getMessage(), e);
+            return new byte[0];
+        }
+    }
+
+    private synchronized int getChannelGeneration() {
+        return channelGeneration;
+    }
+
+    @NonNull
+    private byte[] readFromChannel(long size, long offset) throws IOException {
+        final FileChannel channel;
+        final long startOffset;
+        final long totalSize;
+        synchronized (this) {
+            channel = getChannel();
+            startOffset = this.startOffset;
+            totalSize = this.size;
+        }
+
+        final int length = (int) Math.max(0, Math.min(size, totalSize - offset));
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        // Positional reads don't move the channel, so concurrent reads don't interfere.
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, startOffset + offset + buffer.position()) < 0) break;
+        }
+        if (buffer.hasRemaining()) {
+            final byte[] data = new byte[buffer.position()];
+            System.arraycopy(buffer.array(), 0, data, 0, data.length);
+            return data;
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public synchronized long getSize() {
+        if (size != FILE_SIZE_UNKNOWN) return size;
+        try {
+            getChannel();
+            return size;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to determine size of asset " + assetPath + " - " + e.getMessage(), e);
+            return FILE_SIZE_UNKNOWN;
+        }
+    }
+
+    @NonNull
+    @Override
+    public String getUid() {
+        return "asset-" + StringUtils.sha1(assetPath + ":" + writableCopy.getAbsolutePath());
+    }
+
+    @Nullable
+    @Override
+    public String getTitle() {
+        final String fileName = new File(assetPath).getName();
+        final int extension = fileName.lastIndexOf('.');
+        return extension > 0 ? fileName.substring(0, extension) : fileName;
+    }
+
+    @Override
+    public boolean canWrite() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsAppending() {
+        return true;
+    }
+
+    /**
+     * Starts writing to a temporary file next to the writable copy. When appending, the current document is copied there first; this is where the
+     * asset is copied out of the APK.
+     */
+    @Override
+    public synchronized boolean startWrite(WriteMode writeMode) {
+        final File directory = writableCopy.getParentFile();
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        temporaryFile = new File(directory, writableCopy.getName() + ".tmp");
+        try {
+            temporaryOutput = new FileOutputStream(temporaryFile);
+            if (writeMode == WriteMode.APPEND_TO_FILE) copyCurrentDocument(temporaryOutput.getChannel());
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to start writing " + temporaryFile.getAbsolutePath() + " - " + e.getMessage(), e);
+            abortWrite();
+            return false;
+        }
+    }
+
+    /** Copies the whole current document to the output, using a kernel-side copy. */
+    private void copyCurrentDocument(@NonNull FileChannel output) throws IOException {
+        final FileChannel input = getChannel();
+        long copied = 0;
+        while (copied < size) {
+            final long transferred = input.transferTo(startOffset + copied, size - copied, output);
+            if (transferred <= 0) throw new IOException("Document ended after " + copied + " of " + size + " bytes.");
+            copied += transferred;
+        }
+    }
+
+    @Override
+    public synchronized boolean write(byte[] data) {
+        if (temporaryOutput == null) return false;
+        try {
+            temporaryOutput.write(data);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write " + temporaryFile + " - " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the writable copy with the file that was just written. From now on, the document is read from the writable copy.
+     */
+    @Override
+    public synchronized boolean finishWrite() {
+        if (temporaryOutput == null || temporaryFile == null) return false;
+        try {
+            temporaryOutput.getFD().sync();
+            temporaryOutput.close();
+            temporaryOutput = null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to finish writing " + temporaryFile.getAbsolutePath() + " - " + e.getMessage(), e);
+            abortWrite();
+            return false;
+        }
+
+        closeChannel();
+        if (!temporaryFile.renameTo(writableCopy)) {
+            Log.e(LOG_TAG, "Failed to move saved document to " + writableCopy.getAbsolutePath());
+            abortWrite();
+            return false;
+        }
+        temporaryFile = null;
+        return true;
+    }
+
+    private void abortWrite() {
+        if (temporaryOutput != null) {
+            try {
+                temporaryOutput.close();
+            } catch (IOException ignored) {
+            }
+            temporaryOutput = null;
+        }
+        if (temporaryFile != null) {
+            //noinspection ResultOfMethodCallIgnored
+            temporaryFile.delete();
+            temporaryFile = null;
+        }
+    }
+
+    /** Closes the current channel, so the next read opens the writable copy or the asset again. */
+    private void closeChannel() {
+        try {
+            if (assetFd != null) {
+                assetFd.close();
+            } else if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to close asset " + assetPath + " - " + e.getMessage(), e);
+        }
+        assetFd = null;
+        channel = null;
+        channelGeneration++;
+        size = FILE_SIZE_UNKNOWN;
+    }
+
+    @Override
+    public synchronized void release() {
+        abortWrite();
+        closeChannel();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(assetPath);
+        dest.writeString(writableCopy.getAbsolutePath());
+    }
+}
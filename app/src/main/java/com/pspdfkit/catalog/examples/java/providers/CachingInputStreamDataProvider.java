@@ -0,0 +1,328 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java.providers;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.pspdfkit.document.providers.ContextDataProvider;
+import com.pspdfkit.document.providers.DataProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Data provider for documents that can only be read as a stream, like {@code InputStreamDataProvider}. Instead of restarting the stream whenever
+ * PSPDFKit reads backwards, every byte that is streamed is recorded in a temporary spill file, and recently used segments are kept in memory. Later reads
+ * of data that was streamed once are served from this cache, so after the first pass the document behaves like a local file.
+ * <p>
+ * Subclasses only have to implement {@link #openInputStream()}, {@link #getUid()} and {@link #getTitle()}. The stream is only restarted if data is
+ * needed that was evicted from memory and didn't fit into the spill file. Reads are thread-safe: cached data is read concurrently, while streaming
+ * new data is serialized.
+ */
+public abstract class CachingInputStreamDataProvider implements DataProvider, ContextDataProvider {
+    private static final String LOG_TAG = "CachingStreamProvider";
+
+    /** Size of the segments the stream is read and cached in. */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    /** Maximum number of bytes of recently read segments kept in memory. */
+    public static final long DEFAULT_MAX_MEMORY_BYTES = 4 * 1024 * 1024;
+    /** Maximum size of the spill file. Data past this limit is only kept in memory. */
+    public static final long DEFAULT_MAX_SPILL_BYTES = 256 * 1024 * 1024;
+
+    private final int segmentSize;
+    private final long maxMemoryBytes;
+    private final long maxSpillBytes;
+
+    private Context context;
+
+    /** Recently read segments by index, least recently used first. Guarded by itself. */
+    @NonNull private final LinkedHashMap<Long, byte[]> memorySegments = new LinkedHashMap<>(16, 0.75f, true);
+    /** Size of all segments in {@link #memorySegments}. Guarded by {@link #memorySegments}. */
+    private long memoryBytes = 0;
+
+    /** Guards the stream and all writes to the spill file. */
+    @NonNull private final Object streamLock = new Object();
+    @Nullable private InputStream stream;
+    /** Position of {@link #stream}. This is always at a segment boundary, except at the end of the stream. */
+    private long streamPosition = 0;
+    @Nullable private File spillFile;
+    @Nullable private FileChannel spillChannel;
+    /** Set if the spill file couldn't be created. Data is only cached in memory then. */
+    private boolean spillingDisabled = false;
+
+    /** Number of bytes from the start of the stream that are stored in the spill file. Readers may read up to here without taking the stream lock. */
+    private volatile long spilledBytes = 0;
+    /** Size of the stream, known once the end was reached. */
+    private volatile long streamSize = FILE_SIZE_UNKNOWN;
+
+    @NonNull private final AtomicLong streamRestartCount = new AtomicLong();
+
+    protected CachingInputStreamDataProvider() {
+        this(DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_MEMORY_BYTES, DEFAULT_MAX_SPILL_BYTES);
+    }
+
+    /**
+     * @param segmentSize    Size of the segments the stream is read and cached in.
+     * @param maxMemoryBytes Maximum number of bytes of recently read segments kept in memory.
+     * @param maxSpillBytes  Maximum size of the spill file, or 0 to cache only in memory.
+     */
+    protected CachingInputStreamDataProvider(int segmentSize, long maxMemoryBytes, long maxSpillBytes) {
+        if (segmentSize <= 0) throw new IllegalArgumentException("segmentSize must be positive.");
+        this.segmentSize = segmentSize;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxSpillBytes = maxSpillBytes;
+    }
+
+    /**
+     * Returns a new stream of the document, starting at its first byte. This is called again if the stream has to be restarted, so it must return a
+     * fresh stream every time.
+     */
+    @NonNull
+    protected abstract InputStream openInputStream() throws Exception;
+
+    @Override
+    public void setContext(@NonNull Context context) {
+        this.context = context;
+    }
+
+    /** Returns the context set by PSPDFKit before the document is loaded. */
+    protected Context getContext() {
+        return context;
+    }
+
+    @NonNull
+    @Override
+    public byte[] read(long size, long offset) {
+        final byte[] data = new byte[(int) size];
+        int filled = 0;
+        while (filled < size) {
+            final long position = offset + filled;
+            final long segmentIndex = position / segmentSize;
+            final byte[] segment = getSegment(segmentIndex);
+            if (segment == null) break;
+
+            final int segmentOffset = (int) (position - segmentIndex * segmentSize);
+            // Segments shorter than the segment size mark the end of the stream.
+            if (segmentOffset >= segment.length) break;
+            final int count = (int) Math.min(segment.length - segmentOffset, size - filled);
+            System.arraycopy(segment, segmentOffset, data, filled, count);
+            filled += count;
+        }
+        return filled == data.length ? data : Arrays.copyOf(data, filled);
+    }
+
+    /**
+     * Returns the size of the document. By default the whole stream is read (and cached) to find out its size. Subclasses that know the size up front
+     * should override this.
+     */
+    @Override
+    public long getSize() {
+        if (streamSize != FILE_SIZE_UNKNOWN) return streamSize;
+        try {
+            synchronized (streamLock) {
+                streamSegment(Long.MAX_VALUE / segmentSize);
+            }
+            return streamSize;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Failed to determine stream size - " + e.getMessage(), e);
+            return FILE_SIZE_UNKNOWN;
+        }
+    }
+
+    /**
+     * Returns the segment with the given index, from memory, the spill file or the stream. Returns {@code null} if it couldn't be read.
+     */
+    @Nullable
+    private byte[] getSegment(long segmentIndex) {
+        byte[] segment = getMemorySegment(segmentIndex);
+        if (segment != null) return segment;
+
+        try {
+            segment = readSpilledSegment(segmentIndex);
+            if (segment == null) {
+                synchronized (streamLock) {
+                    // Another reader may have streamed the segment while we were waiting.
+                    segment = getMemorySegment(segmentIndex);
+                    if (segment == null) segment = readSpilledSegment(segmentIndex);
+                    if (segment == null) segment = streamSegment(segmentIndex);
+                }
+            }
+            putMemorySegment(segmentIndex, segment);
+            return segment;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Failed to read stream - " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads a segment from the spill file, or returns {@code null} if it isn't completely stored there.
+     */
+    @Nullable
+    private byte[] readSpilledSegment(long segmentIndex) throws IOException {
+        final long start = segmentIndex * segmentSize;
+        final long size = streamSize;
+        if (size != FILE_SIZE_UNKNOWN && start >= size) return new byte[0];
+
+        final long spilled = spilledBytes;
+        final boolean completelySpilled = start + segmentSize <= spilled || (size != FILE_SIZE_UNKNOWN && spilled >= size);
+        final FileChannel channel = spillChannel;
+        if (!completelySpilled || channel == null) return null;
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(segmentSize, spilled - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) throw new IOException("Spill file is shorter than expected.");
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Streams forward until the given segment was read and returns it. Segments that are passed on the way are recorded in the spill file. Restarts the
+     * stream if it already moved past the segment. Must be called while holding {@link #streamLock}.
+     */
+    @NonNull
+    private byte[] streamSegment(long segmentIndex) throws Exception {
+        final long start = segmentIndex * segmentSize;
+        if (streamSize != FILE_SIZE_UNKNOWN && start >= streamSize) return new byte[0];
+
+        if (stream == null || streamPosition > start) {
+            if (stream != null || streamPosition > 0) streamRestartCount.incrementAndGet();
+            closeStream();
+            stream = openInputStream();
+            streamPosition = 0;
+        }
+
+        while (true) {
+            final long currentIndex = streamPosition / segmentSize;
+            final byte[] segment = readSegment(stream);
+            spill(segment);
+            streamPosition += segment.length;
+
+            if (segment.length < segmentSize) {
+                streamSize = streamPosition;
+                closeStream();
+                return currentIndex == segmentIndex ? segment : new byte[0];
+            }
+            if (currentIndex == segmentIndex) return segment;
+        }
+    }
+
+    /** Reads up to a full segment. The result is only shorter at the end of the stream. */
+    @NonNull
+    private byte[] readSegment(@NonNull InputStream inputStream) throws IOException {
+        final byte[] segment = new byte[segmentSize];
+        int read = 0;
+        int count;
+        while (read < segmentSize && (count = inputStream.read(segment, read, segmentSize - read)) >= 0) {
+            read += count;
+        }
+        return read == segmentSize ? segment : Arrays.copyOf(segment, read);
+    }
+
+    /**
+     * Appends a segment that was just streamed to the spill file, as long as the file is contiguous and stays within its size limit.
+     */
+    private void spill(@NonNull byte[] segment) {
+        if (streamPosition != spilledBytes || spilledBytes + segment.length > maxSpillBytes || spillingDisabled) return;
+        try {
+            if (spillChannel == null) {
+                spillFile = File.createTempFile("stream-cache", ".tmp", context != null ? context.getCacheDir() : null);
+                spillChannel = new RandomAccessFile(spillFile, "rw").getChannel();
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(segment);
+            while (buffer.hasRemaining()) {
+                spillChannel.write(buffer, streamPosition + buffer.position());
+            }
+            spilledBytes += segment.length;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to write spill file, caching in memory only - " + e.getMessage(), e);
+            spillingDisabled = true;
+        }
+    }
+
+    @Nullable
+    private byte[] getMemorySegment(long segmentIndex) {
+        synchronized (memorySegments) {
+            return memorySegments.get(segmentIndex);
+        }
+    }
+
+    private void putMemorySegment(long segmentIndex, @NonNull byte[] segment) {
+        synchronized (memorySegments) {
+            final byte[] previous = memorySegments.put(segmentIndex, segment);
+            if (previous != null) memoryBytes -= previous.length;
+            memoryBytes += segment.length;
+
+            final Iterator<byte[]> leastRecentlyUsed = memorySegments.values().iterator();
+            while (memoryBytes > maxMemoryBytes && leastRecentlyUsed.hasNext()) {
+                memoryBytes -= leastRecentlyUsed.next().length;
+                leastRecentlyUsed.remove();
+            }
+        }
+    }
+
+    private void closeStream() {
+        if (stream == null) return;
+        try {
+            stream.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to close stream - " + e.getMessage(), e);
+        }
+        stream = null;
+    }
+
+    /**
+     * Closes the stream and deletes all cached data.
+     */
+    @Override
+    public void release() {
+        synchronized (streamLock) {
+            closeStream();
+            streamPosition = 0;
+            if (spillChannel != null) {
+                try {
+                    spillChannel.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to close spill file - " + e.getMessage(), e);
+                }
+                spillChannel = null;
+            }
+            if (spillFile != null && !spillFile.delete()) {
+                Log.w(LOG_TAG, "Failed to delete spill file " + spillFile.getAbsolutePath());
+            }
+            spillFile = null;
+            spilledBytes = 0;
+        }
+        synchronized (memorySegments) {
+            memorySegments.clear();
+            memoryBytes = 0;
+        }
+    }
+
+    /** Returns how often the stream had to be restarted because the requested data wasn't cached anymore. */
+    public long getStreamRestartCount() {
+        return streamRestartCount.get();
+    }
+
+    /** Returns the number of bytes stored in the spill file. */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java.providers;
+
+import android.content.Context;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.pspdfkit.document.providers.ContextDataProvider;
+import com.pspdfkit.document.providers.DataProvider;
+import com.pspdfkit.document.providers.ProgressDataProvider;
+import com.pspdfkit.document.providers.WritableDataProvider;
+
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.reactivex.Flowable;
+
+/**
+ * Data provider wrapping another data provider and recording how the document is read: number of calls, bytes read, read latencies, whether reads are
+ * sequential or jump around in the file, how much data is read more than once and how many threads read at the same time. A summary is logged when the
+ * provider is released.
+ * <p>
+ * Use {@link #wrap(DataProvider)} to create an instance. This keeps the progress reporting of wrapped {@link ProgressDataProvider}s. Writing is passed
+ * through if the wrapped provider is a {@link WritableDataProvider}. Only the wrapped provider is parceled, telemetry always starts from zero.
+ */
+public class InstrumentedDataProvider implements WritableDataProvider, ContextDataProvider, Parcelable {
+    private static final String LOG_TAG = "InstrumentedProvider";
+
+    public static final Creator<InstrumentedDataProvider> CREATOR = new Creator<InstrumentedDataProvider>() {
+        @Override
+        public InstrumentedDataProvider createFromParcel(Parcel in) {
+            final Parcelable delegate = in.readParcelable(InstrumentedDataProvider.class.getClassLoader());
+            return wrap((DataProvider) delegate);
+        }
+
+        @Override
+        public InstrumentedDataProvider[] newArray(int size) {
+            return new InstrumentedDataProvider[size];
+        }
+    };
+
+    /** Reads starting at most this far from the end of the previous read are counted as nearby reads. */
+    private static final long NEARBY_READ_DISTANCE = 64 * 1024;
+    /** Granularity used to detect data that is read more than once. */
+    private static final int PAGE_SIZE = 4 * 1024;
+    /** Latency bucket {@code i} counts reads that took less than {@code 2^i} microseconds, the last bucket counts all slower reads. */
+    private static final int LATENCY_BUCKETS = 21;
+
+    @NonNull private final DataProvider delegate;
+
+    @NonNull private final AtomicLong readCount = new AtomicLong();
+    @NonNull private final AtomicLong failedReadCount = new AtomicLong();
+    @NonNull private final AtomicLong bytesRead = new AtomicLong();
+    @NonNull private final AtomicLong sizeCallCount = new AtomicLong();
+    @NonNull private final AtomicLong writeCallCount = new AtomicLong();
+    @NonNull private final AtomicLong bytesWritten = new AtomicLong();
+    @NonNull private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS);
+    @NonNull private final AtomicLong totalReadNanos = new AtomicLong();
+
+    /** End of the previous read, used to classify the next one. */
+    @NonNull private final AtomicLong lastReadEnd = new AtomicLong(-1);
+    @NonNull private final AtomicLong sequentialReadCount = new AtomicLong();
+    @NonNull private final AtomicLong nearbyReadCount = new AtomicLong();
+    @NonNull private final AtomicLong randomReadCount = new AtomicLong();
+
+    /** Pages of the document that were read at least once. Guarded by {@code this}. */
+    @NonNull private final BitSet readPages = new BitSet();
+    /** Number of pages touched by all reads, and how many of them were read before. Guarded by {@code this}. */
+    private long touchedPageCount = 0;
+    private long repeatedPageCount = 0;
+
+    @NonNull private final AtomicInteger activeReadCount = new AtomicInteger();
+    @NonNull private final AtomicInteger maxConcurrentReadCount = new AtomicInteger();
+    @NonNull private final AtomicLong concurrentReadCount = new AtomicLong();
+
+    /**
+     * Wraps the given data provider. The returned provider also implements {@link ProgressDataProvider} if {@code delegate} does.
+     */
+    @NonNull
+    public static InstrumentedDataProvider wrap(@NonNull DataProvider delegate) {
+        if (delegate instanceof ProgressDataProvider) {
+            return new InstrumentedProgressDataProvider((ProgressDataProvider) delegate);
+        }
+        return new InstrumentedDataProvider(delegate);
+    }
+
+    protected InstrumentedDataProvider(@NonNull DataProvider delegate) {
+        this.delegate = delegate;
+    }
+
+    /** Returns the wrapped data provider. */
+    @NonNull
+    public DataProvider getDelegate() {
+        return delegate;
+    }
+
+    @NonNull
+    @Override
+    public byte[] read(long size, long offset) {
+        final int concurrentReads = activeReadCount.incrementAndGet();
+        if (concurrentReads > 1) concurrentReadCount.incrementAndGet();
+        int max;
+        while (concurrentReads > (max = maxConcurrentReadCount.get())) {
+            if (maxConcurrentReadCount.compareAndSet(max, concurrentReads)) break;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            final byte[] data = delegate.read(size, offset);
+            recordRead(offset, data.length, System.nanoTime() - start);
+            return data;
+        } catch (RuntimeException e) {
+            failedReadCount.incrementAndGet();
+            throw e;
+        } finally {
+            activeReadCount.decrementAndGet();
+        }
+    }
+
+    private void recordRead(long offset, int length, long nanos) {
+        readCount.incrementAndGet();
+        bytesRead.addAndGet(length);
+        totalReadNanos.addAndGet(nanos);
+
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        latencyHistogram.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(micros), LATENCY_BUCKETS - 1));
+
+        final long previousEnd = lastReadEnd.getAndSet(offset + length);
+        if (offset == previousEnd) {
+            sequentialReadCount.incrementAndGet();
+        } else if (previousEnd >= 0 && Math.abs(offset - previousEnd) <= NEARBY_READ_DISTANCE) {
+            nearbyReadCount.incrementAndGet();
+        } else {
+            randomReadCount.incrementAndGet();
+        }
+
+        if (length == 0) return;
+        final int firstPage = (int) (offset / PAGE_SIZE);
+        final int endPage = (int) ((offset + length - 1) / PAGE_SIZE) + 1;
+        synchronized (this) {
+            for (int page = firstPage; page < endPage; page++) {
+                if (readPages.get(page)) repeatedPageCount++;
+            }
+            touchedPageCount += endPage - firstPage;
+            readPages.set(firstPage, endPage);
+        }
+    }
+
+    @Override
+    public long getSize() {
+        sizeCallCount.incrementAndGet();
+        return delegate.getSize();
+    }
+
+    @NonNull
+    @Override
+    public String getUid() {
+        return delegate.getUid();
+    }
+
+    @Nullable
+    @Override
+    public String getTitle() {
+        return delegate.getTitle();
+    }
+
+    @Override
+    public void setContext(@NonNull Context context) {
+        if (delegate instanceof ContextDataProvider) {
+            ((ContextDataProvider) delegate).setContext(context);
+        }
+    }
+
+    @Override
+    public void release() {
+        Log.i(LOG_TAG, getSummary());
+        delegate.release();
+    }
+
+    @Override
+    public boolean canWrite() {
+        return delegate instanceof WritableDataProvider && ((WritableDataProvider) delegate).canWrite();
+    }
+
+    @Override
+    public boolean startWrite(WriteMode writeMode) {
+        return delegate instanceof WritableDataProvider && ((WritableDataProvider) delegate).startWrite(writeMode);
+    }
+
+    @Override
+    public boolean write(byte[] data) {
+        if (!(delegate instanceof WritableDataProvider)) return false;
+        writeCallCount.incrementAndGet();
+        bytesWritten.addAndGet(data.length);
+        return ((WritableDataProvider) delegate).write(data);
+    }
+
+    @Override
+    public boolean finishWrite() {
+        return delegate instanceof WritableDataProvider && ((WritableDataProvider) delegate).finishWrite();
+    }
+
+    @Override
+    public boolean supportsAppending() {
+        return delegate instanceof WritableDataProvider && ((WritableDataProvider) delegate).supportsAppending();
+    }
+
+    /** Returns the number of successful reads. */
+    public long getReadCount() {
+        return readCount.get();
+    }
+
+    /** Returns the number of bytes returned by all reads. */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /** Returns the share of reads that started exactly where the previous read ended. */
+    public double getSequentialReadRatio() {
+        final long reads = readCount.get();
+        return reads == 0 ? 0 : (double) sequentialReadCount.get() / reads;
+    }
+
+    /** Returns the share of read data that had already been read before, measured in 4 KiB pages. */
+    public synchronized double getRepeatedReadRatio() {
+        return touchedPageCount == 0 ? 0 : (double) repeatedPageCount / touchedPageCount;
+    }
+
+    /** Returns the highest number of reads that were running at the same time. */
+    public int getMaxConcurrentReadCount() {
+        return maxConcurrentReadCount.get();
+    }
+
+    /** Returns a human readable summary of everything recorded so far. */
+    @NonNull
+    public String getSummary() {
+        final long reads = readCount.get();
+        final StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.US, "Read telemetry for %s (%s)%n", delegate.getUid(), delegate.getClass().getSimpleName()));
+        summary.append(String.format(Locale.US, "  calls: read=%d failed=%d getSize=%d write=%d%n",
+            reads, failedReadCount.get(), sizeCallCount.get(), writeCallCount.get()));
+        summary.append(String.format(Locale.US, "  bytes: read=%d avg=%d written=%d%n",
+            bytesRead.get(), reads == 0 ? 0 : bytesRead.get() / reads, bytesWritten.get()));
+        summary.append(String.format(Locale.US, "  locality: sequential=%d nearby=%d random=%d (%.1f%% sequential)%n",
+            sequentialReadCount.get(), nearbyReadCount.get(), randomReadCount.get(), getSequentialReadRatio() * 100));
+        summary.append(String.format(Locale.US, "  repeated: %.1f%% of read pages were read before, %d KiB distinct%n",
+            getRepeatedReadRatio() * 100, getDistinctPageCount() * PAGE_SIZE / 1024));
+        summary.append(String.format(Locale.US, "  concurrency: max=%d overlapping reads=%d%n",
+            maxConcurrentReadCount.get(), concurrentReadCount.get()));
+        summary.append(String.format(Locale.US, "  latency: avg=%dus",
+            reads == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalReadNanos.get() / reads)));
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            final long count = latencyHistogram.get(i);
+            if (count == 0) continue;
+            if (i < LATENCY_BUCKETS - 1) {
+                summary.append(String.format(Locale.US, " <%dus=%d", 1L << i, count));
+            } else {
+                summary.append(String.format(Locale.US, " >=%dus=%d", 1L << (i - 1), count));
+            }
+        }
+        return summary.toString();
+    }
+
+    private synchronized long getDistinctPageCount() {
+        return readPages.cardinality();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Only the wrapped provider is written to the parcel, so it has to be {@link Parcelable} itself.
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        if (!(delegate instanceof Parcelable)) {
+            throw new IllegalStateException("Wrapped data provider " + delegate.getClass().getName() + " is not parcelable.");
+        }
+        dest.writeParcelable((Parcelable) delegate, flags);
+    }
+
+    /**
+     * Instrumented provider that forwards the progress of the wrapped {@link ProgressDataProvider}.
+     */
+    private static class InstrumentedProgressDataProvider extends InstrumentedDataProvider implements ProgressDataProvider {
+
+        InstrumentedProgressDataProvider(@NonNull ProgressDataProvider delegate) {
+            super(delegate);
+        }
+
+        @NonNull
+        @Override
+        public Flowable<Double> observeProgress() {
+            return ((ProgressDataProvider) getDelegate()).observeProgress();
+        }
+    }
+}
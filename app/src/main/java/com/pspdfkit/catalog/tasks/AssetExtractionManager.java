@@ -0,0 +1,231 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.tasks;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.pspdfkit.catalog.utils.StringUtils;
+import com.pspdfkit.example.BuildConfig;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Runs all asset extractions of the catalog on a bounded pool:
+ * <ul>
+ * <li>Extracted assets and edited asset copies of previous app versions are cleaned up once per process, before the first extraction.</li>
+ * <li>Concurrent requests for the same extracted file share a single extraction, requests overwriting the file wait for the running extraction.</li>
+ * <li>{@link #extractAll(List, String, String)} extracts the documents of multi-document examples concurrently.</li>
+ * <li>{@link #warmUp(String...)} extracts assets into the {@link AssetStore} ahead of time, so the first launch of an example only has to copy them.</li>
+ * </ul>
+ */
+@SuppressWarnings("ResultOfMethodCallIgnored")
+public class AssetExtractionManager {
+    private static final String LOG_TAG = "AssetExtraction";
+    private static final String PREFS_NAME = "PSPDFCatalog.ExtractAssetTask";
+
+    /**
+     * The catalog app keeps track of the last used version code. Whenever this version code changes, it will automatically clean up all extracted assets, to
+     * make sure the newest version of assets is correctly copied to the device.
+     */
+    private static final String PREF_LAST_USED_VERSION = "PSPDFCatalog.LAST_USED_VERSION";
+
+    /** Directory inside the files directory holding a subdirectory of edited asset copies per app version. */
+    private static final String EDITED_ASSETS_DIRECTORY = "edited-assets";
+
+    /**
+     * Filter for listing files that have the ".pdf" file extension.
+     */
+    private static final FilenameFilter PDF_FILTER = (dir, filename) -> filename.length() > 4 && ".pdf".equals(filename.substring(filename.length() - 4));
+
+    /** Extraction is mostly disk bound, so only a few extractions run at the same time. */
+    public static final int MAX_CONCURRENT_EXTRACTIONS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    @Nullable private static AssetExtractionManager instance;
+
+    @NonNull private final Context context;
+    @NonNull private final Scheduler extractionScheduler = Schedulers.from(Executors.newFixedThreadPool(MAX_CONCURRENT_EXTRACTIONS));
+    /** Completes once outdated assets were cleaned up. Cached, so this only happens once per process. */
+    @NonNull private final Completable versionCheck;
+    /** Latest extraction that didn't finish yet, by output file path. Guarded by itself. */
+    @NonNull private final Map<String, Single<File>> runningExtractions = new HashMap<>();
+
+    @NonNull
+    public static synchronized AssetExtractionManager getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new AssetExtractionManager(context);
+        }
+        return instance;
+    }
+
+    private AssetExtractionManager(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+        this.versionCheck = Completable.fromAction(this::cleanUpOldAssets).subscribeOn(extractionScheduler).cache();
+    }
+
+    /**
+     * Extracts the file at {@code assetPath} from the app's assets into the private app directory. See
+     * {@link ExtractAssetTask#extractAsync(String, String, Context, boolean, String)} for the parameters.
+     *
+     * @return Single emitting the extracted file. Subscribing to it while the same file is already being extracted doesn't start another extraction, unless
+     * {@code overwriteExisting} is set. Overwriting extractions of the same file run one after another.
+     */
+    @NonNull
+    public Single<File> extract(@NonNull final String assetPath,
+                                @NonNull final String exampleTitle,
+                                final boolean overwriteExisting,
+                                @Nullable final String fileExtension) {
+        final File outputFile = getOutputFile(assetPath, exampleTitle, fileExtension);
+        final String key = outputFile.getAbsolutePath();
+        return Single.defer(() -> {
+            synchronized (runningExtractions) {
+                final Single<File> runningExtraction = runningExtractions.get(key);
+                if (runningExtraction != null && !overwriteExisting) return runningExtraction;
+
+                // Overwriting requests must not receive a file extracted before they were made, so they extract again once the running extraction is done.
+                final Completable previousExtraction = runningExtraction != null
+                    ? runningExtraction.ignoreElement().onErrorComplete()
+                    : Completable.complete();
+                final AtomicReference<Single<File>> extractionReference = new AtomicReference<>();
+                final Single<File> newExtraction = previousExtraction
+                    .andThen(versionCheck)
+                    .andThen(createExtraction(assetPath, outputFile, overwriteExisting))
+                    .doFinally(() -> {
+                        synchronized (runningExtractions) {
+                            // A later overwriting request may have replaced this extraction already.
+                            if (runningExtractions.get(key) == extractionReference.get()) runningExtractions.remove(key);
+                        }
+                    })
+                    .cache();
+                extractionReference.set(newExtraction);
+                runningExtractions.put(key, newExtraction);
+                return newExtraction;
+            }
+        });
+    }
+
+    /**
+     * Extracts several assets concurrently for the same example, for example the documents of a multi-document example.
+     *
+     * @param fileExtension An optional file extension that should be used for all extracted files.
+     * @return Single emitting the extracted files, in the order of {@code assetPaths}.
+     */
+    @NonNull
+    public Single<List<File>> extractAll(@NonNull final List<String> assetPaths,
+                                         @NonNull final String exampleTitle,
+                                         @Nullable final String fileExtension) {
+        return Observable.fromIterable(assetPaths)
+            // Each extraction subscribes on the extraction pool, so the assets are extracted concurrently but emitted in order.
+            .concatMapEager(assetPath -> extract(assetPath, exampleTitle, false, fileExtension).toObservable())
+            .toList();
+    }
+
+    /**
+     * Extracts the given assets into the {@link AssetStore} in the background, without creating copies for any example. Assets that are stored already
+     * are skipped, so this is cheap to call on every app start: it only does work after the app was installed or updated, which is also when files of
+     * the previous version are cleaned up.
+     */
+    public void warmUp(@NonNull final String... assetPaths) {
+        versionCheck.andThen(Observable.fromIterable(Arrays.asList(assetPaths))
+            .flatMapCompletable(assetPath ->
+                Completable.fromAction(() -> AssetStore.getFile(context, assetPath, null))
+                    .subscribeOn(extractionScheduler)
+                    .doOnError(throwable -> Log.w(LOG_TAG, "Failed to warm up asset " + assetPath + " - " + throwable.getMessage(), throwable))
+                    .onErrorComplete()))
+            .subscribe();
+    }
+
+    /**
+     * Returns the directory for copies of assets that were edited, for example by the {@code ApkAssetDataProvider}. The directory is specific to the
+     * current app version, so edits never outlive the asset they were made to, and copies of previous versions are cleaned up like extracted assets.
+     */
+    @NonNull
+    public static File getEditedAssetsDirectory(@NonNull Context context) {
+        return new File(new File(context.getFilesDir(), EDITED_ASSETS_DIRECTORY), String.valueOf(BuildConfig.VERSION_CODE));
+    }
+
+    @NonNull
+    private File getOutputFile(@NonNull String assetPath, @NonNull String exampleTitle, @Nullable String fileExtension) {
+        if (fileExtension != null) {
+            return new File(context.getFilesDir(), assetPath + "_" + StringUtils.sha1(exampleTitle) + "." + fileExtension);
+        } else {
+            return new File(context.getFilesDir(), assetPath + "_" + StringUtils.sha1(exampleTitle));
+        }
+    }
+
+    @NonNull
+    private Single<File> createExtraction(@NonNull final String assetPath, @NonNull final File outputFile, final boolean overwriteExisting) {
+        return Single.<File>create((emitter) -> {
+            if (outputFile.exists() && !overwriteExisting) {
+                emitter.onSuccess(outputFile);
+                return;
+            }
+
+            // The asset is only extracted from the APK the first time any example uses it. Examples get their own copy, since they may modify it.
+            // Examples that only show the document use the ApkAssetDataProvider instead, which doesn't copy the document before it's saved.
+            final AtomicBoolean cancelled = new AtomicBoolean();
+            emitter.setCancellable(() -> cancelled.set(true));
+            try {
+                final File storedAsset = AssetStore.getFile(context, assetPath, cancelled);
+                AssetStore.copy(storedAsset, outputFile, cancelled);
+                emitter.onSuccess(outputFile);
+            } catch (IOException e) {
+                if (cancelled.get()) return;
+                Log.e(LOG_TAG, "Failed to extract asset " + assetPath + " - " + e.getMessage(), e);
+                emitter.tryOnError(e);
+            }
+        }).subscribeOn(extractionScheduler);
+    }
+
+    /**
+     * Checks if all extracted assets are still up-to-date, and if not, cleans up those assets.
+     */
+    private void cleanUpOldAssets() {
+        final SharedPreferences preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        final int lastUsedVersionCode = preferences.getInt(PREF_LAST_USED_VERSION, -1);
+
+        // If the last catalog version that was used while extracting is older than the current version
+        // we clean up all extracted assets.
+        if (lastUsedVersionCode < BuildConfig.VERSION_CODE) {
+            final File outputDir = context.getFilesDir();
+            final File[] documents = outputDir.listFiles(PDF_FILTER);
+            if (documents != null) {
+                for (File document : documents) {
+                    document.delete();
+                }
+            }
+            final File editedAssetsDirectory = getEditedAssetsDirectory(context);
+            final File[] editedAssetsVersions = editedAssetsDirectory.getParentFile().listFiles();
+            if (editedAssetsVersions != null) {
+                for (File editedAssetsVersion : editedAssetsVersions) {
+                    if (!editedAssetsVersion.equals(editedAssetsDirectory)) AssetStore.deleteRecursively(editedAssetsVersion);
+                }
+            }
+            preferences.edit().putInt(PREF_LAST_USED_VERSION, BuildConfig.VERSION_CODE).apply();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.tasks;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.pspdfkit.catalog.utils.StringUtils;
+import com.pspdfkit.example.BuildConfig;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Store of assets that were extracted from the APK, shared by all examples. Assets are stored by the SHA-256 digest of their content inside a directory
+ * for the current app version, so every asset is extracted only once per app version, and assets with identical content are only stored once.
+ * <p>
+ * Stored assets must never be modified. Use {@link #copy(File, File, AtomicBoolean)} to create a writable copy.
+ */
+@SuppressWarnings("ResultOfMethodCallIgnored")
+public final class AssetStore {
+    private static final String LOG_TAG = "AssetStore";
+    private static final String PREFS_NAME = "PSPDFCatalog.AssetStore";
+    private static final String STORE_DIRECTORY = "asset-store";
+
+    /** Version code the store was populated with. All other preferences map asset paths to the digests of their content. */
+    private static final String PREF_STORE_VERSION = "PSPDFCatalog.STORE_VERSION";
+
+    /** Maximum number of bytes copied by a single {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} call. */
+    private static final long MAX_TRANSFER_SIZE = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Locks per asset path, so an asset that is requested concurrently is only extracted once. */
+    private static final ConcurrentHashMap<String, Object> assetLocks = new ConcurrentHashMap<>();
+
+    /** Whether assets of previous app versions were removed during this process. Guarded by {@code AssetStore.class}. */
+    private static boolean storeVersionChecked = false;
+
+    private AssetStore() {
+    }
+
+    /**
+     * Returns the stored copy of the file at {@code assetPath}, extracting it from the app's assets first if it isn't stored yet. The returned file is
+     * shared by all examples and must not be modified.
+     *
+     * @param context   Context used to retrieve the referenced file from the app's assets.
+     * @param assetPath Path pointing to a file inside the app's assets.
+     * @param cancelled Optional flag, cancelling the extraction when set.
+     * @return The stored asset.
+     */
+    @NonNull
+    @WorkerThread
+    public static File getFile(@NonNull Context context, @NonNull String assetPath, @Nullable AtomicBoolean cancelled) throws IOException {
+        final SharedPreferences preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        final File storeDirectory = getStoreDirectory(context, preferences);
+
+        Object lock = assetLocks.get(assetPath);
+        if (lock == null) {
+            final Object newLock = new Object();
+            lock = assetLocks.putIfAbsent(assetPath, newLock);
+            if (lock == null) lock = newLock;
+        }
+
+        synchronized (lock) {
+            final String digest = preferences.getString(assetPath, null);
+            if (digest != null) {
+                final File storedAsset = new File(storeDirectory, digest);
+                if (storedAsset.exists()) return storedAsset;
+            }
+
+            final File storedAsset = extract(context, assetPath, storeDirectory, cancelled);
+            preferences.edit().putString(assetPath, storedAsset.getName()).apply();
+            return storedAsset;
+        }
+    }
+
+    /**
+     * Copies a file using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so the data is copied by the kernel. The file
+     * is copied to a temporary file first, which is then renamed, so an interrupted copy never leaves a truncated output file behind.
+     *
+     * @param cancelled Optional flag, cancelling the copy when set.
+     */
+    @WorkerThread
+    public static void copy(@NonNull File inputFile, @NonNull File outputFile, @Nullable AtomicBoolean cancelled) throws IOException {
+        final File parentDirectory = outputFile.getParentFile();
+        if (parentDirectory != null) parentDirectory.mkdirs();
+        // Concurrent copies to the same output file each write their own temporary file, the last one to finish wins.
+        final File temporaryFile = File.createTempFile(outputFile.getName(), ".tmp", parentDirectory);
+        try (FileInputStream inputStream = new FileInputStream(inputFile);
+             FileOutputStream outputStream = new FileOutputStream(temporaryFile)) {
+            final FileChannel input = inputStream.getChannel();
+            transfer(input, 0, input.size(), outputStream.getChannel(), cancelled);
+        } catch (IOException e) {
+            temporaryFile.delete();
+            throw e;
+        }
+        moveTo(temporaryFile, outputFile);
+    }
+
+    /**
+     * Makes sure the store only contains assets of the current app version, and returns the directory for the current version. Assets of previous
+     * versions are removed once per process, the first time the store is used.
+     */
+    @NonNull
+    private static synchronized File getStoreDirectory(@NonNull Context context, @NonNull SharedPreferences preferences) {
+        final File storeRoot = new File(context.getFilesDir(), STORE_DIRECTORY);
+        final File storeDirectory = new File(storeRoot, String.valueOf(BuildConfig.VERSION_CODE));
+        if (storeVersionChecked) return storeDirectory;
+        storeVersionChecked = true;
+
+        if (preferences.getInt(PREF_STORE_VERSION, -1) != BuildConfig.VERSION_CODE) {
+            final File[] versionDirectories = storeRoot.listFiles();
+            if (versionDirectories != null) {
+                for (File versionDirectory : versionDirectories) {
+                    if (!versionDirectory.equals(storeDirectory)) deleteRecursively(versionDirectory);
+                }
+            }
+            // Forget the digests of the previous version, its assets may have changed.
+            preferences.edit().clear().putInt(PREF_STORE_VERSION, BuildConfig.VERSION_CODE).apply();
+        }
+        storeDirectory.mkdirs();
+
+        // Leftovers of extractions that were interrupted by the process being killed.
+        final File[] temporaryFiles = storeDirectory.listFiles((dir, name) -> name.endsWith(".tmp"));
+        if (temporaryFiles != null) {
+            for (File temporaryFile : temporaryFiles) {
+                temporaryFile.delete();
+            }
+        }
+        return storeDirectory;
+    }
+
+    /**
+     * Copies the asset into the store, computing its digest in the same pass. The copy is dropped if an asset with the same content is stored already.
+     */
+    @NonNull
+    private static File extract(@NonNull Context context,
+                                @NonNull String assetPath,
+                                @NonNull File storeDirectory,
+                                @Nullable AtomicBoolean cancelled) throws IOException {
+        final AssetFileDescriptor assetFileDescriptor;
+        try {
+            assetFileDescriptor = context.getAssets().openFd(assetPath);
+        } catch (FileNotFoundException e) {
+            // Thrown for compressed assets, which don't have a file descriptor.
+            return extractCompressed(context, assetPath, storeDirectory, cancelled);
+        }
+
+        final MessageDigest digest = newDigest();
+        final File temporaryFile = File.createTempFile("asset", ".tmp", storeDirectory);
+        try (FileInputStream inputStream = new FileInputStream(assetFileDescriptor.getFileDescriptor());
+             FileOutputStream outputStream = new FileOutputStream(temporaryFile)) {
+            // The descriptor refers to the whole APK, the asset starts at the descriptor's start offset.
+            final FileChannel input = inputStream.getChannel();
+            final FileChannel output = outputStream.getChannel();
+            final long start = assetFileDescriptor.getStartOffset();
+            final long length = assetFileDescriptor.getLength();
+
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long copied = 0;
+            while (copied < length) {
+                checkCancelled(assetPath, cancelled);
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), length - copied));
+                final int read = input.read(buffer, start + copied);
+                if (read < 0) throw new IOException("Asset " + assetPath + " ended after " + copied + " of " + length + " bytes.");
+                digest.update(buffer.array(), 0, read);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+                copied += read;
+            }
+        } catch (IOException e) {
+            temporaryFile.delete();
+            throw e;
+        } finally {
+            assetFileDescriptor.close();
+        }
+        return store(temporaryFile, digest, storeDirectory);
+    }
+
+    /**
+     * Compressed assets can only be read as a stream, so they are inflated into the store, computing their digest in the same pass.
+     */
+    @NonNull
+    private static File extractCompressed(@NonNull Context context,
+                                          @NonNull String assetPath,
+                                          @NonNull File storeDirectory,
+                                          @Nullable AtomicBoolean cancelled) throws IOException {
+        Log.w(LOG_TAG, "Asset " + assetPath + " is compressed, it has to be inflated. Add its extension to aaptOptions.noCompress.");
+        final MessageDigest digest = newDigest();
+        final File temporaryFile = File.createTempFile("asset", ".tmp", storeDirectory);
+        try (InputStream inputStream = context.getAssets().open(assetPath);
+             FileOutputStream outputStream = new FileOutputStream(temporaryFile)) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                checkCancelled(assetPath, cancelled);
+                digest.update(buffer, 0, read);
+                outputStream.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            temporaryFile.delete();
+            throw e;
+        }
+        return store(temporaryFile, digest, storeDirectory);
+    }
+
+    /**
+     * Moves a completely written asset to its place in the store, or drops it if an asset with the same content is stored already.
+     */
+    @NonNull
+    private static File store(@NonNull File temporaryFile, @NonNull MessageDigest digest, @NonNull File storeDirectory) throws IOException {
+        final File storedAsset = new File(storeDirectory, StringUtils.byteToHex(digest.digest()));
+        if (storedAsset.exists()) {
+            temporaryFile.delete();
+            return storedAsset;
+        }
+        moveTo(temporaryFile, storedAsset);
+        return storedAsset;
+    }
+
+    private static void transfer(@NonNull FileChannel input,
+                                 long start,
+                                 long length,
+                                 @NonNull FileChannel output,
+                                 @Nullable AtomicBoolean cancelled) throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            if (cancelled != null && cancelled.get()) throw new InterruptedIOException("Copy was cancelled.");
+            final long transferred = input.transferTo(start + copied, Math.min(MAX_TRANSFER_SIZE, length - copied), output);
+            if (transferred <= 0) throw new IOException("Input ended after " + copied + " of " + length + " bytes.");
+            copied += transferred;
+        }
+    }
+
+    private static void moveTo(@NonNull File temporaryFile, @NonNull File outputFile) throws IOException {
+        if (!temporaryFile.renameTo(outputFile)) {
+            temporaryFile.delete();
+            throw new IOException("Failed to move " + temporaryFile.getName() + " to " + outputFile.getAbsolutePath());
+        }
+    }
+
+    private static void checkCancelled(@NonNull String assetPath, @Nullable AtomicBoolean cancelled) throws InterruptedIOException {
+        if (cancelled != null && cancelled.get()) throw new InterruptedIOException("Extraction of " + assetPath + " was cancelled.");
+    }
+
+    @NonNull
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Device is missing SHA-256!", e);
+        }
+    }
+
+    static void deleteRecursively(@NonNull File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
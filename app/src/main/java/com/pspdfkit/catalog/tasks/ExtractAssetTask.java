@@ -8,41 +8,20 @@
 package com.pspdfkit.catalog.tasks;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.pspdfkit.catalog.utils.StringUtils;
-import com.pspdfkit.document.download.DownloadJob;
-import com.pspdfkit.document.download.DownloadRequest;
-import com.pspdfkit.document.download.source.AssetDownloadSource;
-import com.pspdfkit.example.BuildConfig;
-
 import java.io.File;
-import java.io.FilenameFilter;
 
 import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.schedulers.Schedulers;
 
 /**
- * Helper class for asynchronously pulling a PDF document from the app's assets into the internal device storage.
+ * Helper class for asynchronously pulling a PDF document from the app's assets into the internal device storage. Extractions are run by the
+ * {@link AssetExtractionManager}.
  */
-@SuppressWarnings("ResultOfMethodCallIgnored")
 public class ExtractAssetTask {
-    private static final String PREFS_NAME = "PSPDFCatalog.ExtractAssetTask";
-
-    /**
-     * The catalog app keeps track of the last used version code. Whenever this version code changes, it will automatically clean up all extracted assets, to
-     * make sure the newest version of assets is correctly copied to the device.
-     */
-    private static final String PREF_LAST_USED_VERSION = "PSPDFCatalog.LAST_USED_VERSION";
-
-    /**
-     * Filter for listing files that have the ".pdf" file extension.
-     */
-    private static final FilenameFilter PDF_FILTER = (dir, filename) -> filename.length() > 4 && ".pdf".equals(filename.substring(filename.length() - 4));
 
     /**
      * Extracts the file at {@code assetPath} from the app's assets into the private app directory.
@@ -117,55 +96,7 @@ public class ExtractAssetTask {
                                             @NonNull final Context context,
                                             final boolean overwriteExisting,
                                             @Nullable final String fileExtension) {
-        return Single.<File>create((emitter) -> {
-            cleanUpOldAssets(context);
-            final File outputFile;
-            if (fileExtension != null) {
-                outputFile = new File(context.getFilesDir(), assetPath + "_" + StringUtils.sha1(exampleTitle) + "." + fileExtension);
-            } else {
-                outputFile = new File(context.getFilesDir(), assetPath + "_" + StringUtils.sha1(exampleTitle));
-            }
-            final DownloadRequest request = new DownloadRequest.Builder(context)
-                .source(new AssetDownloadSource(context, assetPath))
-                .outputFile(outputFile)
-                .overwriteExisting(overwriteExisting)
-                .build();
-            final DownloadJob job = DownloadJob.startDownload(request);
-            job.setProgressListener(new DownloadJob.ProgressListenerAdapter() {
-                @Override
-                public void onComplete(@NonNull File output) {
-                    emitter.onSuccess(output);
-                }
-
-                @Override
-                public void onError(@NonNull Throwable exception) {
-                    super.onError(exception);
-                    emitter.tryOnError(exception);
-                }
-            });
-            emitter.setCancellable(job::cancel);
-        }).subscribeOn(Schedulers.io());
-    }
-
-    /**
-     * Checks if all extracted assets are still up-to-date, and if not, cleans up those assets.
-     */
-    private static void cleanUpOldAssets(@NonNull final Context context) {
-        final SharedPreferences preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        final int lastUsedVersionCode = preferences.getInt(PREF_LAST_USED_VERSION, -1);
-
-        // If the last catalog version that was used while extracting is older than the current version
-        // we clean up all extracted assets.
-        if (lastUsedVersionCode < BuildConfig.VERSION_CODE) {
-            final File outputDir = context.getFilesDir();
-            if (outputDir.exists()) {
-                for (File document : outputDir.listFiles(PDF_FILTER)) {
-                    document.delete();
-                }
-            }
-        }
-
-        preferences.edit().putInt(PREF_LAST_USED_VERSION, BuildConfig.VERSION_CODE).apply();
+        return AssetExtractionManager.getInstance(context).extract(assetPath, exampleTitle, overwriteExisting, fileExtension);
     }
 
     /**
@@ -33,12 +33,12 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.pspdfkit.PSPDFKit;
 import com.pspdfkit.catalog.PSPDFExample;
 import com.pspdfkit.catalog.R;
+import com.pspdfkit.catalog.download.DownloadScheduler;
 import com.pspdfkit.catalog.utils.ExamplesFactoryKt;
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration;
 import com.pspdfkit.configuration.policy.DefaultApplicationPolicy;
 import com.pspdfkit.document.download.DownloadJob;
 import com.pspdfkit.document.download.DownloadProgressFragment;
-import com.pspdfkit.document.download.DownloadRequest;
 import com.pspdfkit.example.ui.CatalogActivityWithSettings;
 import com.pspdfkit.example.ui.CatalogPreferencesFragment;
 import com.pspdfkit.example.utils.Utils;
@@ -311,22 +311,22 @@ public abstract class PSPDFCatalogActivity extends CatalogActivityWithSettings i
                 // Find the DownloadProgressFragment for showing download progress, or create a new one.
                 DownloadProgressFragment downloadFragment = (DownloadProgressFragment) getSupportFragmentManager().findFragmentByTag(DOWNLOAD_PROGRESS_FRAGMENT);
                 if (downloadFragment == null) {
-                    final DownloadRequest request;
+                    final DownloadJob job;
                     try {
-                        request = new DownloadRequest.Builder(this).uri(uri).build();
+                        // Web documents go through the shared document cache, so opening the same document again doesn't download it again.
+                        job = DownloadScheduler.getInstance(this).schedule(uri, DownloadScheduler.PRIORITY_VISIBLE);
                     } catch (Exception ex) {
                         showDownloadErrorAndFinishActivity();
                         return;
                     }
 
-                    final DownloadJob job = DownloadJob.startDownload(request);
                     downloadFragment = new DownloadProgressFragment();
                     downloadFragment.show(getSupportFragmentManager(), DOWNLOAD_PROGRESS_FRAGMENT);
                     downloadFragment.setJob(job);
                 }
 
                 // Once the download is complete we launch the PdfActivity from the downloaded file.
-                downloadFragment.getJob().setProgressListener(new DownloadJob.ProgressListenerAdapter() {
+                DownloadScheduler.getInstance(this).addProgressListener(downloadFragment.getJob(), this, new DownloadJob.ProgressListenerAdapter() {
                     @Override
                     public void onComplete(@NonNull File output) {
                         openDocumentAndFinishActivity(Uri.fromFile(output));
@@ -8,10 +8,9 @@
 package com.pspdfkit.catalog.examples.kotlin
 
 import android.content.Context
-import android.net.Uri
 import com.pspdfkit.catalog.PSPDFExample
 import com.pspdfkit.catalog.R
-import com.pspdfkit.catalog.tasks.ExtractAssetTask
+import com.pspdfkit.catalog.examples.java.providers.ApkAssetDataProvider
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration
 import com.pspdfkit.ui.PdfActivityIntentBuilder
 
@@ -25,13 +24,11 @@ class AnnotationSelectionViewStylingExample(context: Context) : PSPDFExample(con
         // scale handle drawables and background drawable.
         configuration.theme(R.style.AnnotationSelectionExample_Theme)
 
-        // Extract the example document from the app's assets.
-        ExtractAssetTask.extract("Annotation-Selection.pdf", title, context) { documentFile ->
-            val intent = PdfActivityIntentBuilder.fromUri(context, Uri.fromFile(documentFile))
-                .configuration(configuration.build())
-                .build()
+        // The example document is read straight from the app's assets. It's only copied out of the APK once changes are saved.
+        val intent = PdfActivityIntentBuilder.fromDataProvider(context, ApkAssetDataProvider.forExample(context, "Annotation-Selection.pdf", title))
+            .configuration(configuration.build())
+            .build()
 
-            context.startActivity(intent)
-        }
+        context.startActivity(intent)
     }
 }
@@ -14,12 +14,11 @@ import android.graphics.ColorFilter
 import android.graphics.PixelFormat
 import android.graphics.Rect
 import android.graphics.drawable.Drawable
-import android.net.Uri
 import androidx.core.content.ContextCompat
 import com.pspdfkit.bookmarks.Bookmark
 import com.pspdfkit.catalog.PSPDFExample
 import com.pspdfkit.catalog.R
-import com.pspdfkit.catalog.tasks.ExtractAssetTask
+import com.pspdfkit.catalog.examples.java.providers.ApkAssetDataProvider
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration
 import com.pspdfkit.configuration.activity.ThumbnailBarMode
 import com.pspdfkit.document.PdfDocument
@@ -41,16 +40,14 @@ class BookmarkHighlightingExample(private val context: Context) : PSPDFExample(c
             .setThumbnailBarMode(ThumbnailBarMode.THUMBNAIL_BAR_MODE_SCROLLABLE)
             .title("Bookmark Indicator")
 
-        // Start the activity once the example document has been extracted from the app's assets.
-        ExtractAssetTask.extract(BOOKMARK_DOCUMENT, title, context) { documentFile ->
-            val intent = PdfActivityIntentBuilder.fromUri(context, Uri.fromFile(documentFile))
-                .configuration(configuration.build())
-                .activityClass(BookmarkHighlightingActivity::class)
-                .build()
+        // The example document is read straight from the app's assets, so no copy has to be extracted first.
+        val intent = PdfActivityIntentBuilder.fromDataProvider(context, ApkAssetDataProvider.forExample(context, BOOKMARK_DOCUMENT, title))
+            .configuration(configuration.build())
+            .activityClass(BookmarkHighlightingActivity::class)
+            .build()
 
-            // Start the BookmarkHighlightingActivity for the extracted document.
-            context.startActivity(intent)
-        }
+        // Start the BookmarkHighlightingActivity for the bundled document.
+        context.startActivity(intent)
     }
 
     companion object {
@@ -8,13 +8,12 @@
 package com.pspdfkit.catalog.examples.kotlin
 
 import android.content.Context
-import android.net.Uri
 import com.pspdfkit.PSPDFKit
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration
 import com.pspdfkit.configuration.policy.ApplicationPolicy
 import com.pspdfkit.catalog.PSPDFExample
 import com.pspdfkit.catalog.R
-import com.pspdfkit.catalog.tasks.ExtractAssetTask
+import com.pspdfkit.catalog.examples.java.providers.ApkAssetDataProvider
 import com.pspdfkit.ui.PdfActivityIntentBuilder
 
 
@@ -30,14 +29,12 @@ class CustomApplicationPolicyExample(context: Context) : PSPDFExample(context, R
         // Application policy needs to be set before documents are loaded.
         PSPDFKit.setApplicationPolicy(customApplicationPolicy)
 
-        // We use a custom utility class to extract the example document from the assets.
-        ExtractAssetTask.extract(QUICK_START_GUIDE, title, context) { documentFile ->
-            // Open the example document in PdfActivity.
-            val intent = PdfActivityIntentBuilder.fromUri(context, Uri.fromFile(documentFile))
-                .configuration(configuration.build())
-                .build()
-            context.startActivity(intent)
-        }
+        // The example document is read straight from the app's assets. It's only copied out of the APK once changes are saved.
+        // Open the example document in PdfActivity.
+        val intent = PdfActivityIntentBuilder.fromDataProvider(context, ApkAssetDataProvider.forExample(context, QUICK_START_GUIDE, title))
+            .configuration(configuration.build())
+            .build()
+        context.startActivity(intent)
     }
 }
 
@@ -8,11 +8,10 @@
 package com.pspdfkit.catalog.examples.kotlin
 
 import android.content.Context
-import android.net.Uri
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration
 import com.pspdfkit.catalog.PSPDFExample
 import com.pspdfkit.catalog.R
-import com.pspdfkit.catalog.tasks.ExtractAssetTask
+import com.pspdfkit.catalog.examples.java.providers.ApkAssetDataProvider
 import com.pspdfkit.ui.PdfActivity
 import com.pspdfkit.ui.PdfActivityIntentBuilder
 
@@ -21,24 +20,21 @@ import com.pspdfkit.ui.PdfActivityIntentBuilder
  */
 class DarkThemeExample(context: Context) : PSPDFExample(context, R.string.darkThemeExampleTitle, R.string.darkThemeExampleDescription) {
     override fun launchExample(context: Context, configuration: PdfActivityConfiguration.Builder) {
-        // We use a custom utility class to extract the example document from the assets.
-        ExtractAssetTask.extract(QUICK_START_GUIDE, title, context) { documentFile ->
+        // You can set the custom theme directly through PdfActivity configuration.
+        configuration.theme(R.style.PSPDFCatalog_Theme_Dark)
 
-            // You can set the custom theme directly through PdfActivity configuration.
-            configuration.theme(R.style.PSPDFCatalog_Theme_Dark)
+        // Alternatively, you can also define theme on your custom activity directly in AndroidManifest.xml:
+        // <activity
+        //     android:name="YourCustomActivity"
+        //     android:theme="@style/PSPDFCatalog.Theme.Dark" />
 
-            // Alternatively, you can also define theme on your custom activity directly in AndroidManifest.xml:
-            // <activity
-            //     android:name="YourCustomActivity"
-            //     android:theme="@style/PSPDFCatalog.Theme.Dark" />
+        // The example document is read straight from the app's assets. It's only copied out of the APK once changes are saved.
+        // To start the DarkThemeActivity create a launch intent using the PdfActivityIntentBuilder
+        val intent = PdfActivityIntentBuilder.fromDataProvider(context, ApkAssetDataProvider.forExample(context, QUICK_START_GUIDE, title))
+            .configuration(configuration.build())
+            .build()
 
-            // To start the DarkThemeActivity create a launch intent using the PdfActivityIntentBuilder
-            val intent = PdfActivityIntentBuilder.fromUri(context, Uri.fromFile(documentFile))
-                .configuration(configuration.build())
-                .build()
-
-            // Start the DarkThemeActivity for the extracted document.
-            context.startActivity(intent)
-        }
+        // Start the DarkThemeActivity for the bundled document.
+        context.startActivity(intent)
     }
 }
@@ -16,17 +16,13 @@ import com.pspdfkit.configuration.activity.PdfActivityConfiguration
 import com.pspdfkit.document.download.DownloadJob
 import com.pspdfkit.document.download.DownloadProgressFragment
 import com.pspdfkit.document.download.DownloadRequest
-import com.pspdfkit.document.download.source.DownloadSource
 import com.pspdfkit.catalog.PSPDFExample
 import com.pspdfkit.catalog.R
+import com.pspdfkit.catalog.download.SegmentedDownloadSource
 import com.pspdfkit.ui.PdfActivityIntentBuilder
 import java.io.File
-import java.io.IOException
-import java.io.InputStream
-import java.net.HttpURLConnection
 import java.net.MalformedURLException
 import java.net.URL
-import java.net.URLConnection
 
 /**
  * This is an example showing how to use the [DownloadJob] to download a PDF document from the web.
@@ -34,10 +30,13 @@ import java.net.URLConnection
 class DocumentDownloadExample(context: Context) : PSPDFExample(context, R.string.documentDownloadExampleTitle, R.string.documentDownloadExampleDescription) {
 
     override fun launchExample(context: Context, configuration: PdfActivityConfiguration.Builder) {
-        // The web download source is a custom DownloadSource implemented below.
-        val source: WebDownloadSource = try {
+        // The segmented download source fetches the document over several connections at once and assembles it in a work file.
+        val source: SegmentedDownloadSource = try {
             // Try to parse the URL pointing to the PDF document. If an error occurs, log it and leave the example.
-            WebDownloadSource(URL("https://pspdfkit.com/downloads/case-study-box.pdf"))
+            SegmentedDownloadSource(
+                URL("https://pspdfkit.com/downloads/case-study-box.pdf"),
+                File(context.cacheDir, "downloads/case-study-box.pdf.segments"),
+                SegmentedDownloadSource.DEFAULT_MAX_CONNECTIONS)
         } catch (e: MalformedURLException) {
             Log.e(LOG_TAG, "Error while trying to parse the PDF Download URL.", e)
             return
@@ -73,46 +72,4 @@ class DocumentDownloadExample(context: Context) : PSPDFExample(context, R.string
     }
 }
 
-/**
- * This download source can be used to download a PDF document from the web.
- */
-private class WebDownloadSource constructor(private val documentURL: URL) : DownloadSource {
-    /**
-     * The open method needs to return an [InputStream] that will provide the complete document.
-     */
-    @Throws(IOException::class)
-    override fun open(): InputStream {
-        val connection = documentURL.openConnection() as HttpURLConnection
-        connection.connect()
-        return connection.inputStream
-    }
-
-    /**
-     * If the length is available it can be returned here. This is optional, and can improve the reported download progress, since it will then contain
-     * a percentage of download.
-     */
-    override fun getLength(): Long {
-        var length = DownloadSource.UNKNOWN_DOWNLOAD_SIZE
-
-        // We try to estimate the download size using the content length header.
-        var urlConnection: URLConnection? = null
-        try {
-            urlConnection = documentURL.openConnection()
-            val contentLength = urlConnection.contentLength
-            if (contentLength != -1) {
-                length = contentLength.toLong()
-            }
-        } catch (e: IOException) {
-            Log.e(LOG_TAG, "Error while trying to parse the PDF Download URL.", e)
-        } finally {
-            (urlConnection as? HttpURLConnection)?.disconnect()
-        }
-        return length
-    }
-
-    override fun toString(): String {
-        return "WebDownloadSource{documentURL=$documentURL}";
-    }
-}
-
 private const val LOG_TAG = "DocumentDownloadExample"
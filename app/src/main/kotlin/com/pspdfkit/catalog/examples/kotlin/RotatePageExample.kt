@@ -8,13 +8,12 @@
 package com.pspdfkit.catalog.examples.kotlin
 
 import android.content.Context
-import android.net.Uri
 import android.view.Menu
 import android.view.MenuItem
 import com.pspdfkit.configuration.activity.PdfActivityConfiguration
 import com.pspdfkit.catalog.PSPDFExample
 import com.pspdfkit.catalog.R
-import com.pspdfkit.catalog.tasks.ExtractAssetTask
+import com.pspdfkit.catalog.examples.java.providers.ApkAssetDataProvider
 import com.pspdfkit.ui.PdfActivity
 import com.pspdfkit.ui.PdfActivityIntentBuilder
 
@@ -27,16 +26,14 @@ class RotatePageExample(context: Context) : PSPDFExample(context, R.string.rotat
         // menu items are deactivated for simplicity.
         configuration.disableSearch().disableOutline()
 
-        // Start the activity once the example document has been extracted from the app's assets.
-        ExtractAssetTask.extract(QUICK_START_GUIDE, title, context) { documentFile ->
-            val intent = PdfActivityIntentBuilder.fromUri(context, Uri.fromFile(documentFile))
-                .configuration(configuration.build())
-                .activityClass(RotatePageActivity::class.java)
-                .build()
+        // The example document is read straight from the app's assets. It's only copied out of the APK once the rotation is saved.
+        val intent = PdfActivityIntentBuilder.fromDataProvider(context, ApkAssetDataProvider.forExample(context, QUICK_START_GUIDE, title))
+            .configuration(configuration.build())
+            .activityClass(RotatePageActivity::class.java)
+            .build()
 
-            // Start the RotatePageActivity for the extracted document.
-            context.startActivity(intent)
-        }
+        // Start the RotatePageActivity for the bundled document.
+        context.startActivity(intent)
     }
 }
 
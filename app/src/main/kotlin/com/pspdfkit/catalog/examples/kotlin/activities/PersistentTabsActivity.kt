@@ -16,8 +16,8 @@ import com.pspdfkit.PSPDFKit
 import com.pspdfkit.document.ImageDocumentUtils
 import com.pspdfkit.document.download.DownloadJob
 import com.pspdfkit.document.download.DownloadProgressFragment
-import com.pspdfkit.document.download.DownloadRequest
 import com.pspdfkit.catalog.R
+import com.pspdfkit.catalog.download.DownloadScheduler
 import com.pspdfkit.catalog.examples.kotlin.TabsPreferences
 import com.pspdfkit.example.utils.Utils
 import com.pspdfkit.ui.DocumentCoordinator
@@ -105,7 +105,7 @@ class PersistentTabsActivity : PdfActivity() {
                     val downloadFragment = supportFragmentManager.findFragmentByTag(
                         DOWNLOAD_PROGRESS_FRAGMENT
                     ) as? DownloadProgressFragment ?: {
-                        val job = DownloadJob.startDownload(DownloadRequest.Builder(this).uri(uri).build())
+                        val job = DownloadScheduler.getInstance(this).schedule(uri, DownloadScheduler.PRIORITY_VISIBLE)
                         val downloadFragment = DownloadProgressFragment()
                         downloadFragment.show(supportFragmentManager, DOWNLOAD_PROGRESS_FRAGMENT)
                         downloadFragment.job = job
@@ -113,7 +113,7 @@ class PersistentTabsActivity : PdfActivity() {
                     }()
 
                     // Once the download is complete we show the downloaded document in a new tab.
-                    downloadFragment.job.setProgressListener(object : DownloadJob.ProgressListenerAdapter() {
+                    DownloadScheduler.getInstance(this).addProgressListener(downloadFragment.job, this, object : DownloadJob.ProgressListenerAdapter() {
                         override fun onComplete(output: File) {
                             showDocumentInNewTab(Uri.fromFile(output), isImageFile)
                         }
@@ -0,0 +1,120 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.download;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Runs {@link DocumentCache} downloads against a local server.
+ */
+public class DocumentCacheTest {
+    private static final int DOCUMENT_SIZE = 512 * 1024;
+    private static final String ETAG = "\"v1\"";
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MockWebServer server = new MockWebServer();
+    private byte[] document;
+    private File cacheDirectory;
+    private DocumentCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        document = new byte[DOCUMENT_SIZE];
+        new Random(11).nextBytes(document);
+        server.start();
+        cacheDirectory = temporaryFolder.newFolder();
+        cache = new DocumentCache(cacheDirectory, 10 * DOCUMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void concurrentDownloadsOfTheSameUrlDontShareThePartialFile() throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                final String range = request.getHeader("Range");
+                final MockResponse response = new MockResponse().setHeader("ETag", ETAG);
+                if (range != null && ETAG.equals(request.getHeader("If-Range"))) {
+                    final int first = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                    response.setResponseCode(206)
+                        .setHeader("Content-Range", "bytes " + first + "-" + (DOCUMENT_SIZE - 1) + "/" + DOCUMENT_SIZE)
+                        .setBody(new Buffer().write(document, first, DOCUMENT_SIZE - first));
+                } else {
+                    response.setBody(new Buffer().write(document));
+                }
+                return response.throttleBody(64 * 1024, 10, TimeUnit.MILLISECONDS);
+            }
+        });
+        final URL url = server.url("/document.pdf").url();
+        final byte[] buffer = new byte[8 * 1024];
+
+        // An interrupted download leaves partial content behind.
+        try (InputStream interrupted = cache.source(url).open()) {
+            for (int i = 0; i < 20; i++) copyChunk(interrupted, new ByteArrayOutputStream(), buffer);
+        }
+
+        // Two downloads of the same URL run at the same time, for example started by two examples. Both are interrupted too.
+        try (InputStream first = cache.source(url).open(); InputStream second = cache.source(url).open()) {
+            // The first download replays the partial content and continues with its response, which it appends to the partial file.
+            for (int i = 0; i < 25; i++) copyChunk(first, new ByteArrayOutputStream(), buffer);
+            // The second download replays the same partial content and continues with its own response.
+            for (int i = 0; i < 30; i++) copyChunk(second, new ByteArrayOutputStream(), buffer);
+            for (int i = 0; i < 5; i++) copyChunk(first, new ByteArrayOutputStream(), buffer);
+        }
+
+        // Resuming must continue with intact partial content.
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream resumed = cache.source(url).open()) {
+            //noinspection StatementWithEmptyBody
+            while (!copyChunk(resumed, content, buffer)) {
+            }
+        }
+        assertArrayEquals(document, content.toByteArray());
+        assertNotNull(cache.getSha256(url));
+        final File[] partialFiles = new File(cacheDirectory, "partial").listFiles();
+        assertEquals(0, partialFiles == null ? 0 : partialFiles.length);
+    }
+
+    /** Copies a single chunk and returns whether the end of the stream was reached. */
+    private static boolean copyChunk(@NonNull InputStream inputStream, @NonNull ByteArrayOutputStream outputStream, @NonNull byte[] buffer)
+        throws IOException {
+        final int read = inputStream.read(buffer);
+        if (read < 0) return true;
+        outputStream.write(buffer, 0, read);
+        return false;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.download;
+
+import androidx.annotation.NonNull;
+
+import com.pspdfkit.catalog.download.SegmentedDownloadSource.ConnectionTuner;
+import com.pspdfkit.catalog.download.SegmentedDownloadSource.DocumentChangedException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link SegmentedDownloadSource} against a local server that throttles every connection, like a high-latency link does.
+ */
+public class SegmentedDownloadSourceTest {
+    private static final int DOCUMENT_SIZE = 2 * 1024 * 1024 + 123;
+    private static final int PIECE_SIZE = 128 * 1024;
+    private static final int MAX_CONNECTIONS = 4;
+    private static final String ETAG = "\"v1\"";
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MockWebServer server = new MockWebServer();
+    private byte[] document;
+    private File workFile;
+    private SegmentedDownloadSource source;
+
+    @Before
+    public void setUp() throws IOException {
+        document = new byte[DOCUMENT_SIZE];
+        new Random(5).nextBytes(document);
+        server.start();
+        workFile = new File(temporaryFolder.getRoot(), "work/document.pdf.segments");
+        source = new SegmentedDownloadSource(server.url("/document.pdf").url(), workFile, MAX_CONNECTIONS, PIECE_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void throttledDownloadUsesSeveralConnections() throws IOException, InterruptedException {
+        server.setDispatcher(new RangeDispatcher(document, ETAG));
+
+        assertEquals(DOCUMENT_SIZE, source.getLength());
+        assertArrayEquals(document, readFully(source.open()));
+        assertFalse("Work file was left behind", workFile.exists());
+
+        int connections = 0;
+        int pieceRequests = 0;
+        RecordedRequest request;
+        while ((request = server.takeRequest(100, TimeUnit.MILLISECONDS)) != null) {
+            assertEquals("GET", request.getMethod());
+            // Every request on a new connection has the sequence number 0.
+            if (request.getSequenceNumber() == 0) connections++;
+            if ("bytes=0-0".equals(request.getHeader("Range"))) {
+                assertNull(request.getHeader("If-Range"));
+            } else {
+                assertEquals(ETAG, request.getHeader("If-Range"));
+                pieceRequests++;
+            }
+        }
+        assertEquals((DOCUMENT_SIZE + PIECE_SIZE - 1) / PIECE_SIZE, pieceRequests);
+        assertTrue("Only " + connections + " connections were used", connections > 2);
+    }
+
+    @Test
+    public void documentChangedDuringDownloadFailsTheStream() throws IOException {
+        final byte[] changedDocument = document.clone();
+        changedDocument[DOCUMENT_SIZE - 1] ^= 1;
+        server.setDispatcher(new RangeDispatcher(document, ETAG) {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                final MockResponse response = super.dispatch(request);
+                // A new version is published right after the probe, so If-Range requests are answered with the whole new document.
+                if ("bytes=0-0".equals(request.getHeader("Range"))) setDocument(changedDocument, "\"v2\"");
+                return response;
+            }
+        });
+
+        assertReadFails(source.open());
+        // Pieces aren't retried once the document changed.
+        assertTrue(server.getRequestCount() <= 1 + MAX_CONNECTIONS);
+    }
+
+    @Test
+    public void rangeOfDifferentDocumentLengthFailsTheStream() throws IOException {
+        server.setDispatcher(new RangeDispatcher(document, ETAG) {
+            @NonNull
+            @Override
+            MockResponse serveRange(long first, long last) {
+                final MockResponse response = super.serveRange(first, last);
+                // Same validator, but a different total length than the probe reported.
+                return first == 0 && last == 0 ? response : response.setHeader("Content-Range", "bytes " + first + "-" + last + "/" + (DOCUMENT_SIZE + 1));
+            }
+        });
+
+        assertReadFails(source.open());
+    }
+
+    @Test
+    public void serverWithoutRangeSupportIsDownloadedWithASingleRequest() throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setHeader("ETag", ETAG).setBody(new Buffer().write(document));
+            }
+        });
+
+        assertEquals(DOCUMENT_SIZE, source.getLength());
+        assertArrayEquals(document, readFully(source.open()));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void tunerAddsConnectionsWhileTheyHelp() {
+        final ConnectionTuner tuner = new ConnectionTuner(2, 4);
+        assertEquals(3, tuner.onThroughputMeasured(100, true));
+        assertEquals(4, tuner.onThroughputMeasured(150, true));
+        // The maximum was reached.
+        assertEquals(4, tuner.onThroughputMeasured(200, true));
+        assertEquals(4, tuner.onThroughputMeasured(210, true));
+    }
+
+    @Test
+    public void tunerRetiresConnectionThatDidNotHelp() {
+        final ConnectionTuner tuner = new ConnectionTuner(2, 6);
+        assertEquals(3, tuner.onThroughputMeasured(100, true));
+        assertEquals(2, tuner.onThroughputMeasured(105, true));
+        // Growth stays stopped once the link is saturated.
+        assertEquals(2, tuner.onThroughputMeasured(110, true));
+    }
+
+    @Test
+    public void tunerRetiresConnectionsWhenThroughputDrops() {
+        final ConnectionTuner tuner = new ConnectionTuner(3, 3);
+        assertEquals(3, tuner.onThroughputMeasured(300, true));
+        // Small fluctuations don't change anything.
+        assertEquals(3, tuner.onThroughputMeasured(250, true));
+        assertEquals(2, tuner.onThroughputMeasured(150, true));
+        assertEquals(1, tuner.onThroughputMeasured(90, true));
+        // There's always at least one connection left.
+        assertEquals(1, tuner.onThroughputMeasured(10, true));
+    }
+
+    @NonNull
+    private static byte[] readFully(@NonNull InputStream inputStream) throws IOException {
+        try (InputStream stream = inputStream) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = stream.read(buffer)) >= 0) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    private static void assertReadFails(@NonNull InputStream inputStream) {
+        try {
+            readFully(inputStream);
+            fail("Download of a changed document succeeded.");
+        } catch (DocumentChangedException expected) {
+            // Expected.
+        } catch (IOException e) {
+            throw new AssertionError("Download failed with an unexpected exception.", e);
+        }
+    }
+
+    /**
+     * Serves a document with support for {@code Range} and {@code If-Range}, sending every response body at a limited rate.
+     */
+    private static class RangeDispatcher extends Dispatcher {
+        /** Bytes sent per {@link #THROTTLE_PERIOD_MILLIS} and connection. */
+        private static final int THROTTLE_BYTES = 16 * 1024;
+        private static final int THROTTLE_PERIOD_MILLIS = 20;
+
+        private volatile byte[] document;
+        private volatile String eTag;
+
+        RangeDispatcher(@NonNull byte[] document, @NonNull String eTag) {
+            this.document = document;
+            this.eTag = eTag;
+        }
+
+        void setDocument(@NonNull byte[] document, @NonNull String eTag) {
+            this.document = document;
+            this.eTag = eTag;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            final MockResponse response;
+            final String range = request.getHeader("Range");
+            final String ifRange = request.getHeader("If-Range");
+            if (range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(eTag))) {
+                final String[] bounds = range.substring("bytes=".length()).split("-");
+                final long first = Long.parseLong(bounds[0]);
+                final long last = bounds.length > 1 ? Math.min(Long.parseLong(bounds[1]), document.length - 1) : document.length - 1;
+                response = serveRange(first, last);
+            } else {
+                response = new MockResponse().setBody(new Buffer().write(document));
+            }
+            return response
+                .setHeader("ETag", eTag)
+                .setHeader("Accept-Ranges", "bytes")
+                .throttleBody(THROTTLE_BYTES, THROTTLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        @NonNull
+        MockResponse serveRange(long first, long last) {
+            return new MockResponse()
+                .setResponseCode(206)
+                .setHeader("Content-Range", "bytes " + first + "-" + last + "/" + document.length)
+                .setBody(new Buffer().write(document, (int) first, (int) (last - first + 1)));
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import androidx.annotation.NonNull;
+
+import com.pspdfkit.catalog.examples.java.ProgressProviderExample.RemoteDataProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.subscribers.TestSubscriber;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link RemoteDataProvider} against a local server that supports range requests.
+ */
+public class RemoteDataProviderTest {
+    private static final int DOCUMENT_SIZE = 300_000;
+    private static final String ETAG = "\"v1\"";
+
+    /** The document cache is a process wide singleton, so its directory has to outlive single tests. */
+    @ClassRule public static TemporaryFolder cacheFolder = new TemporaryFolder();
+
+    private final MockWebServer server = new MockWebServer();
+    private byte[] document;
+    private RemoteDataProvider provider;
+
+    @Before
+    public void setUp() throws IOException {
+        document = new byte[DOCUMENT_SIZE];
+        new Random(3).nextBytes(document);
+        server.start();
+        provider = new RemoteDataProvider(server.url("/document.pdf").toString());
+        provider.setContext(new TestContext(cacheFolder.newFolder()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        provider.release();
+        server.shutdown();
+    }
+
+    @Test
+    public void rangeRequestsCarryTheProbedValidator() throws InterruptedException {
+        server.setDispatcher(new RangeDispatcher(document, ETAG));
+
+        assertArrayEquals(Arrays.copyOfRange(document, 70_000, 71_000), provider.read(1000, 70_000));
+        assertArrayEquals(Arrays.copyOfRange(document, 10, 200_010), provider.read(200_000, 10));
+
+        RecordedRequest request;
+        int rangeRequests = 0;
+        while ((request = server.takeRequest(100, TimeUnit.MILLISECONDS)) != null) {
+            if (request.getHeader("Range") == null) continue;
+            assertEquals(ETAG, request.getHeader("If-Range"));
+            rangeRequests++;
+        }
+        assertTrue(rangeRequests > 0);
+    }
+
+    @Test
+    public void documentChangedOnTheServerFailsReads() {
+        final byte[] changedDocument = document.clone();
+        changedDocument[0] ^= 1;
+        server.setDispatcher(new RangeDispatcher(document, ETAG) {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                final MockResponse response = super.dispatch(request);
+                // A new version is published right after the probe, so If-Range requests are answered with the whole new document.
+                if ("HEAD".equals(request.getMethod())) setDocument(changedDocument, "\"v2\"");
+                return response;
+            }
+        });
+        final TestSubscriber<Double> progress = provider.observeProgress().test();
+
+        assertEquals(DOCUMENT_SIZE, provider.getSize());
+        assertEquals(0, provider.read(1000, 200_000).length);
+        assertEquals(0, provider.read(1000, 100_000).length);
+
+        progress.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        progress.assertError(IOException.class);
+    }
+
+    @Test
+    public void rangeOfDifferentDocumentLengthFailsReads() {
+        server.setDispatcher(new RangeDispatcher(document, ETAG) {
+            @NonNull
+            @Override
+            MockResponse serveRange(long first, long last) {
+                // Same validator, but a different total length than the probe reported.
+                return super.serveRange(first, last).setHeader("Content-Range", "bytes " + first + "-" + last + "/" + (DOCUMENT_SIZE + 1));
+            }
+        });
+
+        assertEquals(DOCUMENT_SIZE, provider.getSize());
+        assertEquals(0, provider.read(1000, 70_000).length);
+    }
+
+    @Test
+    public void slowProbeDoesNotBlockRelease() throws InterruptedException {
+        final RangeDispatcher dispatcher = new RangeDispatcher(document, ETAG);
+        dispatcher.setHeadersDelayMillis(2000);
+        server.setDispatcher(dispatcher);
+
+        final CountDownLatch readFinished = new CountDownLatch(1);
+        final byte[][] readResult = new byte[1][];
+        new Thread(() -> {
+            readResult[0] = provider.read(1000, 0);
+            readFinished.countDown();
+        }).start();
+        // Wait until the probe is on its way.
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+
+        final long releaseStart = System.nanoTime();
+        provider.release();
+        assertTrue("release() waited for the probe", System.nanoTime() - releaseStart < TimeUnit.MILLISECONDS.toNanos(500));
+
+        assertTrue(readFinished.await(10, TimeUnit.SECONDS));
+        assertEquals(0, readResult[0].length);
+    }
+
+    @Test
+    public void providersOfTheSameUrlUseTheirOwnWorkFiles() throws IOException {
+        server.setDispatcher(new RangeDispatcher(document, ETAG));
+        final File documentsDirectory = cacheFolder.newFolder();
+        provider.setContext(new TestContext(documentsDirectory));
+        final RemoteDataProvider secondProvider = new RemoteDataProvider(server.url("/document.pdf").toString());
+        secondProvider.setContext(new TestContext(documentsDirectory));
+        final TestSubscriber<Double> secondProgress = secondProvider.observeProgress().test();
+        try {
+            assertArrayEquals(Arrays.copyOfRange(document, 100, 1100), provider.read(1000, 100));
+            assertArrayEquals(Arrays.copyOfRange(document, 0, 1000), secondProvider.read(1000, 0));
+            // Opening the second provider must not have touched the data the first one downloaded.
+            assertArrayEquals(Arrays.copyOfRange(document, 100, 1100), provider.read(1000, 100));
+
+            // The completed download is moved into the document cache while the first provider keeps reading its own file.
+            secondProgress.awaitTerminalEvent(5, TimeUnit.SECONDS);
+            secondProgress.assertComplete();
+            assertArrayEquals(Arrays.copyOfRange(document, 250_000, 251_000), provider.read(1000, 250_000));
+            assertArrayEquals(Arrays.copyOfRange(document, 250_000, 251_000), secondProvider.read(1000, 250_000));
+        } finally {
+            secondProvider.release();
+        }
+        provider.release();
+
+        final File[] workFiles = new File(documentsDirectory, "documents").listFiles();
+        assertNotNull(workFiles);
+        assertEquals(0, workFiles.length);
+    }
+
+    /**
+     * Serves a document with support for {@code Range} and {@code If-Range}, like a regular web server.
+     */
+    private static class RangeDispatcher extends Dispatcher {
+        private volatile byte[] document;
+        private volatile String eTag;
+        private volatile long headersDelayMillis = 0;
+
+        RangeDispatcher(@NonNull byte[] document, @NonNull String eTag) {
+            this.document = document;
+            this.eTag = eTag;
+        }
+
+        void setDocument(@NonNull byte[] document, @NonNull String eTag) {
+            this.document = document;
+            this.eTag = eTag;
+        }
+
+        void setHeadersDelayMillis(long headersDelayMillis) {
+            this.headersDelayMillis = headersDelayMillis;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            final MockResponse response;
+            final String range = request.getHeader("Range");
+            final String ifRange = request.getHeader("If-Range");
+            if ("HEAD".equals(request.getMethod())) {
+                response = new MockResponse().setHeader("Content-Length", document.length);
+            } else if (range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(eTag))) {
+                final String[] bounds = range.substring("bytes=".length()).split("-");
+                final long first = Long.parseLong(bounds[0]);
+                final long last = bounds.length > 1 ? Math.min(Long.parseLong(bounds[1]), document.length - 1) : document.length - 1;
+                response = serveRange(first, last);
+            } else {
+                response = new MockResponse().setBody(new Buffer().write(document));
+            }
+            return response
+                .setHeader("ETag", eTag)
+                .setHeader("Accept-Ranges", "bytes")
+                .setHeadersDelay(headersDelayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @NonNull
+        MockResponse serveRange(long first, long last) {
+            return new MockResponse()
+                .setResponseCode(206)
+                .setHeader("Content-Range", "bytes " + first + "-" + last + "/" + document.length)
+                .setBody(new Buffer().write(document, (int) first, (int) (last - first + 1)));
+        }
+    }
+
+    /** Context providing just the directories used by the provider and the document cache. */
+    private static class TestContext extends ContextWrapper {
+        @NonNull private final File directory;
+
+        TestContext(@NonNull File directory) {
+            super(null);
+            this.directory = directory;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public File getCacheDir() {
+            return cacheFolder.getRoot();
+        }
+
+        @Override
+        public File getDir(String name, int mode) {
+            final File dir = new File(directory, name);
+            //noinspection ResultOfMethodCallIgnored
+            dir.mkdirs();
+            return dir;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *   Copyright © 2017-2020 PSPDFKit GmbH. All rights reserved.
+ *
+ *   The PSPDFKit Sample applications are licensed with a modified BSD license.
+ *   Please see License for details. This notice may not be removed from this file.
+ */
+
+package com.pspdfkit.catalog.examples.java.decryption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that reads decrypted in parallel segments return exactly the same data as reads decrypted on the calling thread.
+ */
+public class AesDataProviderTest {
+    private static final int AES_BLOCK_SIZE = 16;
+    /** Reads up to this size are served from the chunk cache and never decrypted in parallel. */
+    private static final int MAX_CACHED_READ_SIZE = 1024 * 1024;
+    /** Not a multiple of the block size, so the last block of the file is incomplete. */
+    private static final int FILE_SIZE = 5 * 1024 * 1024 + 7;
+    private static final int MAX_CONCURRENT_READS = 4;
+    /** Fixed instead of the number of cores, so reads are split the same way on every machine. */
+    private static final int SEGMENT_COUNT = 4;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private byte[] plaintext;
+    private AesDataProvider serialProvider;
+    private AesDataProvider parallelProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        final Random random = new Random(42);
+        plaintext = new byte[FILE_SIZE];
+        random.nextBytes(plaintext);
+        final byte[] key = new byte[32];
+        random.nextBytes(key);
+        // The low bytes of the IV overflow after a few blocks, so the counter carry into the upper bytes is covered too.
+        final byte[] iv = new byte[AES_BLOCK_SIZE];
+        Arrays.fill(iv, 8, AES_BLOCK_SIZE, (byte) 0xFF);
+        iv[AES_BLOCK_SIZE - 1] = (byte) 0xF0;
+
+        final File encryptedFile = temporaryFolder.newFile("encrypted.pdf");
+        final Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        try (FileOutputStream outputStream = new FileOutputStream(encryptedFile)) {
+            outputStream.write(iv);
+            outputStream.write(cipher.doFinal(plaintext));
+        }
+
+        serialProvider = new AesDataProvider(encryptedFile, key, false, MAX_CONCURRENT_READS);
+        serialProvider.setParallelDecryptionThreshold(Integer.MAX_VALUE);
+        parallelProvider = new AesDataProvider(encryptedFile, key, false, MAX_CONCURRENT_READS);
+        parallelProvider.setParallelDecryptionThreshold(0);
+        parallelProvider.setParallelSegmentCount(SEGMENT_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        serialProvider.release();
+        parallelProvider.release();
+    }
+
+    @Test
+    public void parallelReadsMatchSerialReadsAtUnalignedOffsets() {
+        final int size = MAX_CACHED_READ_SIZE + 1001;
+        for (long offset : new long[] {0, 1, 15, 16, 17, 64 * 1024 - 1, 1_000_003, FILE_SIZE - size}) {
+            assertReadsMatch(size, offset);
+        }
+    }
+
+    @Test
+    public void parallelReadsMatchSerialReadsAtSegmentBoundaries() {
+        final int size = 3 * 1024 * 1024 + 5;
+        for (long offset : new long[] {0, 7, 4093}) {
+            final long[] boundaries = AesDataProvider.getSegmentBoundaries(offset, size, SEGMENT_COUNT);
+            // Reads starting right at, before and after an inner boundary move the blocks that are split between two segments.
+            for (int i = 1; i < SEGMENT_COUNT; i++) {
+                for (long delta = -AES_BLOCK_SIZE - 1; delta <= AES_BLOCK_SIZE + 1; delta += 3) {
+                    final long readOffset = boundaries[i] + delta;
+                    assertReadsMatch((int) Math.min(MAX_CACHED_READ_SIZE + 1, FILE_SIZE - readOffset), readOffset);
+                }
+            }
+            assertReadsMatch(size, offset);
+        }
+    }
+
+    @Test
+    public void parallelReadsMatchSerialReadsUpToTheEndOfTheFile() {
+        for (int size : new int[] {MAX_CACHED_READ_SIZE + 1, MAX_CACHED_READ_SIZE + AES_BLOCK_SIZE, FILE_SIZE - 3}) {
+            assertReadsMatch(size, FILE_SIZE - size);
+        }
+        assertReadsMatch(FILE_SIZE, 0);
+    }
+
+    @Test
+    public void segmentBoundariesAreBlockAligned() {
+        final Random random = new Random(7);
+        for (int run = 0; run < 1000; run++) {
+            final long offset = random.nextInt(FILE_SIZE);
+            final int length = 1 + random.nextInt(8 * 1024 * 1024);
+            final int segmentCount = 2 + random.nextInt(15);
+            final long[] boundaries = AesDataProvider.getSegmentBoundaries(offset, length, segmentCount);
+
+            assertEquals(offset, boundaries[0]);
+            assertEquals(offset + length, boundaries[segmentCount]);
+            for (int i = 1; i < segmentCount; i++) {
+                assertTrue(boundaries[i] >= boundaries[i - 1]);
+                assertTrue(boundaries[i] == boundaries[segmentCount] || boundaries[i] % AES_BLOCK_SIZE == 0);
+            }
+        }
+    }
+
+    private void assertReadsMatch(int size, long offset) {
+        final byte[] expected = Arrays.copyOfRange(plaintext, (int) offset, (int) offset + size);
+        final String range = size + " bytes at " + offset;
+        assertArrayEquals("Serial read of " + range, expected, serialProvider.read(size, offset));
+        assertArrayEquals("Parallel read of " + range, expected, parallelProvider.read(size, offset));
+    }
+}